@@ -1231,6 +1231,9 @@ class ClassGenerator(object):
         support_method = gen.support_method(fields)
         if support_method is not None:
             self.java_class.add_support_method(support_method)
+        for dispatcher in (gen.child_adder(), gen.leaf_value_setter()):
+            if dispatcher is not None:
+                self.java_class.add_support_method(dispatcher)
 
         self.java_class.add_name_getter(gen.key_names())
         self.java_class.add_name_getter(gen.children_names())
@@ -2117,6 +2120,73 @@ class MethodGenerator(object):
             cond = 'else '
         return self.fix_imports(add_child)
 
+    def child_adder(self):
+        """Returns an 'addChildByName' JavaMethod, used by the parsers to add
+        children by name with a switch instead of reflection.
+
+        """
+        if not (self.is_list or self.is_container):
+            return None
+        method = JavaMethod(modifiers=['protected'],
+                            return_type='Element',
+                            name='addChildByName',
+                            params=[('String', 'childName')],
+                            exceptions=['JNCException'])
+        method.add_javadoc('Support method for the parsers.')
+        method.add_javadoc('Adds a container or list child by name.')
+        method.add_javadoc('')
+        method.add_javadoc('@param childName The name of the child to add')
+        method.add_javadoc('@return The added child, null if it is a leaf or '
+                           'leaf-list,')
+        method.add_javadoc('        or NO_SUCH_CHILD if there is no child '
+                           'with that name.')
+        method.add_line('switch (childName) {')
+        leaves = []
+        for child in search(self.stmt, yangelement_stmts | leaf_stmts):
+            if child.keyword in leaf_stmts:
+                leaves.append(child.arg)
+                continue
+            method.add_line('case "' + child.arg + '":')
+            method.add_line('    return add' + normalize(child.arg) + '();')
+        for leaf in leaves:
+            method.add_line('case "' + leaf + '":')
+        if leaves:
+            method.add_line('    return null;')
+        method.add_line('default:')
+        method.add_line('    return NO_SUCH_CHILD;')
+        method.add_line('}')
+        return self.fix_imports(method)
+
+    def leaf_value_setter(self):
+        """Returns a 'setLeafValueByName' JavaMethod, used by the parsers to
+        set leaf values by name with a switch instead of reflection.
+
+        """
+        if not (self.is_list or self.is_container):
+            return None
+        method = JavaMethod(modifiers=['protected'],
+                            return_type='boolean',
+                            name='setLeafValueByName',
+                            params=[('String', 'leafName'),
+                                    ('String', 'value')],
+                            exceptions=['JNCException'])
+        method.add_javadoc('Support method for the parsers.')
+        method.add_javadoc('Sets the value of a leaf or leaf-list child by '
+                           'name.')
+        method.add_javadoc('')
+        method.add_javadoc('@param leafName The name of the leaf')
+        method.add_javadoc('@param value The value to set')
+        method.add_javadoc('@return false if there is no leaf with that name.')
+        method.add_line('switch (leafName) {')
+        for leaf in search(self.stmt, leaf_stmts):
+            method.add_line('case "' + leaf.arg + '":')
+            method.add_line('    set' + normalize(leaf.arg) + 'Value(value);')
+            method.add_line('    return true;')
+        method.add_line('default:')
+        method.add_line('    return false;')
+        method.add_line('}')
+        return self.fix_imports(method)
+
     def setters(self):
         """Returns a list of JavaMethods representing setters to include
         in generated class of self.stmt
@@ -0,0 +1,113 @@
+package com.tailf.jnc;
+
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Escapes and collapses the whitespace of 1000 leaf values, as when
+ * encoding or parsing a configuration: either mostly names, numbers and
+ * addresses, or descriptions of which some have markup and runs of spaces.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UtilsBenchmark {
+
+    @Param({"config", "descriptions"})
+    public String values;
+
+    private String[] leaves;
+    private final StringBuilder sb = new StringBuilder();
+    private XMLEncoder encoder;
+
+    @Setup
+    public void setUp() {
+        final Random r = new Random(42);
+        leaves = new String[1000];
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = "config".equals(values) ? config(r, i) : description(r, i);
+        }
+        encoder = new XMLEncoder(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+    }
+
+    private static String config(Random r, int i) {
+        switch (r.nextInt(4)) {
+        case 0:
+            return "eth" + i;
+        case 1:
+            return Integer.toString(r.nextInt(10000));
+        case 2:
+            return "10.0." + r.nextInt(256) + "." + r.nextInt(256);
+        default:
+            return r.nextBoolean() ? "true" : "false";
+        }
+    }
+
+    private static String description(Random r, int i) {
+        switch (r.nextInt(4)) {
+        case 0:
+            return "uplink to core router " + i;
+        case 1:
+            return "  link  to " + i + " <backup>  ";
+        case 2:
+            return "R&D lab " + i + "\tfloor 2";
+        default:
+            return "customer " + i + ", port " + r.nextInt(48);
+        }
+    }
+
+    @Benchmark
+    public void escapeXml(Blackhole bh) {
+        for (final String s : leaves) {
+            bh.consume(Utils.escapeXml(s));
+        }
+    }
+
+    @Benchmark
+    public void escapeXmlAppend(Blackhole bh) {
+        for (final String s : leaves) {
+            sb.setLength(0);
+            bh.consume(Utils.escapeXml(s, sb));
+        }
+    }
+
+    @Benchmark
+    public void encoderText() {
+        for (final String s : leaves) {
+            encoder.text(s, false);
+        }
+    }
+
+    @Benchmark
+    public void wsCollapse(Blackhole bh) {
+        for (final String s : leaves) {
+            bh.consume(Utils.wsCollapse(s));
+        }
+    }
+
+    @Benchmark
+    public void wsReplace(Blackhole bh) {
+        for (final String s : leaves) {
+            bh.consume(Utils.wsReplace(s));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.tailf.jnc;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xml.sax.InputSource;
+
+/**
+ * Compares the SAX and StAX backends of {@link XMLParser} on get-config
+ * replies: a list of interfaces, and a list of certificates with long
+ * base64 values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class XMLParserBenchmark {
+
+    @Param({"sax", "stax"})
+    public String backend;
+
+    @Param({"interfaces", "certificates"})
+    public String reply;
+
+    private XMLParser parser;
+    private byte[] message;
+
+    @Setup
+    public void setUp() throws JNCException {
+        parser = new XMLParser();
+        parser.setStax("stax".equals(backend));
+        message = ("interfaces".equals(reply) ? interfaces(1000)
+                   : certificates(20, 64 * 1024))
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String interfaces(int n) {
+        final StringBuilder s = new StringBuilder(begin());
+        s.append("    <interfaces xmlns=\"urn:ietf:params:xml:ns:yang:ietf-interfaces\">\n");
+        for (int i = 0; i < n; i++) {
+            s.append("      <interface>\n")
+                .append("        <name>eth").append(i).append("</name>\n")
+                .append("        <description>uplink ").append(i).append("</description>\n")
+                .append("        <type xmlns:ianaift=\"urn:ietf:params:xml:ns:yang:iana-if-type\">")
+                .append("ianaift:ethernetCsmacd</type>\n")
+                .append("        <enabled>true</enabled>\n")
+                .append("      </interface>\n");
+        }
+        s.append("    </interfaces>\n");
+        return s.append(end()).toString();
+    }
+
+    private static String certificates(int n, int size) {
+        final StringBuilder s = new StringBuilder(begin());
+        s.append("    <keystore xmlns=\"urn:ietf:params:xml:ns:yang:ietf-keystore\">\n");
+        for (int i = 0; i < n; i++) {
+            s.append("      <certificate>\n")
+                .append("        <name>cert").append(i).append("</name>\n")
+                .append("        <cert-data>");
+            for (int j = 0; j < size; j++) {
+                s.append((char) ('A' + (i + j) % 26));
+            }
+            s.append("</cert-data>\n      </certificate>\n");
+        }
+        s.append("    </keystore>\n");
+        return s.append(end()).toString();
+    }
+
+    private static String begin() {
+        return "<rpc-reply xmlns=\"urn:ietf:params:xml:ns:netconf:base:1.0\""
+            + " message-id=\"1\">\n  <data>\n";
+    }
+
+    private static String end() {
+        return "  </data>\n</rpc-reply>\n";
+    }
+
+    @Benchmark
+    public Element parse() throws JNCException {
+        return parser.parse(new InputSource(new ByteArrayInputStream(message)));
+    }
+}
@@ -0,0 +1,119 @@
+package com.tailf.jnc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Diffs and syncs two generated lists of keyed entries that differ in one
+ * percent of their entries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class YangDiffBenchmark {
+
+    private static final String NS = "urn:example:bench";
+
+    @Param({"1000", "10000", "100000"})
+    public int entries;
+
+    /** See {@link YangElement#setParallelDiffThreshold}. */
+    @Param({"0", "1024"})
+    public int threshold;
+
+    /** See {@link YangElement#setSubtreeDigests}. */
+    @Param({"false", "true"})
+    public boolean digests;
+
+    private YangElement a;
+    private YangElement b;
+
+    /**
+     * A list entry keyed by its leaf "name".
+     */
+    static class Entry extends YangElement {
+
+        private static final long serialVersionUID = 1L;
+
+        Entry(String key) {
+            super(NS, "interface");
+            final Leaf name = new Leaf(NS, "name");
+            name.value = key;
+            addChild(name);
+        }
+
+        @Override
+        public String[] childrenNames() {
+            return new String[] {"name", "mtu", "description"};
+        }
+
+        @Override
+        public String[] keyNames() {
+            return new String[] {"name"};
+        }
+
+        @Override
+        public Entry clone() {
+            return (Entry) cloneContent(new Entry((String) getChild("name").value));
+        }
+
+        @Override
+        public Entry cloneShallow() {
+            return (Entry) cloneShallowContent(new Entry((String) getChild("name").value));
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        a = list(entries, 0);
+        b = list(entries, 100);
+        YangElement.setParallelDiffThreshold(threshold);
+        YangElement.setSubtreeDigests(digests);
+    }
+
+    /**
+     * Builds a list where every n:th entry has another mtu, is missing or
+     * is new.
+     */
+    private static YangElement list(int n, int every) {
+        final YangElement list = new DummyElement(NS, "interfaces");
+        for (int i = 0; i < n; i++) {
+            if (every > 0 && i % every == 1) {
+                continue;
+            }
+            final Entry e = new Entry(every > 0 && i % every == 2
+                                      ? "new" + i : "eth" + i);
+            leaf(e, "mtu", every > 0 && i % every == 0 ? "9000" : "1500");
+            leaf(e, "description", "port " + i);
+            list.addChild(e);
+        }
+        return list;
+    }
+
+    private static void leaf(Element parent, String name, String value) {
+        final Leaf leaf = new Leaf(NS, name);
+        leaf.value = value;
+        parent.addChild(leaf);
+    }
+
+    @Benchmark
+    public NodeSet getDiff() {
+        final NodeSet changed = new NodeSet();
+        YangElement.getDiff(a, b, new NodeSet(), new NodeSet(), changed,
+                            new NodeSet());
+        return changed;
+    }
+
+    @Benchmark
+    public YangElement syncMerge() {
+        return YangElement.syncMerge(a, b);
+    }
+}
@@ -139,19 +139,28 @@ public class Attribute implements Cloneable, Serializable {
                 if (contextnode != null) {
                     out.print("unknown:");
                 }
-                out.print(name + EQUALS_QUOTE + value + QUOTE);
+                out.print(name + EQUALS_QUOTE + encodedValue() + QUOTE);
                 return;
             }
             if (prefix.length() > 0) {
-                out.print(prefix + ":" + name + EQUALS_QUOTE + value + QUOTE);
+                out.print(prefix + ":" + name + EQUALS_QUOTE + encodedValue()
+                          + QUOTE);
                 return;
             }
         }
-        out.print(name + EQUALS_QUOTE + value + QUOTE);
+        out.print(name + EQUALS_QUOTE + encodedValue() + QUOTE);
     }
 
     /* help functions */
 
+    /**
+     * Returns the value escaped for an attribute, as {@link XMLEncoder}
+     * writes it.
+     */
+    String encodedValue() {
+        return value == null ? "null" : XMLEncoder.escape(value, true);
+    }
+
     /**
      * Printout trace if 'debug'-flag is enabled.
      */
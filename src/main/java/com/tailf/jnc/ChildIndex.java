@@ -0,0 +1,391 @@
+package com.tailf.jnc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the children of an element, by name and by the keys of YANG
+ * list entries.
+ * <p>
+ * An element builds its index when it is first searched and has at least
+ * {@link #THRESHOLD} children. The index is kept up to date by
+ * {@link Element#addChild(Element)} and {@link Element#deleteChild(Element)};
+ * other changes to the list of children, made with the list itself or by
+ * inserting children at a position, make the element drop the index and
+ * build a new one when it is searched again.
+ * <p>
+ * The keys of the list entries are read when the first search by key is
+ * made. Setting the value of a key leaf, or adding or deleting one, drops
+ * them (see {@link Element#invalidateKeyIndex()}), and they are read again
+ * by the next search.
+ * <p>
+ * Path expressions look up list entries by the values of their key leafs,
+ * see {@link #entries(String, Map)}.
+ * <p>
+ * Searches may run concurrently with each other, but not with changes to
+ * the children: the lookups that searches build are built aside and then
+ * published through volatile fields.
+ */
+final class ChildIndex {
+
+    /**
+     * The number of children from which elements index them.
+     */
+    static final int THRESHOLD = 32;
+
+    private static final NodeSet EMPTY = new NodeSet(0);
+
+    /* The list of children indexed, and its modification count */
+    private final NodeSet children;
+    private int modCount;
+
+    /* The children of each name, in order */
+    private final Map<String, NodeSet> byName = new HashMap<String, NodeSet>();
+
+    /* The list entries by key, built on first use */
+    private volatile Keys keys;
+
+    /* The list entries of each name by the string values of their keys, in
+       any namespace, built on first use. Null for the names of children
+       that path predicates must be tested on one by one. */
+    private volatile Map<String, Entries> entries;
+
+    /**
+     * The first list entry with each key, and the names of the children
+     * that are not list entries.
+     */
+    private static final class Keys {
+        final Map<Key, Element> byKey = new HashMap<Key, Element>();
+        final Set<String> unkeyed = new HashSet<String>();
+
+        void add(Element child) {
+            final Key k = key(child);
+            if (k == null) {
+                unkeyed.add(child.name);
+            } else if (!byKey.containsKey(k)) {
+                byKey.put(k, child);
+            }
+        }
+    }
+
+    /**
+     * The list entries with one name, by key values.
+     */
+    private static final class Entries {
+        final String[] keyNames;
+        final Map<List<String>, NodeSet> byValues =
+                new HashMap<List<String>, NodeSet>();
+
+        Entries(String[] keyNames) {
+            this.keyNames = keyNames;
+        }
+    }
+
+    /**
+     * The name, namespace and key values of a list entry.
+     */
+    private static final class Key {
+        final String name;
+        final String ns;
+        final String[] values;
+        final int hash;
+
+        Key(String name, String ns, String[] values) {
+            this.name = name;
+            this.ns = ns;
+            this.values = values;
+            hash = name.hashCode() * 31 + Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key) o;
+            return name.equals(k.name)
+                && (ns == null ? k.ns == null : ns.equals(k.ns))
+                && Arrays.equals(values, k.values);
+        }
+    }
+
+    ChildIndex(NodeSet children) {
+        this.children = children;
+        for (final Element child : children) {
+            bucket(child.name).add(child);
+        }
+        modCount = children.modCount();
+    }
+
+    /**
+     * Returns true if the index is up to date with the given list of
+     * children.
+     */
+    boolean covers(NodeSet list) {
+        return list == children && list.modCount() == modCount;
+    }
+
+    /**
+     * Indexes a child that was just added last to the list.
+     */
+    void added(Element child) {
+        bucket(child.name).add(child);
+        final Keys ks = keys;
+        if (ks != null) {
+            ks.add(child);
+        }
+        final Map<String, Entries> m = entries;
+        if (m != null) {
+            addEntry(m, child);
+        }
+        modCount = children.modCount();
+    }
+
+    /**
+     * Removes a child that was just removed from the list.
+     */
+    void removed(Element child) {
+        final NodeSet b = byName.get(child.name);
+        if (b != null) {
+            for (int i = 0; i < b.size(); i++) {
+                if (b.getElement(i) == child) {
+                    b.remove(i);
+                    break;
+                }
+            }
+        }
+        final Keys ks = keys;
+        if (ks != null) {
+            final Key k = key(child);
+            if (k != null && ks.byKey.get(k) == child) {
+                // another entry may have the same key
+                keys = null;
+            }
+        }
+        final Map<String, Entries> m = entries;
+        if (m != null) {
+            removeEntry(m, child);
+        }
+        modCount = children.modCount();
+    }
+
+    /**
+     * Drops the lookups by key if a leaf with the given name is a key of a
+     * child, because its value has been set, or it has been added or
+     * deleted.
+     *
+     * @param entry A child
+     * @param leafName Name of the leaf of the child that has changed
+     */
+    void keyChanged(Element entry, String leafName) {
+        if (keys == null && entries == null
+                || !(entry instanceof YangElement)) {
+            return;
+        }
+        final String[] keyNames = ((YangElement) entry).keyNames();
+        if (keyNames != null) {
+            for (final String k : keyNames) {
+                if (k.equals(leafName)) {
+                    keys = null;
+                    entries = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the children with a name, in order, or null if there are none.
+     * The returned set must not be modified.
+     */
+    NodeSet get(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Finds the first child that compares equal to or the same as an
+     * element, see {@link Element#compare(Element)}.
+     */
+    Element find(Element like) {
+        final Key k = key(like);
+        if (k != null) {
+            Keys ks = keys;
+            if (ks == null) {
+                ks = new Keys();
+                for (final Element child : children) {
+                    ks.add(child);
+                }
+                keys = ks;
+            }
+            final Element candidate = ks.byKey.get(k);
+            if (candidate != null && like.compare(candidate) >= 0) {
+                return candidate;
+            }
+            if (candidate == null && !ks.unkeyed.contains(like.name)) {
+                return null;
+            }
+        }
+        final NodeSet b = byName.get(like.name);
+        if (b != null) {
+            for (final Element child : b) {
+                if (like.compare(child) >= 0) {
+                    return child;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the list entries with a name whose key leafs have the given
+     * string values, in order. This is the set of children with the name
+     * for which the path predicates [key='value', ...] hold, when the
+     * predicates name exactly the keys of the entries.
+     *
+     * @param name Name of the list entries
+     * @param keyValues The value of each key leaf, by leaf name
+     * @return The matching entries, which must not be modified, or null if
+     *         the children with the name must be tested one by one
+     */
+    NodeSet entries(String name, Map<String, String> keyValues) {
+        Map<String, Entries> m = entries;
+        if (m == null) {
+            m = new HashMap<String, Entries>();
+            for (final Element child : children) {
+                addEntry(m, child);
+            }
+            entries = m;
+        }
+        if (!m.containsKey(name)) {
+            return byName.containsKey(name) ? null : EMPTY;
+        }
+        final Entries e = m.get(name);
+        if (e == null || e.keyNames.length != keyValues.size()) {
+            return null;
+        }
+        final String[] values = new String[e.keyNames.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = keyValues.get(e.keyNames[i]);
+            if (values[i] == null) {
+                return null;
+            }
+        }
+        final NodeSet found = e.byValues.get(Arrays.asList(values));
+        return found == null ? EMPTY : found;
+    }
+
+    private static void addEntry(Map<String, Entries> m, Element child) {
+        if (m.containsKey(child.name) && m.get(child.name) == null) {
+            return;
+        }
+        final List<String> values = entryKey(child);
+        Entries e = m.get(child.name);
+        if (values == null || e != null && !Arrays.equals(e.keyNames,
+                ((YangElement) child).keyNames())) {
+            // not a list entry, or not like the others with its name
+            m.put(child.name, null);
+            return;
+        }
+        if (e == null) {
+            e = new Entries(((YangElement) child).keyNames());
+            m.put(child.name, e);
+        }
+        NodeSet b = e.byValues.get(values);
+        if (b == null) {
+            b = new NodeSet(1);
+            e.byValues.put(values, b);
+        }
+        b.add(child);
+    }
+
+    private void removeEntry(Map<String, Entries> m, Element child) {
+        final Entries e = m.get(child.name);
+        if (e == null) {
+            return;
+        }
+        final List<String> values = entryKey(child);
+        final NodeSet b = values == null ? null : e.byValues.get(values);
+        if (b != null) {
+            for (int i = 0; i < b.size(); i++) {
+                if (b.getElement(i) == child) {
+                    b.remove(i);
+                    if (b.isEmpty()) {
+                        e.byValues.remove(values);
+                    }
+                    return;
+                }
+            }
+        }
+        // its keys were changed
+        entries = null;
+    }
+
+    /**
+     * Returns the key values of a list entry the way path predicates compare
+     * them, or null if e is not a list entry or has a key that predicates
+     * compare as a number or boolean.
+     */
+    private static List<String> entryKey(Element e) {
+        if (!(e instanceof YangElement)) {
+            return null;
+        }
+        final String[] keys = ((YangElement) e).keyNames();
+        if (keys == null || keys.length == 0) {
+            return null;
+        }
+        final String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            final Element leaf = e.getChild(keys[i]);
+            if (leaf == null) {
+                return null;
+            }
+            final Object v = leaf.getValue();
+            if (v instanceof Boolean || v instanceof Integer
+                    || v instanceof Float) {
+                return null;
+            }
+            values[i] = v == null ? null : v.toString();
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * Returns the key of a YANG list entry, or null if e is not one.
+     */
+    private static Key key(Element e) {
+        if (!(e instanceof YangElement)) {
+            return null;
+        }
+        final String[] keys = ((YangElement) e).keyNames();
+        if (keys == null || keys.length == 0) {
+            return null;
+        }
+        final String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            final Element leaf = e.getChild(keys[i]);
+            if (leaf == null) {
+                return null;
+            }
+            values[i] = leaf.value == null ? null : leaf.value.toString();
+        }
+        return new Key(e.name, e.namespace, values);
+    }
+
+    private NodeSet bucket(String name) {
+        NodeSet b = byName.get(name);
+        if (b == null) {
+            b = new NodeSet(1);
+            byName.put(name, b);
+        }
+        return b;
+    }
+}
@@ -0,0 +1,248 @@
+package com.tailf.jnc;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pairs the children of one element with the children of another, for
+ * {@link YangElement#getDiff} and {@link YangElement#syncMerge}.
+ * <p>
+ * The children to match against are put in hash tables once, by qualified
+ * name and, for YANG elements, by value and list keys. Each lookup then
+ * takes the first child not matched before that compares the same way as a
+ * scan of the children in order would, so matching all children of two
+ * elements takes time proportional to their number.
+ */
+final class ChildMatcher {
+
+    private final NodeSet children;
+    private final boolean[] taken;
+
+    /* All children, the children that are not YangElements, and the Leafs,
+       by qualified name */
+    private final Map<Key, ArrayDeque<Integer>> all = new HashMap<Key, ArrayDeque<Integer>>();
+    private final Map<Key, ArrayDeque<Integer>> plain = new HashMap<Key, ArrayDeque<Integer>>();
+    private final Map<Key, ArrayDeque<Integer>> leafs = new HashMap<Key, ArrayDeque<Integer>>();
+
+    /* YangElements by qualified name, value and key values */
+    private final Map<Key, ArrayDeque<Integer>> entries = new HashMap<Key, ArrayDeque<Integer>>();
+
+    /**
+     * A qualified name, possibly with values.
+     */
+    private static final class Key {
+        final String name;
+        final String ns;
+        final Object[] values;
+        final int hash;
+
+        Key(String name, String ns, Object[] values) {
+            this.name = name;
+            this.ns = ns;
+            this.values = values;
+            hash = (name.hashCode() * 31 + (ns == null ? 0 : ns.hashCode()))
+                * 31 + Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key) o;
+            return hash == k.hash && name.equals(k.name)
+                && (ns == null ? k.ns == null : ns.equals(k.ns))
+                && Arrays.equals(values, k.values);
+        }
+    }
+
+    /**
+     * @param children The children to match against, or null
+     */
+    ChildMatcher(NodeSet children) {
+        this.children = children == null ? new NodeSet(0) : children;
+        taken = new boolean[this.children.size()];
+        for (int i = 0; i < taken.length; i++) {
+            final Element c = this.children.getElement(i);
+            final Key q = new Key(c.name, c.namespace, null);
+            add(all, q, i);
+            if (c instanceof YangElement) {
+                add(entries, entryKey((YangElement) c), i);
+            } else {
+                add(plain, q, i);
+                if (c instanceof Leaf) {
+                    add(leafs, q, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the first child that a.compare(child) is 0 or 1 for, as
+     * {@link YangElement#getDiff} looks for it.
+     *
+     * @return The child, or null if there is none left
+     */
+    Element takeSame(Element a) {
+        final Key q = new Key(a.name, a.namespace, null);
+        if (!(a instanceof YangElement)) {
+            // Element.compare only looks at the name
+            return take(first(all, q));
+        }
+        // YangElement.compare: names of other elements, else value and keys
+        final int p = first(plain, q);
+        int e = first(entries, entryKey((YangElement) a));
+        if (e >= 0 && a.compare(children.getElement(e)) < 0) {
+            e = scan(a, q);
+        }
+        if (p < 0) {
+            return take(e);
+        }
+        return take(e < 0 || p < e ? p : e);
+    }
+
+    /**
+     * Takes the first child that matches b the way
+     * {@link YangElement#syncMerge} pairs children: Leafs and other elements
+     * by name, YangElements by value and keys.
+     *
+     * @return The child, or null if there is none left
+     */
+    Element takeSync(Element b) {
+        final Key q = new Key(b.name, b.namespace, null);
+        if (b instanceof Leaf) {
+            return take(first(leafs, q));
+        }
+        if (!(b instanceof YangElement)) {
+            // not in the data model, as when the device has a newer
+            // revision than us
+            return take(first(all, q));
+        }
+        final YangElement y = (YangElement) b;
+        final int e = first(entries, entryKey(y));
+        if (e < 0 || syncMatch(y, children.getElement(e))) {
+            return take(e);
+        }
+        final ArrayDeque<Integer> named = all.get(q);
+        if (named != null) {
+            for (final int i : named) {
+                if (!taken[i] && syncMatch(y, children.getElement(i))) {
+                    return take(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the children not taken, in order.
+     */
+    NodeSet remaining() {
+        final NodeSet rest = new NodeSet();
+        for (int i = 0; i < taken.length; i++) {
+            if (!taken[i]) {
+                rest.add(children.getElement(i));
+            }
+        }
+        return rest;
+    }
+
+    private static boolean syncMatch(YangElement b, Element x) {
+        if (!(x instanceof YangElement)) {
+            return false;
+        }
+        return b.keyNames() == null ? b.equals(x) : b.keyCompare((YangElement) x);
+    }
+
+    /**
+     * Scans the children of a name, in order, for the first one a compares
+     * to as 0 or 1.
+     */
+    private int scan(Element a, Key q) {
+        final ArrayDeque<Integer> named = all.get(q);
+        if (named != null) {
+            for (final int i : named) {
+                if (!taken[i] && a.compare(children.getElement(i)) >= 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private Element take(int i) {
+        if (i < 0) {
+            return null;
+        }
+        taken[i] = true;
+        return children.getElement(i);
+    }
+
+    /**
+     * Returns the first child of a table entry that is not taken, dropping
+     * the taken ones before it.
+     */
+    private int first(Map<Key, ArrayDeque<Integer>> table, Key k) {
+        final ArrayDeque<Integer> q = table.get(k);
+        if (q == null) {
+            return -1;
+        }
+        while (!q.isEmpty()) {
+            final int i = q.peekFirst();
+            if (!taken[i]) {
+                return i;
+            }
+            q.pollFirst();
+        }
+        return -1;
+    }
+
+    private static void add(Map<Key, ArrayDeque<Integer>> table, Key k,
+                            int i) {
+        ArrayDeque<Integer> q = table.get(k);
+        if (q == null) {
+            q = new ArrayDeque<Integer>(2);
+            table.put(k, q);
+        }
+        q.addLast(i);
+    }
+
+    /**
+     * Returns the name, value and key values of a YangElement. Elements that
+     * are equal, or list entries with equal keys, have equal keys.
+     */
+    private static Key entryKey(YangElement e) {
+        final String[] keys = e.keyNames();
+        final int n = keys == null ? 0 : keys.length;
+        final Object[] values = new Object[n + 1];
+        values[0] = valueKey(e.value);
+        for (int i = 0; i < n; i++) {
+            final Element k = e.getChild(keys[i]);
+            values[i + 1] = k == null ? null : valueKey(k.value);
+        }
+        return new Key(e.name, e.namespace, values);
+    }
+
+    /**
+     * Returns a value in a form that is equal for values that are equal as
+     * the values of elements; see {@link YangBaseType#equals(Object)}.
+     */
+    static Object valueKey(Object value) {
+        if (value instanceof YangBaseType<?>) {
+            value = ((YangBaseType<?>) value).getValue();
+        }
+        if (value instanceof Number) {
+            final BigDecimal d = Utils.bigDecimalValueOf((Number) value);
+            return d.signum() == 0 ? "0" : d.stripTrailingZeros().toPlainString();
+        }
+        return value == null ? null : value.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package com.tailf.jnc;
+
+/**
+ * The 64-bit hash functions behind {@link Element#digest()}.
+ * <p>
+ * Each function folds one more part into a running hash, so that a digest
+ * depends on its parts and on their order.
+ */
+final class Digest {
+
+    /**
+     * The hash to start from.
+     */
+    static final long SEED = 0x6a09e667f3bcc908L;
+
+    private Digest() {
+    }
+
+    /**
+     * Folds a number into a hash.
+     */
+    static long mix(long h, long v) {
+        h = (h ^ v) * 0xbf58476d1ce4e5b9L;
+        h ^= h >>> 31;
+        h *= 0x94d049bb133111ebL;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Folds a string, or null, into a hash.
+     */
+    static long string(long h, String s) {
+        if (s == null) {
+            return mix(h, -1L);
+        }
+        // 64-bit FNV-1a over the chars, as String.hashCode() collides
+        // too easily for a digest
+        long f = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            f = (f ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h, f ^ s.length());
+    }
+
+    /**
+     * Folds an array of strings, or null, into a hash.
+     */
+    static long strings(long h, String[] a) {
+        if (a == null) {
+            return mix(h, -1L);
+        }
+        h = mix(h, a.length);
+        for (final String s : a) {
+            h = string(h, s);
+        }
+        return h;
+    }
+
+    /**
+     * Folds the value of an element into a hash. Values that give the same
+     * hash are equal as the values of elements: the hash is of the class of
+     * the value and of its string form, normalized for YANG types the way
+     * {@link YangBaseType#equals(Object)} compares them, and of the type
+     * information that equals compares, see
+     * {@link YangBaseType#digestType(long)}.
+     */
+    static long value(long h, Object value) {
+        if (value == null) {
+            return mix(h, 0L);
+        }
+        h = string(h, value.getClass().getName());
+        if (value instanceof YangBaseType<?>) {
+            final Object v = ((YangBaseType<?>) value).getValue();
+            h = string(h, v == null ? null : v.getClass().getName());
+            h = ((YangBaseType<?>) value).digestType(h);
+            return string(h, (String) ChildMatcher.valueKey(value));
+        }
+        return string(h, value.toString());
+    }
+}
@@ -1,15 +1,18 @@
 package com.tailf.jnc;
 
-import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -77,6 +80,10 @@ public class Element implements Cloneable, Serializable {
      * Prefix map are really xmlns attributes. For example:
      * <p>
      * xmlns="http:tail-f.com/aaa" or xmlns:aaa="http:tail-f.com/aaa"
+     * <p>
+     * Call {@link #invalidatePrefixScope()} after changing the prefix map
+     * other than with {@link #setPrefix(PrefixMap)} and
+     * {@link #removePrefix(String)}.
      */
     public PrefixMap prefixes;
 
@@ -100,6 +107,29 @@ public class Element implements Cloneable, Serializable {
      */
     protected Element parent;
 
+    /**
+     * Content not parsed yet, see {@link XMLParser#setLazy(boolean)}.
+     */
+    transient volatile LazySubtree lazy;
+
+    /**
+     * Index of the children, see {@link ChildIndex}. Built by searches, so
+     * it is published through a volatile field.
+     */
+    private transient volatile ChildIndex index;
+
+    /**
+     * Digest of this subtree, see {@link #digest()}, or 0 if not computed
+     * since the subtree last changed.
+     */
+    private transient volatile long digest;
+
+    /**
+     * Prefix mappings in scope, see {@link #prefixScope()}, or null if not
+     * computed
+     */
+    private transient volatile PrefixScope scope;
+
     /**
      * Constructor that creates a new element tree. An element consists of a
      * name that belongs to a namespace.
@@ -391,7 +421,7 @@ public class Element implements Cloneable, Serializable {
             }
             step--; // need to do last step again
             for (Element parent : deepest) {
-                final PrefixMap prefixMap = parent.getContextPrefixMap();
+                final PrefixMap prefixMap = parent.prefixScope().prefixMap();
                 for (int i = step; i < steps; i++) {
                     final Element elem = path.evalStep(prefixMap, i, parent);
                     parent.addChild(elem);
@@ -403,7 +433,7 @@ public class Element implements Cloneable, Serializable {
             }
             return firstFound;
         } else { /* mode== CREATE_NEW */
-            final PrefixMap prefixMap = getContextPrefixMap();
+            final PrefixMap prefixMap = prefixScope().prefixMap();
             final Element elem = path.eval(prefixMap);
             addChild(elem);
             return elem;
@@ -459,6 +489,7 @@ public class Element implements Cloneable, Serializable {
             prefixes = new PrefixMap();
         }
         prefixes.set(prefixMap);
+        invalidatePrefixScope();
     }
 
     /**
@@ -469,6 +500,7 @@ public class Element implements Cloneable, Serializable {
             return;
         }
         prefixes.remove(prefix);
+        invalidatePrefixScope();
     }
 
     /* Parent and Children */
@@ -482,18 +514,58 @@ public class Element implements Cloneable, Serializable {
         return parent;
     }
 
+    /**
+     * Parses the content of this element if it has not been parsed yet.
+     *
+     * @see XMLParser#setLazy(boolean)
+     */
+    final void materialize() {
+        if (lazy == null) {
+            return;
+        }
+        synchronized (this) {
+            final LazySubtree content = lazy;
+            if (content == null || content == LazySubtree.PARSING) {
+                // done, or called while parsing the content
+                return;
+            }
+            lazy = LazySubtree.PARSING;
+            try {
+                content.parseInto(this);
+                lazy = null;
+            } catch (final RuntimeException e) {
+                lazy = content;
+                throw e;
+            }
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out)
+            throws IOException {
+        materialize();
+        out.defaultWriteObject();
+    }
+
     /**
      * Adds child to children and makes this element the parent of child.
      *
      * @param child Child element to be added
      */
     public void addChild(Element child) {
+        materialize();
         if (children == null) {
             children = new NodeSet();
         }
 
+        final boolean indexed = index != null && index.covers(children);
         children.add(child);
         child.parent = this;
+        child.invalidatePrefixScope();
+        child.invalidateKeyIndex();
+        invalidateDigest();
+        if (indexed) {
+            index.added(child);
+        }
     }
 
     /**
@@ -511,7 +583,7 @@ public class Element implements Cloneable, Serializable {
             throw new JNCException(JNCException.ELEMENT_ALREADY_IN_USE, this);
         }
         addChild(child);
-        return children.indexOf(child);
+        return children.size() - 1;
     }
 
     /**
@@ -523,6 +595,7 @@ public class Element implements Cloneable, Serializable {
      * @throws JNCException If child is already a child of another element.
      */
     public int insertChild(Element child, int index) throws JNCException {
+        materialize();
         if (child.parent != null) {
             throw new JNCException(JNCException.ELEMENT_ALREADY_IN_USE, this);
         }
@@ -532,7 +605,10 @@ public class Element implements Cloneable, Serializable {
         }
 
         child.parent = this;
+        child.invalidatePrefixScope();
+        child.invalidateKeyIndex();
         children.add(index, child);
+        invalidateDigest();
         return children.indexOf(child);
     }
 
@@ -546,6 +622,7 @@ public class Element implements Cloneable, Serializable {
      */
     public int insertChild(Element child, String[] childrenNames)
             throws JNCException {
+        materialize();
         if (child.parent != null) {
             throw new JNCException(JNCException.ELEMENT_ALREADY_IN_USE, this);
         }
@@ -555,6 +632,8 @@ public class Element implements Cloneable, Serializable {
         }
 
         child.parent = this;
+        child.invalidatePrefixScope();
+        child.invalidateKeyIndex();
 
         int pos = 0;
         int i = 0;
@@ -570,6 +649,7 @@ public class Element implements Cloneable, Serializable {
         }
 
         children.add(pos, child);
+        invalidateDigest();
         return pos;
     }
 
@@ -640,18 +720,130 @@ public class Element implements Cloneable, Serializable {
      * @param child Child to delete
      */
     public void deleteChild(Element child) {
+        materialize();
         if (children == null) {
             return;
         }
         for (int i = 0; i < children.size(); i++) {
             if (child == children.getElement(i)) {
+                final boolean indexed = index != null
+                    && index.covers(children);
                 children.remove(i);
+                child.invalidateKeyIndex();
                 child.parent = null;
+                child.invalidatePrefixScope();
+                if (indexed) {
+                    index.removed(child);
+                }
+                invalidateDigest();
                 break;
             }
         }
     }
 
+    /**
+     * Returns the index of the children, building it if needed, or null if
+     * there are too few children to index.
+     */
+    private ChildIndex childIndex() {
+        if (children == null || children.size() < ChildIndex.THRESHOLD) {
+            index = null;
+            return null;
+        }
+        ChildIndex ix = index;
+        if (ix == null || !ix.covers(children)) {
+            ix = new ChildIndex(children);
+            index = ix;
+        }
+        return ix;
+    }
+
+    /**
+     * Returns the list entry children with a name whose key leafs have the
+     * given values, from the index of the children, see
+     * {@link ChildIndex#entries(String, java.util.Map)}.
+     *
+     * @return The entries, which must not be modified, or null if the
+     *         children must be searched
+     */
+    NodeSet getEntries(String name, Map<String, String> keyValues) {
+        materialize();
+        final ChildIndex ix = childIndex();
+        return ix == null ? null : ix.entries(name, keyValues);
+    }
+
+    /**
+     * Returns a 64-bit digest of the name, namespace, value, attributes and
+     * children of this subtree. The digest is computed from the digests of
+     * the children and kept until the subtree is changed through the
+     * methods of its elements, so that subtrees compared again and again are
+     * hashed once.
+     * <p>
+     * Subtrees with the same digest are equal, except with a probability of
+     * about 2^-64 per comparison. Identical subtrees have the same digest;
+     * subtrees that are equal with their children in another order, or with
+     * values of other classes, may not.
+     *
+     * @see YangElement#setSubtreeDigests(boolean)
+     */
+    final long digest() {
+        long d = digest;
+        if (d != 0) {
+            return d;
+        }
+        materialize();
+        d = Digest.string(Digest.string(Digest.SEED, name), namespace);
+        d = Digest.value(d, value);
+        if (attrs != null) {
+            for (final Attribute attr : attrs) {
+                d = Digest.string(Digest.string(d, attr.ns), attr.name);
+                d = Digest.string(d, attr.value);
+            }
+        }
+        if (children != null) {
+            d = Digest.mix(d, children.size());
+            for (int i = 0; i < children.size(); i++) {
+                d = Digest.mix(d, children.getElement(i).digest());
+            }
+        }
+        if (d == 0) {
+            d = 1;
+        }
+        digest = d;
+        return d;
+    }
+
+    /**
+     * Drops the digests kept for this element and its ancestors, see
+     * {@link YangElement#setSubtreeDigests(boolean)}. The methods of Element
+     * do this when they change an element; call it after changing the
+     * value, attributes or list of children of an element in any other way,
+     * such as through its fields or {@link #getChildren()}.
+     */
+    public void invalidateDigest() {
+        // a subtree with a digest has digests throughout, so ancestors
+        // of an element without one have none either
+        for (Element e = this; e != null && e.digest != 0; e = e.parent) {
+            e.digest = 0;
+        }
+    }
+
+    /**
+     * Drops the lookups by key of the list this element is a key leaf of,
+     * if any, see {@link ChildIndex}. The methods of Element do this when
+     * they set the value of a key leaf, or add or delete one; call it after
+     * changing the value of a key leaf in any other way, such as through its
+     * fields.
+     */
+    public void invalidateKeyIndex() {
+        final Element entry = parent;
+        final ChildIndex ix = entry == null || entry.parent == null ? null
+            : entry.parent.index;
+        if (ix != null) {
+            ix.keyChanged(entry, name);
+        }
+    }
+
     /**
      * Returns <code>true</code> if this node has any children,
      * <code>false</code> otherwise.
@@ -659,9 +851,27 @@ public class Element implements Cloneable, Serializable {
      * @return <code>true</code> or <code>false</code>
      */
     public boolean hasChildren() {
+        materialize();
         return children != null && children.size() > 0;
     }
 
+    /**
+     * Shrinks the lists of children, attributes and prefixes of this element
+     * to their size. Called by the parsers when an element is complete, so
+     * that parsed trees do not keep the spare capacity of their lists.
+     */
+    void trimToSize() {
+        if (children != null) {
+            children.trimToSize();
+        }
+        if (attrs instanceof ArrayList) {
+            ((ArrayList<Attribute>) attrs).trimToSize();
+        }
+        if (prefixes != null) {
+            prefixes.trimToSize();
+        }
+    }
+
     /* Attibutes */
 
     /**
@@ -673,6 +883,7 @@ public class Element implements Cloneable, Serializable {
             attrs = new ArrayList<Attribute>();
         }
         attrs.add(attr);
+        invalidateDigest();
     }
 
     /**
@@ -743,6 +954,7 @@ public class Element implements Cloneable, Serializable {
             for (final Attribute attr : attrs) {
                 if (attr.name.equals(name)) {
                     attr.setValue(value);
+                    invalidateDigest();
                     return attr;
                 }
             }
@@ -778,6 +990,7 @@ public class Element implements Cloneable, Serializable {
                 if (attr.ns.equals(ns) && attr.name.equals(name)) {
                     // Change existing attribute
                     attr.setValue(value);
+                    invalidateDigest();
                     return attr;
                 }
             }
@@ -803,6 +1016,7 @@ public class Element implements Cloneable, Serializable {
                 if (attr.name.equals(name)) {
                     trace("removeAttr: %s", name);
                     attrs.remove(i);
+                    invalidateDigest();
                     return;
                 }
             }
@@ -823,6 +1037,7 @@ public class Element implements Cloneable, Serializable {
                 if (attr.name.equals(name) && attr.ns.equals(namespace)) {
                     trace("removeAttr: (%s) %s", namespace, name);
                     attrs.remove(i);
+                    invalidateDigest();
                 }
             }
         }
@@ -837,6 +1052,7 @@ public class Element implements Cloneable, Serializable {
      * @return Value of child, or null if none
      */
     public Object getValueOfChild(String childName) {
+        materialize();
         for (final Element child : children) {
             if (child.name.equals(childName)) {
                 return child.getValue();
@@ -864,8 +1080,7 @@ public class Element implements Cloneable, Serializable {
      *         <code>false</code> otherwise.
      */
     public boolean exists(String pathStr) throws JNCException {
-        final NodeSet nodes = get(pathStr);
-        return nodes != null && !nodes.isEmpty();
+        return getFirst(pathStr) != null;
     }
 
     /**
@@ -878,10 +1093,9 @@ public class Element implements Cloneable, Serializable {
      * @return The value of the (first) found element or <code>null</code>
      */
     public Object getValue(String pathStr) throws JNCException {
-        final NodeSet nodes = get(pathStr);
+        final Element first = getFirst(pathStr);
         // Don't call exists, to avoid computing matches twice
-        return nodes != null && !nodes.isEmpty() ? nodes.getElement(0)
-                .getValue() : null;
+        return first != null ? first.getValue() : null;
     }
 
     /**
@@ -927,6 +1141,8 @@ public class Element implements Cloneable, Serializable {
     public void setValue(Object value) {
         trace("setValue: %s=\"%s\"", name, value);
         this.value = value;
+        invalidateKeyIndex();
+        invalidateDigest();
     }
 
     /**
@@ -961,6 +1177,8 @@ public class Element implements Cloneable, Serializable {
      */
     public void deleteValue() {
         value = null;
+        invalidateKeyIndex();
+        invalidateDigest();
     }
 
     /* Get */
@@ -984,11 +1202,7 @@ public class Element implements Cloneable, Serializable {
      * @return The first element node found by the expression.
      */
     public Element getFirst(String pathStr) throws JNCException {
-        final NodeSet nodeSet = get(pathStr);
-        if (nodeSet == null || nodeSet.isEmpty()) {
-            return null;
-        }
-        return nodeSet.getElement(0);
+        return Path.compile(pathStr).evalFirst(this);
     }
 
     /**
@@ -1024,7 +1238,7 @@ public class Element implements Cloneable, Serializable {
      * @return An array of the element nodes found by the expression.
      */
     public NodeSet get(String pathStr) throws JNCException {
-        final Path path = new Path(pathStr);
+        final Path path = Path.compile(pathStr);
         return path.eval(this);
     }
 
@@ -1034,6 +1248,7 @@ public class Element implements Cloneable, Serializable {
      * @return The children node set of this node or <code>null</code>
      */
     public NodeSet getChildren() {
+        materialize();
         return children;
     }
 
@@ -1044,8 +1259,15 @@ public class Element implements Cloneable, Serializable {
      * @return a NodeSet with all chldren that has the name
      */
     public NodeSet getChildren(String name) {
+        materialize();
         final NodeSet n = new NodeSet();
-        if (children != null) {
+        final ChildIndex ix = childIndex();
+        if (ix != null) {
+            final NodeSet named = ix.get(name);
+            if (named != null) {
+                n.addAll(named);
+            }
+        } else if (children != null) {
             for (int i = 0; i < children.size(); i++) {
                 final Element elem = children.getElement(i);
                 if (elem.name.equals(name)) {
@@ -1063,6 +1285,12 @@ public class Element implements Cloneable, Serializable {
      * @return The found element or <code>null</code>
      */
     public Element getChild(String name) {
+        materialize();
+        final ChildIndex ix = childIndex();
+        if (ix != null) {
+            final NodeSet named = ix.get(name);
+            return named == null || named.isEmpty() ? null : named.get(0);
+        }
         if (children != null) {
             for (int i = 0; i < children.size(); i++) {
                 final Element elem = children.getElement(i);
@@ -1082,11 +1310,12 @@ public class Element implements Cloneable, Serializable {
      */
     @Override
     public Element clone() {
+        materialize();
         final Element copy = new Element(namespace, name);
         // copy all children
         if (children != null) {
             if (copy.children == null) {
-                copy.children = new NodeSet();
+                copy.children = new NodeSet(children.size());
             }
 
             for (int i = 0; i < children.size(); i++) {
@@ -1108,6 +1337,11 @@ public class Element implements Cloneable, Serializable {
      * @return the matching element if it exists; <code>null</code> otherwise.
      */
     protected Element getChild(Element child) {
+        materialize();
+        final ChildIndex ix = childIndex();
+        if (ix != null) {
+            return ix.find(child);
+        }
         if (children != null) {
             for (final Element other : children) {
                 if (child.compare(other) >= 0) {
@@ -1262,7 +1496,7 @@ public class Element implements Cloneable, Serializable {
     protected Element cloneAttrs(Element copy) {
         // copy attrs
         if (attrs != null) {
-            copy.attrs = new ArrayList<Attribute>();
+            copy.attrs = new ArrayList<Attribute>(attrs.size());
             for (Attribute attr: attrs) {
                 final Attribute copyAttr = (Attribute) attr.clone();
                 copy.attrs.add(copyAttr);
@@ -1313,6 +1547,7 @@ public class Element implements Cloneable, Serializable {
      *
      */
     public void removeMarks() {
+        materialize();
         removeMark();
         if (children != null) {
             for (int i = 0; i < children.size(); i++) {
@@ -1336,7 +1571,7 @@ public class Element implements Cloneable, Serializable {
      * @param pathStr Path string to find nodes
      */
     public void markDelete(String pathStr) throws JNCException {
-        final Path path = new Path(pathStr);
+        final Path path = Path.compile(pathStr);
         final NodeSet nodeSet = path.eval(this);
         if (nodeSet != null) {
             for (int i = 0; i < nodeSet.size(); i++) {
@@ -1360,7 +1595,7 @@ public class Element implements Cloneable, Serializable {
      * @param pathStr Path string to find nodes
      */
     public void markReplace(String pathStr) throws JNCException {
-        final Path path = new Path(pathStr);
+        final Path path = Path.compile(pathStr);
         final NodeSet nodeSet = path.eval(this);
         if (nodeSet != null) {
             for (int i = 0; i < nodeSet.size(); i++) {
@@ -1384,7 +1619,7 @@ public class Element implements Cloneable, Serializable {
      * @param pathStr Path string to find nodes
      */
     public void markMerge(String pathStr) throws JNCException {
-        final Path path = new Path(pathStr);
+        final Path path = Path.compile(pathStr);
         final NodeSet nodeSet = path.eval(this);
         if (nodeSet != null) {
             for (int i = 0; i < nodeSet.size(); i++) {
@@ -1408,7 +1643,7 @@ public class Element implements Cloneable, Serializable {
      * @param pathStr Path string to find nodes
      */
     public void markCreate(String pathStr) throws JNCException {
-        final Path path = new Path(pathStr);
+        final Path path = Path.compile(pathStr);
         final NodeSet nodeSet = path.eval(this);
         if (nodeSet != null) {
             for (int i = 0; i < nodeSet.size(); i++) {
@@ -1460,15 +1695,7 @@ public class Element implements Cloneable, Serializable {
      */
     public PrefixMap getContextPrefixMap() {
         final PrefixMap p = new PrefixMap();
-        Element node = this;
-        while (node != null) {
-            if (node.prefixes != null) {
-                p.merge(node.prefixes);
-            }
-            node = node.parent;
-        }
-        // merge in the default prefixes as well
-        p.merge(defaultPrefixes);
+        p.addAll(prefixScope().prefixMap());
         return p;
     }
 
@@ -1482,18 +1709,7 @@ public class Element implements Cloneable, Serializable {
      *         node.
      */
     public String lookupContextPrefix(String prefix) {
-        Element node = this;
-        while (node != null) {
-            if (node.prefixes != null) {
-                final String ns = node.prefixes.prefixToNs(prefix);
-                if (ns != null) {
-                    return ns;
-                }
-            }
-            node = node.parent;
-        }
-        // as a last resort use the default prefix map.
-        return defaultPrefixes.prefixToNs(prefix);
+        return prefixScope().prefixToNs(prefix);
     }
 
     /**
@@ -1505,22 +1721,44 @@ public class Element implements Cloneable, Serializable {
      * @return The prefix string of the given namespace at the context node.
      */
     public String nsToPrefix(String ns) {
-        Element top = this;
-        String prefix = null;
-
-        while (prefix == null && top != null) {
-            if (top.prefixes != null) {
-                prefix = top.prefixes.nsToPrefix(ns);
-            }
+        return prefixScope().nsToPrefix(ns);
+    }
 
-            top = top.parent;
+    /**
+     * Returns the prefix mappings in scope at this element. The scope is
+     * computed from the scope of the parent when first asked for, and kept
+     * until the prefixes of this element or an ancestor are changed, or
+     * this element is moved, through the methods of Element, or the
+     * {@link #defaultPrefixes} are changed.
+     */
+    final PrefixScope prefixScope() {
+        PrefixScope s = scope;
+        if (s == null || !s.isCurrent()) {
+            s = (parent == null ? PrefixScope.defaults() : parent.prefixScope())
+                    .with(prefixes);
+            scope = s;
         }
+        return s;
+    }
 
-        if (prefix != null) {
-            return prefix;
+    /**
+     * Drops the prefix scopes kept for this element and its descendants.
+     * The methods of Element do this when they change prefixes or move an
+     * element; call it after changing the {@link #prefixes} or parent of an
+     * element in any other way.
+     */
+    public void invalidatePrefixScope() {
+        // an element with a scope has a parent with one, so descendants of
+        // an element without one have none either
+        if (scope == null) {
+            return;
+        }
+        scope = null;
+        if (children != null) {
+            for (int i = 0; i < children.size(); i++) {
+                children.getElement(i).invalidatePrefixScope();
+            }
         }
-        // as a last resort use the default prefix map
-        return defaultPrefixes.nsToPrefix(ns);
     }
 
     /**
@@ -1652,6 +1890,7 @@ public class Element implements Cloneable, Serializable {
         }
 
         // Children
+        materialize();
         if (children != null) {
             for (final Element child : children) {
                 sChildren.append(child.name);
@@ -1720,42 +1959,24 @@ public class Element implements Cloneable, Serializable {
         s.append(getIndentationSpacing(flag, indent)).append("</").append(qName).append(">\n");
     }
 
+    /**
+     * Encodes this element tree as XML the way it is sent to a device,
+     * without indentation, see {@link XMLEncoder}.
+     *
+     * @param newlineAtEnd If 'true' a newline is added at the end.
+     * @return This element sub-tree represented as an XML string
+     */
     public String encodedXMLString(boolean newlineAtEnd) {
-        final StringBuilder s = new StringBuilder();
-        buildXMLString(s, newlineAtEnd);
-        return s.toString();
-    }
-
-    private void buildXMLString(StringBuilder s, boolean newlineAtEnd) {
-        final String qName = qualifiedName();
-        s.append('<').append(qName);
-        // add xmlns attributes (prefixes)
-        if (prefixes != null) {
-            for (final Prefix p : prefixes) {
-                s.append(' ').append(p.toXMLString());
-            }
-        }
-        // add attributes
-        if (attrs != null) {
-            for (final Attribute attr : attrs) {
-                s.append(' ').append(attr.toXMLString(this));
-            }
-        }
-        if (hasChildren()) {
-            // add children elements if any
-            s.append('>');
-            for (final Element child : children) {
-                child.buildXMLString(s, newlineAtEnd);
-            }
-        } else if (value != null) {
-            // otherwise, add value (if any)
-            s.append('>').append(Utils.escapeXml(value.toString()));
-        } else {
-            // self-closing tag
-            s.append("/>").append(newlineAtEnd ? "\n" : "");
-            return;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final XMLEncoder enc = new XMLEncoder(out);
+        enc.encode(this, newlineAtEnd);
+        try {
+            enc.flush();
+        } catch (final IOException e) {
+            // not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
         }
-        s.append("</" + qName + ">" + (newlineAtEnd ? "\n" : ""));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
     }
 
     /**
@@ -1832,6 +2053,11 @@ public class Element implements Cloneable, Serializable {
      */
     protected void encode(Transport out, boolean newlineAtEnd,
             Capabilities capas) throws JNCException {
+        final XMLEncoder enc = out.encoder();
+        if (enc != null) {
+            encode(enc, out, newlineAtEnd, capas);
+            return;
+        }
         final String qName = qualifiedName();
         out.print("<" + qName);
         // add xmlns attributes (prefixes)
@@ -1856,7 +2082,7 @@ public class Element implements Cloneable, Serializable {
             }
         } else if (value != null) {
             // otherwise, add value (if any)
-            out.print(">" + Utils.escapeXml(value.toString()));
+            out.print(">" + XMLEncoder.escape(value.toString(), false));
         } else {
 	    // self-closing tag
 	    out.print("/>" + (newlineAtEnd ? "\n" : ""));
@@ -1865,6 +2091,32 @@ public class Element implements Cloneable, Serializable {
         out.print("</" + qName + ">" + (newlineAtEnd ? "\n" : ""));
     }
 
+    /**
+     * Encodes this element into the encoder of a transport. The children
+     * are encoded by their {@link #encode(Transport, boolean, Capabilities)}
+     * methods, and so into the same encoder.
+     */
+    private void encode(XMLEncoder enc, Transport out, boolean newlineAtEnd,
+            Capabilities capas) throws JNCException {
+        enc.startTag(this);
+        if (hasChildren()) {
+            // add children elements if any
+            enc.write(">\n");
+            for (final Element child : children) {
+                child.encode(out, true, capas);
+            }
+        } else if (value != null) {
+            // otherwise, add value (if any)
+            enc.write(">");
+            enc.text(value.toString(), false);
+        } else {
+            // self-closing tag
+            enc.write(newlineAtEnd ? "/>\n" : "/>");
+            return;
+        }
+        enc.endTag(this, newlineAtEnd);
+    }
+
     /**
      * Return the full tagpath for this Element
      *
@@ -1892,6 +2144,7 @@ public class Element implements Cloneable, Serializable {
      * @return A new iterator over this element's children
      */
     public ElementChildrenIterator iterator() {
+        materialize();
         return new ElementChildrenIterator(children);
     }
 
@@ -1912,27 +2165,28 @@ public class Element implements Cloneable, Serializable {
      * @return A new iterator over this element's children with specified name
      */
     public ElementChildrenIterator iterator(String name) {
+        materialize();
+        final ChildIndex ix = childIndex();
+        if (ix != null) {
+            return new ElementChildrenIterator(ix.get(name), name);
+        }
         return new ElementChildrenIterator(children, name);
     }
 
     /**
      * Write this configuration tree to a file. The configuration tree is
-     * written as XML text.
+     * written as UTF-8 XML text, see {@link XMLEncoder}.
      *
      * @param filename File name.
      * @see #readFile(String)
      */
     public void writeFile(String filename) throws IOException {
         final OutputStream fos = Files.newOutputStream(Paths.get(filename));
+        final XMLEncoder enc = new XMLEncoder(fos);
         try {
-            final DataOutputStream dos = new DataOutputStream(fos);
-            try {
-                dos.writeBytes(toXMLString());
-            } finally {
-                dos.close();
-            }
+            enc.encode(this, true);
         } finally {
-            fos.close();
+            enc.close();
         }
     }
 
@@ -1943,8 +2197,7 @@ public class Element implements Cloneable, Serializable {
      * @see #writeFile(String)
      */
     public static Element readFile(String filename) throws JNCException {
-        final XMLParser p = new XMLParser();
-        return p.readFile(filename);
+        return XMLParser.getThreadParser().readFile(filename);
     }
 
     /* help functions */
@@ -30,9 +30,48 @@ class ElementHandler extends DefaultHandler {
     private String leafName;
     private String leafValue;
 
+    /**
+     * Drops the state of the last document, so that the handler can be
+     * reused.
+     */
+    void clear() {
+        current = null;
+        top = null;
+        prefixes = null;
+        unknownLevel = 0;
+        leaf = false;
+        leafNs = null;
+        leafName = null;
+        leafValue = null;
+    }
+
+    @Override
+    public void startDocument() {
+        clear();
+    }
+
+    /**
+     * Makes the handler add the elements it parses to an existing element.
+     */
+    void startAt(Element e) {
+        current = e;
+        top = e;
+        if (!(e instanceof YangElement)) {
+            // within unknown XML data, unless above the data model
+            for (Element p = e.getParent(); p != null; p = p.getParent()) {
+                if (p instanceof YangElement) {
+                    unknownLevel = 1;
+                    break;
+                }
+            }
+        }
+    }
+
     @Override
     public void startElement(String uri, String localName, String qName,
             Attributes attributes) throws SAXException {
+        uri = Symbols.intern(uri);
+        localName = Symbols.intern(localName);
 
         if (unknownLevel > 0) {
             unkownStartElement(uri, localName, attributes);
@@ -90,8 +129,8 @@ class ElementHandler extends DefaultHandler {
     private void addOtherAttributes(Attributes attributes, Element child) {
         // add other attributes
         for (int i = 0; i < attributes.getLength(); i++) {
-            final String attrName = attributes.getLocalName(i);
-            final String attrUri = attributes.getURI(i);
+            final String attrName = Symbols.intern(attributes.getLocalName(i));
+            final String attrUri = Symbols.intern(attributes.getURI(i));
             final String attrValue = attributes.getValue(i);
             final Attribute attr = new Attribute(attrUri, attrName, attrValue);
             child.addAttr(attr);
@@ -104,6 +143,7 @@ class ElementHandler extends DefaultHandler {
             // MIXED content not allowed
             current.value = null;
         }
+        current.trimToSize();
         // step up
         current = current.getParent();
     }
@@ -132,6 +172,7 @@ class ElementHandler extends DefaultHandler {
                 // MIXED content not allowed
                 current.value = null;
             }
+            current.trimToSize();
         }
 
         // step up
@@ -143,10 +184,8 @@ class ElementHandler extends DefaultHandler {
     }
 
     private void unknownCharacters(char[] ch, int start, int length) {
-        if (current.value == null) {
-            current.value = "";
-        }
-        current.value = current.value + new String(ch, start, length);
+        final String s = new String(ch, start, length);
+        current.value = current.value == null ? s : current.value + s;
     }
 
     @Override
@@ -159,10 +198,8 @@ class ElementHandler extends DefaultHandler {
         if (leaf) {
             leafValue = leafValue + new String(ch, start, length);
         } else {
-            if (current.value == null) {
-                current.value = "";
-            }
-            current.value = current.value + new String(ch, start, length);
+            final String s = new String(ch, start, length);
+            current.value = current.value == null ? s : current.value + s;
         }
     }
 
@@ -171,6 +208,6 @@ class ElementHandler extends DefaultHandler {
         if (prefixes == null) {
             prefixes = new PrefixMap();
         }
-        prefixes.add(new Prefix(prefix, uri));
+        prefixes.add(new Prefix(Symbols.intern(prefix), Symbols.intern(uri)));
     }
 }
@@ -0,0 +1,29 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the replies of a transport as they arrive.
+ *
+ * @see Transport#setFrameListener(FrameListener)
+ */
+public interface FrameListener {
+
+    /**
+     * Called for every reply received. The buffer holds the UTF-8 encoded
+     * reply; it is owned by the transport and is valid only until the method
+     * returns.
+     *
+     * @param frame The reply
+     */
+    void frameReceived(ByteBuffer frame);
+
+    /**
+     * Called once when the transport is closed or its input fails; no more
+     * replies are delivered after this.
+     *
+     * @param cause The reason
+     */
+    void closed(IOException cause);
+}
@@ -0,0 +1,164 @@
+package com.tailf.jnc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the method handles that the parsers call by name: the add and set
+ * methods of the generated classes, by class and child name, and the
+ * constructors of generated root classes and union member types, by class
+ * name.
+ * <p>
+ * Names that have no method are cached as {@link #NONE}, so that looking
+ * them up again throws no exceptions. The names come from the documents
+ * parsed, so each table caches at most {@link #MAX_MISSES} of them; other
+ * names without a method are looked up every time.
+ */
+final class Handles {
+
+    /**
+     * Stands for a method or constructor that does not exist.
+     */
+    static final MethodHandle NONE = MethodHandles.constant(Object.class, null);
+
+    /**
+     * The most names without a method cached in each table, as in
+     * {@link Symbols}.
+     */
+    static final int MAX_MISSES = 1024;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final MethodType ADDER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, String.class);
+    private static final MethodType CREATOR = MethodType.methodType(Object.class);
+    private static final MethodType PARSER = MethodType.methodType(Object.class, String.class);
+
+    /* add<Child>() and set<Leaf>Value(String) methods by class and YANG name */
+    private static final ClassValue<ConcurrentMap<String, MethodHandle>> adders = new Table();
+    private static final ClassValue<ConcurrentMap<String, MethodHandle>> setters = new Table();
+
+    /* No-arg and String constructors by class name */
+    private static final ConcurrentMap<String, MethodHandle> creators = new ConcurrentHashMap<String, MethodHandle>();
+    private static final ConcurrentMap<String, MethodHandle> parsers = new ConcurrentHashMap<String, MethodHandle>();
+
+    private static final class Table
+            extends ClassValue<ConcurrentMap<String, MethodHandle>> {
+        @Override
+        protected ConcurrentMap<String, MethodHandle> computeValue(Class<?> c) {
+            return new ConcurrentHashMap<String, MethodHandle>();
+        }
+    }
+
+    private Handles() {
+    }
+
+    /**
+     * Returns the add method of a child, of type (Object)Object, taking the
+     * parent and returning the added child, or null for a leaf.
+     *
+     * @param c Class of the parent
+     * @param childName YANG name of the child
+     * @return The handle, or {@link #NONE}
+     * @throws IllegalAccessException If the method is not public
+     */
+    static MethodHandle adder(Class<?> c, String childName)
+            throws IllegalAccessException {
+        final ConcurrentMap<String, MethodHandle> table = adders.get(c);
+        MethodHandle h = table.get(childName);
+        if (h == null) {
+            final Method m = method(c, "add" + YangElement.normalize(childName));
+            h = m == null ? NONE : LOOKUP.unreflect(m).asType(ADDER);
+            cache(table, childName, h);
+        }
+        return h;
+    }
+
+    /**
+     * Returns the set method of a leaf taking a String value, of type
+     * (Object,String)void, taking the parent and the value.
+     *
+     * @param c Class of the parent
+     * @param leafName YANG name of the leaf
+     * @return The handle, or {@link #NONE}
+     * @throws IllegalAccessException If the method is not public
+     */
+    static MethodHandle setter(Class<?> c, String leafName)
+            throws IllegalAccessException {
+        final ConcurrentMap<String, MethodHandle> table = setters.get(c);
+        MethodHandle h = table.get(leafName);
+        if (h == null) {
+            final Method m = method(c, "set" + YangElement.normalize(leafName)
+                                    + "Value", String.class);
+            h = m == null ? NONE : LOOKUP.unreflect(m).asType(SETTER);
+            cache(table, leafName, h);
+        }
+        return h;
+    }
+
+    /**
+     * Returns the no-arg constructor of a class, of type ()Object.
+     *
+     * @return The handle, or {@link #NONE} if there is no such class or
+     *         constructor
+     * @throws IllegalAccessException If the constructor is not public
+     */
+    static MethodHandle creator(String className)
+            throws IllegalAccessException {
+        MethodHandle h = creators.get(className);
+        if (h == null) {
+            final Constructor<?> c = constructor(className);
+            h = c == null ? NONE : LOOKUP.unreflectConstructor(c).asType(CREATOR);
+            cache(creators, className, h);
+        }
+        return h;
+    }
+
+    /**
+     * Returns the constructor of a class that takes a String, of type
+     * (String)Object.
+     *
+     * @return The handle, or {@link #NONE} if there is no such class or
+     *         constructor
+     * @throws IllegalAccessException If the constructor is not public
+     */
+    static MethodHandle parser(String className)
+            throws IllegalAccessException {
+        MethodHandle h = parsers.get(className);
+        if (h == null) {
+            final Constructor<?> c = constructor(className, String.class);
+            h = c == null ? NONE : LOOKUP.unreflectConstructor(c).asType(PARSER);
+            cache(parsers, className, h);
+        }
+        return h;
+    }
+
+    private static void cache(ConcurrentMap<String, MethodHandle> table,
+                              String name, MethodHandle h) {
+        if (h != NONE || table.size() < MAX_MISSES) {
+            table.put(name, h);
+        }
+    }
+
+    private static Method method(Class<?> c, String name, Class<?>... params) {
+        try {
+            return c.getMethod(name, params);
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Constructor<?> constructor(String className,
+                                              Class<?>... params) {
+        try {
+            return Class.forName(className).getConstructor(params);
+        } catch (final ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -63,15 +63,15 @@ public abstract class IOSubscriber {
 
     void inputRaw(ByteBuffer buffer) {
         if (rawmode) {
-            input(new String(buffer.array(), buffer.position(), buffer.limit(),
-                             StandardCharsets.UTF_8));
+            input(new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                             buffer.remaining(), StandardCharsets.UTF_8));
         }
     }
 
     private void xmlFlush(String data, boolean isInput) {
         String res;
         try {
-            final XMLParser p = new XMLParser();
+            final XMLParser p = XMLParser.getThreadParser();
             final Element e = p.parse(data);
             res = e.toXMLString();
         } catch (final Exception e) {
@@ -0,0 +1,528 @@
+package com.tailf.jnc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * The unparsed content of an element, see {@link XMLParser#setLazy(boolean)}.
+ * <p>
+ * A document is parsed one level at a time. Of every element that is
+ * parsed, only the children without child elements of their own (leafs)
+ * are parsed completely; the other children are parsed without their
+ * content, and remember where in the document the content is. When the
+ * content of such an element is first needed, the element is parsed again,
+ * this time into the existing element and with the same rule applied to
+ * its children.
+ * <p>
+ * To find the children of an element, the bytes of its content are scanned
+ * for tags only; nothing else is decoded.
+ */
+final class LazySubtree {
+
+    /**
+     * Marks an element whose content is being parsed.
+     */
+    static final LazySubtree PARSING = new LazySubtree(null, null, null);
+
+    /**
+     * The document and how it is parsed.
+     */
+    private static final class Document {
+        final byte[] buf;
+        final boolean yang;
+        final boolean stax;
+
+        Document(byte[] buf, XMLParser parser) {
+            this.buf = buf;
+            yang = parser instanceof YangXMLParser;
+            stax = parser.isStax();
+        }
+    }
+
+    /**
+     * A child element found by the scanner.
+     */
+    private static final class Tag {
+        String name;
+        /* start of the start tag, and just after it */
+        int start;
+        int startEnd;
+        /* start of the end tag, and just after it */
+        int endStart;
+        int end;
+        /* true if the element has child elements */
+        boolean deferred;
+    }
+
+    private final Document doc;
+    private final Tag tag;
+    /* the namespace declarations in scope at the element */
+    private final PrefixMap scope;
+
+    private LazySubtree(Document doc, Tag tag, PrefixMap scope) {
+        this.doc = doc;
+        this.tag = tag;
+        this.scope = scope;
+    }
+
+    /**
+     * Parses a document, leaving the content of all elements below the
+     * children of the root unparsed.
+     *
+     * @param parser The parser of the document
+     * @param buf The document; must not be modified afterwards
+     */
+    static Element parse(XMLParser parser, byte[] buf) throws JNCException {
+        final Tag root = scanRoot(buf);
+        if (root == null) {
+            return parser.parseEagerly(buf);
+        }
+        final List<Tag> children = new ArrayList<Tag>();
+        if (scanChildren(buf, root.startEnd, root.endStart, children)
+                != root.endStart) {
+            return parser.parseEagerly(buf);
+        }
+        final ByteArrayOutputStream skeleton = new ByteArrayOutputStream();
+        copySkeleton(buf, 0, buf.length, children, skeleton);
+        final Element top = parser.parse(new InputSource(
+                new ByteArrayInputStream(skeleton.toByteArray())));
+        final PrefixMap scope = new PrefixMap();
+        if (top.prefixes != null) {
+            scope.set(top.prefixes);
+        }
+        if (!defer(top, children, new Document(buf, parser), scope)) {
+            return parser.parseEagerly(buf);
+        }
+        return top;
+    }
+
+    /**
+     * Parses the content of the element this subtree belongs to into it.
+     *
+     * @throws IllegalStateException if the content cannot be parsed
+     */
+    void parseInto(Element e) {
+        final List<Tag> children = new ArrayList<Tag>();
+        final byte[] buf = doc.buf;
+        final boolean scanned = scanChildren(buf, tag.startEnd, tag.endStart,
+                                             children) == tag.endStart;
+        final XMLParser parser = threadParser();
+        final PrefixMap childScope = new PrefixMap();
+        childScope.set(scope);
+        if (e.prefixes != null) {
+            childScope.set(e.prefixes);
+        }
+        try {
+            if (scanned) {
+                parser.parseInto(e, wrap(children));
+                if (defer(e, children, doc, childScope)) {
+                    return;
+                }
+                // could not tell the children apart, parse everything
+                e.children = null;
+            }
+            parser.parseInto(e, wrap(null));
+        } catch (final JNCException x) {
+            e.children = null;
+            throw new IllegalStateException("failed to parse the content of "
+                    + e.getElementPath(), x);
+        } finally {
+            if (e.hasChildren() && e.value != null) {
+                // mixed content is not allowed
+                e.value = null;
+            }
+            e.trimToSize();
+        }
+    }
+
+    private XMLParser threadParser() {
+        XMLParser p;
+        try {
+            p = doc.yang ? YangXMLParser.getThreadParser()
+                : XMLParser.getThreadParser();
+        } catch (final JNCException x) {
+            throw new IllegalStateException(x);
+        }
+        if (p.isStax() != doc.stax) {
+            p.setStax(doc.stax);
+        }
+        return p;
+    }
+
+    /**
+     * Returns the element as a document of its own: wrapped in an element
+     * declaring the namespaces in scope, with the content of the deferred
+     * children left out.
+     */
+    private InputSource wrap(List<Tag> children) {
+        final StringBuilder open = new StringBuilder("<w");
+        for (final Prefix p : scope) {
+            open.append(' ').append(p.qName).append("=\"");
+            XMLEncoder.escape(p.value, true, open).append('"');
+        }
+        open.append('>');
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(
+                children == null ? tag.end - tag.start + 64 : 256);
+        final byte[] b = open.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(b, 0, b.length);
+        if (children == null) {
+            out.write(doc.buf, tag.start, tag.end - tag.start);
+        } else {
+            copySkeleton(doc.buf, tag.start, tag.end, children, out);
+        }
+        out.write('<');
+        out.write('/');
+        out.write('w');
+        out.write('>');
+        return new InputSource(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static void copySkeleton(byte[] buf, int start, int end,
+                                     List<Tag> children,
+                                     ByteArrayOutputStream out) {
+        int pos = start;
+        for (final Tag t : children) {
+            if (t.deferred) {
+                out.write(buf, pos, t.startEnd - pos);
+                pos = t.endStart;
+            }
+        }
+        out.write(buf, pos, end - pos);
+    }
+
+    /**
+     * Hands the content of the deferred children to the elements parsed
+     * for them. Both are in document order, so the children are matched by
+     * position; the names only confirm the match.
+     *
+     * @return false if the elements could not be told apart
+     */
+    private static boolean defer(Element parent, List<Tag> children,
+                                 Document doc, PrefixMap scope) {
+        final NodeSet elements = parent.children;
+        final int size = elements == null ? 0 : elements.size();
+        if (size != children.size()) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            final Tag t = children.get(i);
+            final Element e = elements.getElement(i);
+            if (!e.name.equals(t.name)) {
+                return false;
+            }
+            if (t.deferred) {
+                if (e.hasChildren()) {
+                    return false;
+                }
+                e.lazy = new LazySubtree(doc, t, scope);
+            }
+        }
+        return true;
+    }
+
+    /* Scanner */
+
+    /**
+     * Finds the root element of a document.
+     *
+     * @return null if the document has no root element with content, or
+     *         has a document type declaration
+     */
+    private static Tag scanRoot(byte[] b) {
+        int pos = 0;
+        while (pos < b.length) {
+            pos = indexOf(b, '<', pos, b.length);
+            if (pos < 0 || pos + 1 >= b.length) {
+                return null;
+            }
+            if (b[pos + 1] == '?') {
+                pos = skip(b, pos, "?>");
+            } else if (startsWith(b, pos, "<!--")) {
+                pos = skip(b, pos, "-->");
+            } else if (b[pos + 1] == '!' || b[pos + 1] == '/') {
+                return null;
+            } else {
+                final Tag root = new Tag();
+                root.start = pos;
+                final int gt = tagEnd(b, pos, b.length);
+                if (gt < 0 || b[gt - 1] == '/') {
+                    return null;
+                }
+                root.startEnd = gt + 1;
+                root.endStart = lastIndexOf(b, (byte) '<', b.length);
+                if (root.endStart < root.startEnd
+                        || b[root.endStart + 1] != '/') {
+                    return null;
+                }
+                root.end = b.length;
+                return root;
+            }
+            if (pos < 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Scans the content of an element for its child elements.
+     *
+     * @return The position of the end tag of the element, or -1 if the
+     *         content is not well formed
+     */
+    private static int scanChildren(byte[] b, int pos, int end,
+                                    List<Tag> children) {
+        int depth = 0;
+        Tag current = null;
+        while (pos < end) {
+            pos = indexOf(b, '<', pos, end);
+            if (pos < 0) {
+                // only text up to the end tag
+                return depth == 0 ? end : -1;
+            }
+            if (pos + 1 >= end) {
+                return -1;
+            }
+            final byte c = b[pos + 1];
+            if (c == '/') {
+                final int gt = indexOf(b, '>', pos, end);
+                if (gt < 0) {
+                    return -1;
+                }
+                if (depth == 0) {
+                    return pos;
+                }
+                if (--depth == 0) {
+                    current.endStart = pos;
+                    current.end = gt + 1;
+                    children.add(current);
+                }
+                pos = gt + 1;
+            } else if (c == '?') {
+                pos = skip(b, pos, "?>");
+            } else if (startsWith(b, pos, "<!--")) {
+                pos = skip(b, pos, "-->");
+            } else if (startsWith(b, pos, "<![CDATA[")) {
+                pos = skip(b, pos, "]]>");
+            } else if (c == '!') {
+                return -1;
+            } else {
+                final int gt = tagEnd(b, pos, end);
+                if (gt < 0) {
+                    return -1;
+                }
+                final boolean empty = b[gt - 1] == '/';
+                if (depth == 0) {
+                    current = new Tag();
+                    current.name = localName(b, pos + 1, gt);
+                    current.start = pos;
+                    current.startEnd = gt + 1;
+                    if (empty) {
+                        current.endStart = gt + 1;
+                        current.end = gt + 1;
+                        children.add(current);
+                    } else {
+                        depth = 1;
+                    }
+                } else {
+                    if (depth == 1) {
+                        current.deferred = true;
+                    }
+                    if (!empty) {
+                        depth++;
+                    }
+                }
+                pos = gt + 1;
+            }
+            if (pos < 0) {
+                return -1;
+            }
+        }
+        return depth == 0 ? end : -1;
+    }
+
+    /**
+     * Returns the position of the '&gt;' ending the tag starting at pos,
+     * skipping quoted attribute values.
+     */
+    private static int tagEnd(byte[] b, int pos, int end) {
+        byte quote = 0;
+        for (int i = pos + 1; i < end; i++) {
+            final byte c = b[i];
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String localName(byte[] b, int pos, int end) {
+        int start = pos;
+        int i = pos;
+        while (i < end) {
+            final byte c = b[i];
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '/'
+                    || c == '>') {
+                break;
+            }
+            if (c == ':') {
+                start = i + 1;
+            }
+            i++;
+        }
+        return new String(b, start, i - start, StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(byte[] b, char c, int pos, int end) {
+        for (int i = pos; i < end; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] b, byte c, int end) {
+        for (int i = end - 1; i >= 0; i--) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] b, int pos, String s) {
+        if (pos + s.length() > b.length) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (b[pos + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the position just after the first occurrence of the end
+     * marker after pos, or -1.
+     */
+    private static int skip(byte[] b, int pos, String marker) {
+        for (int i = pos + 2; i + marker.length() <= b.length; i++) {
+            if (startsWith(b, i, marker)) {
+                return i + marker.length();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Passes the events of a wrapped element to a handler, leaving out the
+     * wrapper and the element itself: the content is added to the element
+     * the handler starts at.
+     */
+    static final class ContentFilter implements ContentHandler {
+        private final ContentHandler handler;
+        private final Runnable start;
+        private int depth;
+
+        /**
+         * @param handler The handler the content is passed to
+         * @param start Positions the handler at the element, after it
+         *            has been reset by the start of the document
+         */
+        ContentFilter(ContentHandler handler, Runnable start) {
+            this.handler = handler;
+            this.start = start;
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            handler.setDocumentLocator(locator);
+        }
+
+        @Override
+        public void startDocument() throws SAXException {
+            handler.startDocument();
+            start.run();
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            handler.endDocument();
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri)
+            throws SAXException {
+            if (depth >= 2) {
+                handler.startPrefixMapping(prefix, uri);
+            }
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) throws SAXException {
+            if (depth >= 2) {
+                handler.endPrefixMapping(prefix);
+            }
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes atts) throws SAXException {
+            if (depth++ >= 2) {
+                handler.startElement(uri, localName, qName, atts);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+            throws SAXException {
+            if (--depth >= 2) {
+                handler.endElement(uri, localName, qName);
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length)
+            throws SAXException {
+            if (depth >= 2) {
+                handler.characters(ch, start, length);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length)
+            throws SAXException {
+            if (depth >= 2) {
+                handler.ignorableWhitespace(ch, start, length);
+            }
+        }
+
+        @Override
+        public void processingInstruction(String target, String data)
+            throws SAXException {
+            handler.processingInstruction(target, data);
+        }
+
+        @Override
+        public void skippedEntity(String name) throws SAXException {
+            handler.skippedEntity(name);
+        }
+    }
+}
@@ -2,8 +2,22 @@ package com.tailf.jnc;
 
 import com.tailf.jnc.framing.Framing;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.xml.sax.InputSource;
 
 /**
  * A NETCONF session class. It makes it possible to connect to a NETCONF agent
@@ -121,6 +135,22 @@ import java.util.List;
  *
  * }
  * </pre>
+ * <p>
+ * Example 4: Asynchronous operations
+ * <p>
+ * Every operation has an <code>*Async</code> variant that sends the request
+ * and returns an {@link RpcFuture} without waiting for the reply; the
+ * blocking methods wait for that future. With a reply reader started, the
+ * replies of many sessions can be handled without a waiting thread per
+ * request. Requests can be sent from several threads at once. Callbacks run
+ * on the thread that read the reply unless an executor is set with
+ * {@link #setCompletionExecutor}, so they must not block there.
+ *
+ * <pre>
+ * dev1.startReplyReader();
+ * dev1.getConfigAsync(NetconfSession.RUNNING)
+ *     .thenAccept(config -&gt; System.out.println(config.toXMLString()));
+ * </pre>
  *
  * @see Element
  *
@@ -142,10 +172,17 @@ public class NetconfSession {
     public static final String START_TIME_GT = "startTime>";
     public static final String STOP_TIME_GT = "stopTime>";
     /**
-     * Monotonically increased message identifier for this session.
+     * Monotonically increased message identifier for this session. Taken
+     * with the send lock held.
      */
     int message_id = 1;
 
+    /**
+     * Held while a request is written to the transport, so that requests
+     * sent from several threads are not interleaved.
+     */
+    private final Object sendLock = new Object();
+
     /**
      * The <code>RUNNING</code> datastore.
      */
@@ -291,6 +328,28 @@ public class NetconfSession {
         in = transport; // same
     }
 
+    /**
+     * Selects the StAX backend of the parser of this session, for the
+     * messages read from now on.
+     *
+     * @param stax StAX if true, SAX if false
+     * @see XMLParser#setStax(boolean)
+     */
+    public void setStaxParsing(boolean stax) {
+        parser.setStax(stax);
+    }
+
+    /**
+     * Selects lazy parsing of the messages read from now on: the content of
+     * an element is only parsed when it is first needed.
+     *
+     * @param lazy Lazy if true, eager if false
+     * @see XMLParser#setLazy(boolean)
+     */
+    public void setLazyParsing(boolean lazy) {
+        parser.setLazy(lazy);
+    }
+
     /**
      * Returns the transport object used by this session.
      *
@@ -316,9 +375,7 @@ public class NetconfSession {
         trace("hello: ");
         encodeHello(out);
         out.flush();
-        final String reply = in.readOne();
-        // System.out.println("reply= "+ reply);
-        final Element t = parser.parse(reply);
+        final Element t = readReplyTree(parser);
         final Element capatree = t.getFirst("self::hello/capabilities");
         if (capatree == null) {
             throw new JNCException(JNCException.SESSION_ERROR,
@@ -360,9 +417,11 @@ public class NetconfSession {
      * @param request XML encoded NETCONF request
      */
     public Element rpc(String request) throws IOException, JNCException {
-        out.print(request);
-        out.flush();
-        return parser.parse(in.readOne());
+        synchronized (sendLock) {
+            out.print(request);
+            out.flush();
+        }
+        return readReplyTree(parser);
     }
 
     /**
@@ -379,46 +438,80 @@ public class NetconfSession {
      * @param request XML element tree
      */
     public Element rpc(Element request) throws IOException, JNCException {
-        // print, but no newline at the end
-        out.print(request.encodedXMLString(false));
-        out.flush();
-        return parser.parse(in.readOne());
+        synchronized (sendLock) {
+            // print, but no newline at the end
+            request.encode(out, false);
+            out.flush();
+        }
+        return readReplyTree(parser);
     }
 
     /**
      * Sends rpc request and return. This method may be used for sending an XML
      * string over the connected session. To receive a reply the
      * {@link #readReply()} should be used.
-     * <p>
-     * Note that the return value reflects the last request-id generated by the
-     * NetconfSession methods, and is not checked against the request-id in the
-     * request parameter.
      *
      * @param request XML encoded NETCONF request
+     * @return The message-id of the request, or -1 if its first tag has no
+     *         numeric message-id attribute
      */
     public int sendRequest(String request) throws IOException {
-        // no newline before flush
-        out.print(request);
-        out.flush();
-        return message_id - 1; // FIXME
+        synchronized (sendLock) {
+            // no newline before flush
+            out.print(request);
+            out.flush();
+        }
+        return requestMessageId(request);
     }
 
     /**
      * Sends rpc request and return. This method may be used for sending an XML
      * element tree over the connected session. To receive a reply the
      * {@link #readReply()} should be used.
-     * <p>
-     * Note that the return value reflects the last request-id generated by the
-     * NetconfSession methods, and is not checked against the request-id in the
-     * request parameter.
      *
      * @param request Element tree
+     * @return The message-id of the request, or -1 if it has no numeric
+     *         message-id attribute
      */
     public int sendRequest(Element request) throws IOException, JNCException {
-        // print, but no newline at the end
-        out.print(request.encodedXMLString(false));
-        out.flush();
-        return message_id - 1; // FIXME
+        synchronized (sendLock) {
+            // print, but no newline at the end
+            request.encode(out, false);
+            out.flush();
+        }
+        return parseMessageId(request.getAttrValue("message-id"));
+    }
+
+    /**
+     * Returns the message-id attribute of the first tag of a request, or -1.
+     */
+    static int requestMessageId(String request) {
+        final int end = request.indexOf('>');
+        int i = request.indexOf("message-id=");
+        if (i < 0 || end >= 0 && i > end) {
+            return -1;
+        }
+        i += "message-id=".length();
+        if (i >= request.length()) {
+            return -1;
+        }
+        final char quote = request.charAt(i);
+        final int close = request.indexOf(quote, i + 1);
+        if (quote != '"' && quote != '\'' || close < 0) {
+            return -1;
+        }
+        return parseMessageId(request.substring(i + 1, close));
+    }
+
+    private static int parseMessageId(String mid) {
+        if (mid == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(mid.trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
     }
 
     /**
@@ -429,7 +522,7 @@ public class NetconfSession {
      * @see #sendRequest(Element)
      */
     public Element readReply() throws IOException, JNCException {
-        return parser.parse(in.readOne());
+        return readReplyTree(parser);
     }
 
     /**
@@ -442,6 +535,16 @@ public class NetconfSession {
         return getConfig(RUNNING, subtreeFilter);
     }
 
+    /**
+     * Asynchronous variant of {@link #getConfig(Element)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<NodeSet> getConfigAsync(Element subtreeFilter)
+            throws JNCException, IOException {
+        return getConfigAsync(RUNNING, subtreeFilter);
+    }
+
     /**
      * Gets the device configuration data.
      */
@@ -449,26 +552,52 @@ public class NetconfSession {
         return getConfig(RUNNING);
     }
 
+    /**
+     * Asynchronous variant of {@link #getConfig()}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<NodeSet> getConfigAsync()
+            throws JNCException, IOException {
+        return getConfigAsync(RUNNING);
+    }
+
     /**
      * Gets the device configuration data.
      */
     public NodeSet getConfig(int datastore) throws JNCException, IOException {
+        return getConfigAsync(datastore).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #getConfig(int)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<NodeSet> getConfigAsync(int datastore)
+            throws JNCException, IOException {
         trace("getConfig: %s", datastoreToString(datastore));
         RPCRequest rpcRequest = prepareGetConfigMessage(encodeDatastore(datastore));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        return recvRpcReplyData(rpcRequest.getMsgId());
+        return submitData(rpcRequest, "/data");
     }
 
     /**
      * Calls rpc method.
      */
     public NodeSet callRpc(Element data) throws JNCException, IOException {
+        return callRpcAsync(data).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #callRpc(Element)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<NodeSet> callRpcAsync(Element data)
+            throws JNCException, IOException {
         trace("call: " + data.toXMLString());
         RPCRequest rpcRequest = prepareRPCMessage(data);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        return recvCallRpcReply(data, rpcRequest.getMsgId());
+        return submitData(rpcRequest, "");
     }
 
     /**
@@ -479,8 +608,10 @@ public class NetconfSession {
     public int sendRpc(Element data) throws JNCException, IOException {
         trace("send rpc: " + data.toXMLString());
         RPCRequest rpcRequest = prepareRPCMessage(data);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
+        synchronized (sendLock) {
+            rpcRequest.assignMsgId();
+            rpcRequest.send(out);
+        }
         return rpcRequest.getMsgId();
     }
 
@@ -494,6 +625,16 @@ public class NetconfSession {
         return getConfig(RUNNING, xpath);
     }
 
+    /**
+     * Asynchronous variant of {@link #getConfig(String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<NodeSet> getConfigAsync(String xpath)
+            throws JNCException, IOException {
+        return getConfigAsync(RUNNING, xpath);
+    }
+
     /**
      * Gets the device configuration data specified by subtree filtering.
      *
@@ -503,12 +644,21 @@ public class NetconfSession {
      */
     public NodeSet getConfig(int datastore, Element subtreeFilter)
             throws JNCException, IOException {
+        return getConfigAsync(datastore, subtreeFilter).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #getConfig(int,Element)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<NodeSet> getConfigAsync(int datastore,
+            Element subtreeFilter)
+            throws JNCException, IOException {
         trace("getConfig: %s\n%s", datastoreToString(datastore),
               subtreeFilter.toXMLString());
         RPCRequest rpcRequest = prepareGetConfigMessage(encodeDatastore(datastore), subtreeFilter);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        return recvRpcReplyData(rpcRequest.getMsgId());
+        return submitData(rpcRequest, "/data");
     }
 
     /**
@@ -520,26 +670,41 @@ public class NetconfSession {
      */
     public NodeSet getConfig(int datastore, String xpath)
             throws JNCException, IOException {
+        return getConfigAsync(datastore, xpath).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #getConfig(int,String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<NodeSet> getConfigAsync(int datastore, String xpath)
+            throws JNCException, IOException {
         trace("getConfig: %s \"%s\"", datastoreToString(datastore), xpath);
         if (!capabilities.xpathCapability) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "the :xpath capability is not supported by server");
         }
         RPCRequest rpcRequest = prepareGetConfigMessage(encodeDatastore(datastore), xpath);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        return recvRpcReplyData(rpcRequest.getMsgId());
+        return submitData(rpcRequest, "/data");
     }
 
     /**
      * Retrieves running configuration and device state information.
      */
     public NodeSet get() throws JNCException, IOException {
+        return getAsync().await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #get()}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<NodeSet> getAsync() throws JNCException, IOException {
         trace("get: \"\"");
         RPCRequest rpcRequest = prepareGetMessage("");
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        return recvRpcReplyData(rpcRequest.getMsgId());
+        return submitData(rpcRequest, "/data");
     }
 
     /**
@@ -549,11 +714,19 @@ public class NetconfSession {
      */
     public NodeSet get(Element subtreeFilter) throws JNCException,
             IOException {
+        return getAsync(subtreeFilter).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #get(Element)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<NodeSet> getAsync(Element subtreeFilter)
+            throws JNCException, IOException {
         trace("get: " + (null!=subtreeFilter?subtreeFilter.toXMLString(): null));
         RPCRequest rpcRequest = prepareGetMessage(subtreeFilter);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        return recvRpcReplyData(rpcRequest.getMsgId());
+        return submitData(rpcRequest, "/data");
     }
 
     /**
@@ -563,15 +736,23 @@ public class NetconfSession {
      * @param xpath An xpath epxression.
      */
     public NodeSet get(String xpath) throws JNCException, IOException {
+        return getAsync(xpath).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #get(String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<NodeSet> getAsync(String xpath)
+            throws JNCException, IOException {
         trace("get: \"%s\"", xpath);
         if (!capabilities.hasXPath()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "the :xpath capability is not supported by server");
         }
         RPCRequest rpcRequest = prepareGetMessage(xpath);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        return recvRpcReplyData(rpcRequest.getMsgId());
+        return submitData(rpcRequest, "/data");
     }
 
     /**
@@ -586,6 +767,16 @@ public class NetconfSession {
         editConfig(RUNNING, configTree);
     }
 
+    /**
+     * Asynchronous variant of {@link #editConfig(Element)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> editConfigAsync(Element configTree)
+            throws JNCException, IOException {
+        return editConfigAsync(RUNNING, configTree);
+    }
+
     /**
      * Edits the configuration. If we have multiple top elements in our
      * configuration schema (YANG model) we must send a NodeSet as opposed to
@@ -597,6 +788,16 @@ public class NetconfSession {
         editConfig(RUNNING, configTrees);
     }
 
+    /**
+     * Asynchronous variant of {@link #editConfig(NodeSet)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> editConfigAsync(NodeSet configTrees)
+            throws JNCException, IOException {
+        return editConfigAsync(RUNNING, configTrees);
+    }
+
     /**
      * Edits the configuration. The <code>edit-config</code> operation loads
      * all or part of a specified configuration to the specified target
@@ -608,23 +809,43 @@ public class NetconfSession {
      */
     public void editConfig(int datastore, Element configTree)
             throws JNCException, IOException {
-        trace("editConfig: target=%s\n%s", datastoreToString(datastore), configTree.toXMLString());
+        editConfigAsync(datastore, configTree).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #editConfig(int,Element)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> editConfigAsync(int datastore, Element configTree)
+            throws JNCException, IOException {
+        if (tracing()) {
+            trace("editConfig: target=%s\n%s", datastoreToString(datastore),
+                  configTree.toXMLString());
+        }
         RPCRequest rpcRequest = prepareEditConfigMessage(encodeDatastore(datastore),
                 new NodeSet(configTree));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     public void editConfig(int datastore, NodeSet configTrees)
             throws JNCException, IOException {
-        trace("editConfig: target=" + datastoreToString(datastore) + "\n"
-                + configTrees.toXMLString());
-        RPCRequest rpcRequest = prepareEditConfigMessage(encodeDatastore(datastore), configTrees);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        editConfigAsync(datastore, configTrees).await();
+    }
 
+    /**
+     * Asynchronous variant of {@link #editConfig(int,NodeSet)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> editConfigAsync(int datastore, NodeSet configTrees)
+            throws JNCException, IOException {
+        if (tracing()) {
+            trace("editConfig: target=" + datastoreToString(datastore) + "\n"
+                    + configTrees.toXMLString());
+        }
+        RPCRequest rpcRequest = prepareEditConfigMessage(encodeDatastore(datastore), configTrees);
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -637,12 +858,19 @@ public class NetconfSession {
      */
     public void editConfig(int datastore, String url) throws JNCException,
             IOException {
+        editConfigAsync(datastore, url).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #editConfig(int,String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> editConfigAsync(int datastore, String url)
+            throws JNCException, IOException {
         trace("editConfig: target=%s source=%s", datastoreToString(datastore), url);
         RPCRequest rpcRequest = prepareEditConfigMessage(encodeDatastore(datastore), url);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
-
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -826,19 +1054,39 @@ public class NetconfSession {
         copyConfig(new NodeSet(sourceTree), target);
     }
 
+    /**
+     * Asynchronous variant of {@link #copyConfig(Element,int)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> copyConfigAsync(Element sourceTree, int target)
+            throws JNCException, IOException {
+        return copyConfigAsync(new NodeSet(sourceTree), target);
+    }
+
     /**
      * variant of copyConfig() that takes a NodeSet as param
      */
 
     public void copyConfig(NodeSet sourceTrees, int target)
             throws JNCException, IOException {
+        copyConfigAsync(sourceTrees, target).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #copyConfig(NodeSet,int)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> copyConfigAsync(NodeSet sourceTrees, int target)
+            throws JNCException, IOException {
 
-        trace("copyConfig: target=" + datastoreToString(target) + "\n"
-                + sourceTrees.toXMLString());
+        if (tracing()) {
+            trace("copyConfig: target=" + datastoreToString(target) + "\n"
+                    + sourceTrees.toXMLString());
+        }
         RPCRequest rpcRequest = prepareCopyConfigMessage(sourceTrees, encodeDatastore(target));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -853,15 +1101,36 @@ public class NetconfSession {
         copyConfig(new NodeSet(sourceTree), targetUrl);
     }
 
+    /**
+     * Asynchronous variant of {@link #copyConfig(Element,String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> copyConfigAsync(Element sourceTree, String targetUrl)
+            throws JNCException, IOException {
+        return copyConfigAsync(new NodeSet(sourceTree), targetUrl);
+    }
+
     public void copyConfig(NodeSet sourceTrees, String targetUrl)
             throws JNCException, IOException {
+        copyConfigAsync(sourceTrees, targetUrl).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #copyConfig(NodeSet,String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> copyConfigAsync(NodeSet sourceTrees,
+            String targetUrl)
+            throws JNCException, IOException {
 
-        trace("copyConfig: target=" + targetUrl + "\n"
-                + sourceTrees.toXMLString());
+        if (tracing()) {
+            trace("copyConfig: target=" + targetUrl + "\n"
+                    + sourceTrees.toXMLString());
+        }
         RPCRequest rpcRequest = prepareCopyConfigMessage(sourceTrees, encodeUrl(targetUrl));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -874,11 +1143,19 @@ public class NetconfSession {
      */
     public void copyConfig(int source, int target) throws JNCException,
             IOException {
+        copyConfigAsync(source, target).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #copyConfig(int,int)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> copyConfigAsync(int source, int target)
+            throws JNCException, IOException {
         trace("copyConfig: %s %s", datastoreToString(source), datastoreToString(target));
         RPCRequest rpcRequest = prepareCopyConfigMessage(encodeDatastore(source), encodeDatastore(target));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -890,11 +1167,19 @@ public class NetconfSession {
      */
     public void copyConfig(int source, String targetUrl) throws JNCException,
             IOException {
+        copyConfigAsync(source, targetUrl).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #copyConfig(int,String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> copyConfigAsync(int source, String targetUrl)
+            throws JNCException, IOException {
         trace("copyConfig: source=%s target=%s", datastoreToString(source), targetUrl);
         RPCRequest rpcRequest = prepareCopyConfigMessage(encodeDatastore(source), encodeUrl(targetUrl));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -907,11 +1192,19 @@ public class NetconfSession {
      */
     public void copyConfig(String sourceUrl, String targetUrl)
             throws JNCException, IOException {
+        copyConfigAsync(sourceUrl, targetUrl).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #copyConfig(String,String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> copyConfigAsync(String sourceUrl, String targetUrl)
+            throws JNCException, IOException {
         trace("copyConfig: source=%s target=%s", sourceUrl, targetUrl);
         RPCRequest rpcRequest = prepareCopyConfigMessage(encodeUrl(sourceUrl), encodeUrl(targetUrl));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -923,11 +1216,19 @@ public class NetconfSession {
      */
     public void copyConfig(String sourceUrl, int target) throws JNCException,
             IOException {
+        copyConfigAsync(sourceUrl, target).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #copyConfig(String,int)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> copyConfigAsync(String sourceUrl, int target)
+            throws JNCException, IOException {
         trace("copyConfig: source=%s target=%s", sourceUrl, datastoreToString(target));
         RPCRequest rpcRequest = prepareCopyConfigMessage(encodeUrl(sourceUrl), encodeDatastore(target));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -937,11 +1238,19 @@ public class NetconfSession {
      * @param datastore Datastore to be deleted
      */
     public void deleteConfig(int datastore) throws JNCException, IOException {
+        deleteConfigAsync(datastore).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #deleteConfig(int)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> deleteConfigAsync(int datastore)
+            throws JNCException, IOException {
         trace("deleteConfig: %s", datastoreToString(datastore));
         RPCRequest rpcRequest = prepareDeleteConfigMessage(encodeDatastore(datastore));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -951,11 +1260,19 @@ public class NetconfSession {
      */
     public void deleteConfig(String targetUrl) throws JNCException,
             IOException {
+        deleteConfigAsync(targetUrl).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #deleteConfig(String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> deleteConfigAsync(String targetUrl)
+            throws JNCException, IOException {
         trace("deleteConfig: %s", targetUrl);
         RPCRequest rpcRequest = prepareDeleteConfigMessage(encodeUrl(targetUrl));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -971,11 +1288,19 @@ public class NetconfSession {
      * @param datastore The datastore to lock
      */
     public void lock(int datastore) throws JNCException, IOException {
+        lockAsync(datastore).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #lock(int)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> lockAsync(int datastore)
+            throws JNCException, IOException {
         trace("lock: %s", datastoreToString(datastore));
         RPCRequest rpcRequest = prepareLockMessage(encodeDatastore(datastore));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk();
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -985,11 +1310,19 @@ public class NetconfSession {
      * @param datastore The target datastore to unlock
      */
     public void unlock(int datastore) throws JNCException, IOException {
+        unlockAsync(datastore).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #unlock(int)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> unlockAsync(int datastore)
+            throws JNCException, IOException {
         trace("unlock: %s", datastoreToString(datastore));
         RPCRequest rpcRequest = prepareUnlockMessage(encodeDatastore(datastore));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk();
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -1026,6 +1359,16 @@ public class NetconfSession {
      * @return A unique lock reference which should be used to unlockPartial()
      */
     public int lockPartial(String[] select) throws JNCException, IOException {
+        return lockPartialAsync(select).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #lockPartial(String[])}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Integer> lockPartialAsync(String[] select)
+            throws JNCException, IOException {
         trace("lockPartial");
         if (!capabilities.hasPartialLock()) {
             throw new JNCException(JNCException.SESSION_ERROR,
@@ -1036,17 +1379,17 @@ public class NetconfSession {
         // throw new JNCException(JNCException.SESSION_ERROR,
         // "capability :xpath is not supported by server");
         RPCRequest rpcRequest = prepareLockPartialMessage(select);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        final NodeSet reply = recvRpcReplyLockPartial(rpcRequest.getMsgId());
-        try {
-            final Element t = reply.first().getFirst("self::lock-id");
-            return Integer.parseInt((String) t.value);
-        } catch (final Exception e) {
-            throw (JNCException) new JNCException(JNCException.SESSION_ERROR,
-                    "bad lock-id returned from partial-lock: "
-                            + reply.toXMLString()).initCause(e);
-        }
+        return submit(rpcRequest, (t, mid) -> {
+            final NodeSet reply = replyData(t, "", mid);
+            try {
+                final Element lockId = reply.first().getFirst("self::lock-id");
+                return Integer.parseInt((String) lockId.value);
+            } catch (final Exception e) {
+                throw (JNCException) new JNCException(JNCException.SESSION_ERROR,
+                        "bad lock-id returned from partial-lock: "
+                                + reply.toXMLString()).initCause(e);
+            }
+        });
     }
 
     /**
@@ -1059,6 +1402,16 @@ public class NetconfSession {
         return lockPartial(new String[] { select });
     }
 
+    /**
+     * Asynchronous variant of {@link #lockPartial(String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Integer> lockPartialAsync(String select)
+            throws JNCException, IOException {
+        return lockPartialAsync(new String[] { select });
+    }
+
     /**
      * The unlock operation is used to release a configuration lock, previously
      * obtained with the {@link #lock} operation.
@@ -1067,6 +1420,16 @@ public class NetconfSession {
      *            {@link #lockPartial(int,String[])}
      */
     public void unlockPartial(int lockId) throws JNCException, IOException {
+        unlockPartialAsync(lockId).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #unlockPartial(int)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> unlockPartialAsync(int lockId)
+            throws JNCException, IOException {
         trace("partialUnlock: %s", lockId);
         if (!capabilities.hasPartialLock()) {
             throw new JNCException(JNCException.SESSION_ERROR,
@@ -1077,9 +1440,7 @@ public class NetconfSession {
                     "capability :xpath is not supported by server");
         }
         RPCRequest rpcRequest = prepareUnlockPartialMessage(lockId);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -1104,15 +1465,22 @@ public class NetconfSession {
      *
      */
     public void commit() throws JNCException, IOException {
-        trace("commit");
-        if (!capabilities.hasCandidate()) {
+        commitAsync().await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #commit()}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> commitAsync() throws JNCException, IOException {
+        trace("commit");
+        if (!capabilities.hasCandidate()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "the :candidate capability is not supported by server");
         }
         RPCRequest rpcRequest = prepareCommitMessage();
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -1152,6 +1520,16 @@ public class NetconfSession {
      *            reverting config
      */
     public void confirmedCommit(int timeout) throws JNCException, IOException {
+        confirmedCommitAsync(timeout).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #confirmedCommit(int)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> confirmedCommitAsync(int timeout)
+            throws JNCException, IOException {
         trace("confirmedCommit: %s", timeout);
         if (!capabilities.hasCandidate()) {
             throw new JNCException(JNCException.SESSION_ERROR,
@@ -1162,9 +1540,7 @@ public class NetconfSession {
                     "the :confirmed-commit capability is not supported by server");
         }
         RPCRequest rpcRequest = prepareConfirmedCommitMessage(timeout);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -1173,15 +1549,23 @@ public class NetconfSession {
      * candidate configuration to the current running configuration.
      */
     public void discardChanges() throws JNCException, IOException {
+        discardChangesAsync().await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #discardChanges()}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> discardChangesAsync()
+            throws JNCException, IOException {
         trace("discardChanges");
         if (!capabilities.hasCandidate()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "the :candidate capability is not supported by server");
         }
         RPCRequest rpcRequest = prepareDiscardChangesMessage();
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -1193,11 +1577,19 @@ public class NetconfSession {
      * associated connections.
      */
     public void closeSession() throws JNCException, IOException {
+        closeSessionAsync().await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #closeSession()}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> closeSessionAsync()
+            throws JNCException, IOException {
         trace("closeSession");
         RPCRequest rpcRequest = prepareCloseSessionMessage();
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -1214,15 +1606,23 @@ public class NetconfSession {
      * @param sessionId The id of the session to terminate
      */
     public void killSession(long sessionId) throws JNCException, IOException {
+        killSessionAsync(sessionId).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #killSession(long)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> killSessionAsync(long sessionId)
+            throws JNCException, IOException {
         trace("killSession: %s", sessionId);
         if (sessionId == this.sessionId) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "illegal to use kill-session on own session id");
         }
         RPCRequest rpcRequest = prepareKillSessionMessage(sessionId);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -1232,15 +1632,25 @@ public class NetconfSession {
      * @param configTree configuration tree to validate
      */
     public void validate(Element configTree) throws JNCException, IOException {
-        trace("validate: %s", configTree.toXMLString());
+        validateAsync(configTree).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #validate(Element)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> validateAsync(Element configTree)
+            throws JNCException, IOException {
+        if (tracing()) {
+            trace("validate: %s", configTree.toXMLString());
+        }
         if (!capabilities.hasValidate()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "capability :validate is not supported by server");
         }
         RPCRequest rpcRequest = prepareValidateMessage(configTree);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -1250,15 +1660,23 @@ public class NetconfSession {
      * @param datastore The datastore to validate
      */
     public void validate(int datastore) throws IOException, JNCException {
+        validateAsync(datastore).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #validate(int)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> validateAsync(int datastore)
+            throws IOException, JNCException {
         trace("validate: %s", datastoreToString(datastore));
         if (!capabilities.hasValidate()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "capability :validate is not supported by server");
         }
         RPCRequest rpcRequest = prepareValidateMessage(encodeDatastore(datastore));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -1269,15 +1687,23 @@ public class NetconfSession {
      * @param url The source url to validate
      */
     public void validate(String url) throws IOException, JNCException {
+        validateAsync(url).await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #validate(String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> validateAsync(String url)
+            throws IOException, JNCException {
         trace("validate: %s", url);
         if (!capabilities.hasValidate()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "capability :validate is not supported by server");
         }
         RPCRequest rpcRequest = prepareValidateMessage(encodeUrl(url));
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -1291,6 +1717,16 @@ public class NetconfSession {
         createSubscription(null, (String) null, null, null);
     }
 
+    /**
+     * Asynchronous variant of {@link #createSubscription()}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> createSubscriptionAsync()
+            throws IOException, JNCException {
+        return createSubscriptionAsync(null, (String) null, null, null);
+    }
+
     /**
      * The notification capability makes it possible to receive notifications
      * specified in a subscription. The <code>:notification</code> capability
@@ -1307,6 +1743,16 @@ public class NetconfSession {
         createSubscription(stream, (String) null, null, null);
     }
 
+    /**
+     * Asynchronous variant of {@link #createSubscription(String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> createSubscriptionAsync(String stream)
+            throws IOException, JNCException {
+        return createSubscriptionAsync(stream, (String) null, null, null);
+    }
+
     /**
      * The notification capability makes it possible to receive notifications
      * specified in a subscription. The <code>:notification</code> capability
@@ -1350,6 +1796,19 @@ public class NetconfSession {
     public void createSubscription(String streamName, NodeSet eventFilter,
             String startTime, String stopTime) throws IOException,
             JNCException {
+        createSubscriptionAsync(streamName, eventFilter, startTime, stopTime)
+                .await();
+    }
+
+    /**
+     * Asynchronous variant of
+     * {@link #createSubscription(String,NodeSet,String,String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> createSubscriptionAsync(String streamName,
+            NodeSet eventFilter, String startTime, String stopTime)
+            throws IOException, JNCException {
         trace("createSubscription: stream=%s filter=%s form=%s to=%s",
             streamName, eventFilter.toXMLString(), startTime, stopTime);
         if (!capabilities.hasNotification()) {
@@ -1358,9 +1817,7 @@ public class NetconfSession {
         }
         RPCRequest rpcRequest = prepareCreateSubscriptionMessage(streamName,
                 eventFilter, startTime, stopTime);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -1378,6 +1835,19 @@ public class NetconfSession {
     public void createSubscription(String streamName, String eventFilter,
             String startTime, String stopTime) throws IOException,
             JNCException {
+        createSubscriptionAsync(streamName, eventFilter, startTime, stopTime)
+                .await();
+    }
+
+    /**
+     * Asynchronous variant of
+     * {@link #createSubscription(String,String,String,String)}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<Void> createSubscriptionAsync(String streamName,
+            String eventFilter, String startTime, String stopTime)
+            throws IOException, JNCException {
         trace("createSubscription: stream=%s filter=%s from=%s to=%s",
              streamName, eventFilter, startTime, stopTime);
         if (!capabilities.hasNotification()) {
@@ -1390,9 +1860,7 @@ public class NetconfSession {
         }
         RPCRequest rpcRequest = prepareCreateSubscriptionMessage(streamName,
                 eventFilter, startTime, stopTime);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        recvRpcReplyOk(rpcRequest.getMsgId());
+        return submitOk(rpcRequest);
     }
 
     /**
@@ -1407,10 +1875,20 @@ public class NetconfSession {
      * The available streams are returned.
      */
     public NodeSet getStreams() throws JNCException, IOException {
+        return getStreamsAsync().await();
+    }
+
+    /**
+     * Asynchronous variant of {@link #getStreams()}.
+     *
+     * @see RpcFuture
+     */
+    public RpcFuture<NodeSet> getStreamsAsync()
+            throws JNCException, IOException {
         final Element filter = Element.create(
                 "urn:ietf:params:xml:ns:netmod:notification",
                 "netconf/streams");
-        return get(filter);
+        return getAsync(filter);
     }
 
     /**
@@ -1418,19 +1896,43 @@ public class NetconfSession {
      * until an entire notifications messages has been received. It's possible
      * to check if there is data to be read ahead using the ready() method on
      * the SSHSession object.
+     * <p>
+     * Notifications that arrived while replies to pipelined requests were
+     * read are returned first. Replies to pipelined requests that arrive
+     * while waiting for a notification complete their futures.
      */
 
     public Element receiveNotification() throws IOException, JNCException {
-        final String notification = in.readOne();
-        trace("notification= %s", notification);
-        if (notification.length() == 0) {
-            throw new JNCException(JNCException.PARSER_ERROR, "empty input");
-        }
-        final Element t = parser.parse(notification);
-        final Element test = t.getFirst("self::notification");
-        if (test != null) {
+        Element t = notifications.poll();
+        if (t == null && replyReaderRunning) {
+            try {
+                t = notifications.take();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JNCException(JNCException.SESSION_ERROR, e);
+            }
+        }
+        if (t == READER_STOPPED) {
+            // let other waiting readers see it too
+            notifications.add(READER_STOPPED);
+            throw new IOException("reply reader stopped");
+        }
+        if (t != null) {
             return t;
         }
+        synchronized (replyLock) {
+            while (true) {
+                t = readReplyTree(parser);
+                final Element test = t.getFirst("self::notification");
+                if (test != null) {
+                    return t;
+                }
+                if (getPendingReplyCount() == 0) {
+                    break;
+                }
+                dispatchMessage(t);
+            }
+        }
         /* rpc-error */
         throw new JNCException(JNCException.NOTIFICATION_ERROR, t);
     }
@@ -1443,27 +1945,22 @@ public class NetconfSession {
      * @param data element tree with action-data
      */
     public Element action(Element data) throws JNCException, IOException {
-        trace("action: %s", data.toXMLString());
-        RPCRequest rpcRequest = prepareActionMessage(data);
-        out.print(rpcRequest.getMessage().toString());
-        out.flush();
-        return recvRpcReplyOk(null);
-
+        return actionAsync(data).await();
     }
 
-    /* Receive from session */
-
     /**
-     * Reads one rpc-reply from session and parse an &lt;ok/&gt;. If not ok then
-     * throw RCP_REPLY_ERROR exception.
+     * Asynchronous variant of {@link #action(Element)}.
+     *
+     * @see RpcFuture
      */
-    void recvRpcReplyOk() throws JNCException, IOException {
-        recvRpcReplyOk(null);
+    public RpcFuture<Element> actionAsync(Element data)
+            throws JNCException, IOException {
+        trace("action: %s", data.toXMLString());
+        RPCRequest rpcRequest = prepareActionMessage(data);
+        return submit(rpcRequest, (t, mid) -> replyOk(t, mid));
     }
 
-    void recvRpcReplyOk(int mid) throws JNCException, IOException {
-        recvRpcReplyOk(Integer.toString(mid));
-    }
+    /* Receive from session */
 
     /**
      * Receive from session
@@ -1473,12 +1970,14 @@ public class NetconfSession {
      * @throws IOException
      */
     protected Element recvRpcReplyOk(String mid) throws JNCException, IOException {
-        final String reply = in.readOne();
-        trace("reply= %s", reply);
-        if (reply.length() == 0) {
-            throw new JNCException(JNCException.PARSER_ERROR, "empty input");
-        }
-        final Element t = parser.parse(reply);
+        return replyOk(readReplyFor(mid), mid);
+    }
+
+    /**
+     * Returns the &lt;ok/&gt; or &lt;data&gt; element of an rpc-reply, or
+     * throws an RPC_REPLY_ERROR exception.
+     */
+    Element replyOk(Element t, String mid) throws JNCException {
         final Element ok;
 
         if (mid != null) {
@@ -1504,30 +2003,10 @@ public class NetconfSession {
     }
 
     /**
-     * Reads one rpc-reply from session and parse the &lt;data&gt;. Returns the
-     * NodeSet contained in the data tag.
+     * Returns the children of the element at the given path of an rpc-reply,
+     * detached from the reply, or throws an RPC_REPLY_ERROR exception.
      */
-    NodeSet recvRpcReplyData(int mid) throws JNCException, IOException {
-        return recvRpcReply("/data", parser, Integer.toString(mid));
-    }
-
-    NodeSet recvRpcReplyLockPartial(int mid) throws JNCException,
-            IOException {
-        return recvRpcReply("", parser, Integer.toString(mid));
-    }
-
-    NodeSet recvCallRpcReply(Element e, int mid) throws JNCException,
-            IOException {
-        final XMLParser parser = new XMLParser(); // XXX: Why new parser?
-        return recvRpcReply("", parser, Integer.toString(mid));
-    }
-
-    NodeSet recvRpcReply(String path, XMLParser parser, String mid)
-            throws JNCException, IOException {
-        final String reply = in.readOne();
-        trace("reply= %s", reply);
-
-        final Element t = parser.parse(reply);
+    NodeSet replyData(Element t, String path, String mid) throws JNCException {
         final Element rep = t.getFirst("self::rpc-reply");
         if (rep != null) {
             checkMid(rep, mid);
@@ -1549,6 +2028,7 @@ public class NetconfSession {
              * need to set parent of each data entry to null don't want
              * rpc-reply to be part of returned tree
              */
+            data.materialize();
             if (data.children != null) {
                 for (int i = 0; i < data.children.size(); i++) {
                     final Element child = data.children.getElement(i);
@@ -1559,6 +2039,7 @@ public class NetconfSession {
                     } else {
                         child.prefixes = (PrefixMap) ctxtPrefix.clone();
                     }
+                    child.invalidatePrefixScope();
                 }
                 return data.children;
             }
@@ -1569,6 +2050,381 @@ public class NetconfSession {
         throw new JNCException(JNCException.RPC_REPLY_ERROR, t);
     }
 
+    /**
+     * Reads one message from the session and parses it. The message is fed
+     * to the parser as a stream, so it is never held in memory as a whole;
+     * with session tracing enabled it is read as a string so that it can be
+     * traced.
+     *
+     * @param parser the parser to use
+     * @return the parsed message
+     */
+    Element readReplyTree(XMLParser parser) throws JNCException, IOException {
+        if (tracing()) {
+            final String reply = in.readOne();
+            trace("reply= %s", reply);
+            if (reply.length() == 0) {
+                throw new JNCException(JNCException.PARSER_ERROR, "empty input");
+            }
+            return parser.parse(reply);
+        }
+        try (InputStream reply = in.readFrameStream()) {
+            if (parser.isLazy()) {
+                return parser.parse(readFully(reply));
+            }
+            return parser.parse(new InputSource(reply));
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        final byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /* Pipelining */
+
+    /**
+     * Pipelined requests whose replies have not been read yet, by
+     * message-id, in the order they were sent.
+     */
+    private final Map<String, RpcFuture<?>> pendingReplies =
+        new LinkedHashMap<String, RpcFuture<?>>();
+
+    /**
+     * Held while replies are read on a caller's thread.
+     */
+    private final Object replyLock = new Object();
+
+    /**
+     * Set while a reply reader started with {@link #startReplyReader} reads
+     * the session; written with the pendingReplies lock held.
+     */
+    private volatile boolean replyReaderRunning = false;
+
+    /**
+     * Notifications read while waiting for replies, in order of arrival.
+     */
+    private final BlockingQueue<Element> notifications =
+        new LinkedBlockingQueue<Element>();
+
+    /**
+     * Queued to wake up notification readers when the reply reader stops.
+     */
+    private static final Element READER_STOPPED = new Element("", "");
+
+    /**
+     * Sends the request and registers it as waiting for a reply. The
+     * message-id is assigned, the reply registered and the request written
+     * with the send lock held, so that requests sent from several threads
+     * get ids of their own and go out whole.
+     */
+    <T> RpcFuture<T> submit(RPCRequest rpcRequest, RpcFuture.ReplyHandler<T> handler)
+            throws JNCException, IOException {
+        synchronized (sendLock) {
+            final String mid = Integer.toString(rpcRequest.assignMsgId());
+            final RpcFuture<T> reply = expectReply(mid, handler);
+            try {
+                rpcRequest.send(out);
+            } catch (JNCException | IOException e) {
+                forgetReply(reply, e);
+                throw e;
+            }
+            return reply;
+        }
+    }
+
+    private RpcFuture<Void> submitOk(RPCRequest rpcRequest)
+            throws JNCException, IOException {
+        return submit(rpcRequest, (t, mid) -> {
+            replyOk(t, mid);
+            return null;
+        });
+    }
+
+    private RpcFuture<NodeSet> submitData(RPCRequest rpcRequest, String path)
+            throws JNCException, IOException {
+        return submit(rpcRequest, (t, mid) -> replyData(t, path, mid));
+    }
+
+    private <T> RpcFuture<T> expectReply(String mid,
+            RpcFuture.ReplyHandler<T> handler) {
+        final RpcFuture<T> reply = new RpcFuture<T>(this, mid, handler);
+        synchronized (pendingReplies) {
+            pendingReplies.put(mid, reply);
+        }
+        return reply;
+    }
+
+    private boolean isPending(RpcFuture<?> reply) {
+        synchronized (pendingReplies) {
+            return pendingReplies.get(reply.getMessageId()) == reply;
+        }
+    }
+
+    private void forgetReply(RpcFuture<?> reply, Throwable cause) {
+        synchronized (pendingReplies) {
+            pendingReplies.remove(reply.getMessageId(), reply);
+        }
+        reply.completeExceptionally(cause);
+    }
+
+    /**
+     * Reads replies until the given request has got its reply. Replies to
+     * other pipelined requests complete their futures, notifications are
+     * queued for {@link #receiveNotification()}. Returns at once if a reply
+     * reader is running, and once the reply is read if it is completed by
+     * the completion executor.
+     */
+    void awaitReply(RpcFuture<?> reply) throws JNCException, IOException {
+        synchronized (replyLock) {
+            while (!reply.isDone() && !replyReaderRunning && isPending(reply)) {
+                final Element t;
+                try {
+                    t = readReplyTree(parser);
+                } catch (final IOException e) {
+                    // the session is not usable any more
+                    failPendingReplies(e);
+                    throw e;
+                }
+                try {
+                    dispatchMessage(t);
+                } catch (final JNCException e) {
+                    // a reply we cannot match, take it as ours
+                    forgetReply(reply, e);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Completes the pipelined request a reply belongs to, or queues a
+     * notification.
+     */
+    private void dispatchMessage(Element t) throws JNCException {
+        if (t.getFirst("self::notification") != null) {
+            notifications.add(t);
+            return;
+        }
+        final Element rep = t.getFirst("self::rpc-reply");
+        final String mid = rep != null ? rep.getAttrValue("message-id") : null;
+        final RpcFuture<?> reply;
+        synchronized (pendingReplies) {
+            reply = mid != null ? pendingReplies.remove(mid) : null;
+        }
+        if (reply == null) {
+            throw new JNCException(JNCException.MESSAGE_ID_MISMATCH,
+                    "Received rpc-reply with message-id=" + mid
+                            + ", which is not outstanding");
+        }
+        final Executor executor = completionExecutor;
+        if (executor == null) {
+            reply.completeReply(t);
+            return;
+        }
+        try {
+            executor.execute(() -> reply.completeReply(t));
+        } catch (final RuntimeException e) {
+            reply.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Runs the completion of the futures and their dependent stages, or
+     * null to complete them on the thread that read the reply.
+     */
+    private volatile Executor completionExecutor;
+
+    /**
+     * Sets the executor that completes the futures of pipelined requests,
+     * and so runs the dependent stages that are not <code>*Async</code>.
+     * By default they run on the thread that read the reply: the caller
+     * waiting for a reply, the reply reader thread, or the
+     * {@link SelectorLoop} thread that a {@link TCPSession} shares with
+     * other sessions. A callback that blocks on that thread delays the
+     * replies of all those sessions, so blocking callbacks should use the
+     * <code>*Async</code> stages or an executor set here.
+     *
+     * @param executor Completes the futures, or null for the reading thread
+     */
+    public void setCompletionExecutor(Executor executor) {
+        completionExecutor = executor;
+    }
+
+    /**
+     * Returns the executor set by {@link #setCompletionExecutor}, or null.
+     */
+    public Executor getCompletionExecutor() {
+        return completionExecutor;
+    }
+
+    private void failPendingReplies(Throwable cause) {
+        synchronized (pendingReplies) {
+            for (final RpcFuture<?> reply : pendingReplies.values()) {
+                reply.completeExceptionally(cause);
+            }
+            pendingReplies.clear();
+        }
+    }
+
+    /**
+     * Reads the reply to the request with given message-id. If there are
+     * pipelined requests outstanding, their replies are dispatched until
+     * this one arrives.
+     */
+    private Element readReplyFor(String mid) throws JNCException, IOException {
+        if (mid == null) {
+            synchronized (replyLock) {
+                return readReplyTree(parser);
+            }
+        }
+        return expectReply(mid, (t, id) -> t).await();
+    }
+
+    /**
+     * Returns the number of pipelined requests whose replies have not been
+     * read yet.
+     */
+    public int getPendingReplyCount() {
+        synchronized (pendingReplies) {
+            return pendingReplies.size();
+        }
+    }
+
+    /**
+     * Starts a reply reader. If the transport can deliver replies as they
+     * arrive (see {@link Transport#setFrameListener}), no thread is used for
+     * the session; otherwise the read loop runs on a new daemon thread.
+     *
+     * @see #startReplyReader(Executor)
+     */
+    public void startReplyReader() throws JNCException {
+        markReplyReaderRunning();
+        if (in.setFrameListener(new ReplyListener())) {
+            return;
+        }
+        startReadLoop(task -> {
+            final Thread thread = new Thread(task, "jnc-reply-reader-"
+                    + sessionId);
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * Starts reading the session in a single loop run by the given executor.
+     * The loop completes the futures returned by the <code>*Async</code>
+     * methods as the replies arrive, so no caller thread has to wait for a
+     * reply, and queues notifications for {@link #receiveNotification()}.
+     * <p>
+     * The loop runs until the transport fails or is closed; the futures of
+     * requests that are still outstanding then complete exceptionally.
+     * Messages that cannot be parsed or matched to a request are traced and
+     * skipped. While the reader runs, the raw {@link #rpc(String)},
+     * {@link #rpc(Element)} and {@link #readReply()} methods must not be
+     * used.
+     *
+     * @param executor Runs the read loop, which occupies a thread for the
+     *            lifetime of the session
+     * @throws JNCException If a reply reader is already running
+     */
+    public void startReplyReader(Executor executor) throws JNCException {
+        markReplyReaderRunning();
+        startReadLoop(executor);
+    }
+
+    private void markReplyReaderRunning() throws JNCException {
+        synchronized (replyLock) {
+            synchronized (pendingReplies) {
+                if (replyReaderRunning) {
+                    throw new JNCException(JNCException.SESSION_ERROR,
+                            "reply reader already running");
+                }
+                replyReaderRunning = true;
+            }
+        }
+        notifications.remove(READER_STOPPED);
+    }
+
+    private void startReadLoop(Executor executor) {
+        try {
+            executor.execute(this::readReplies);
+        } catch (final RuntimeException e) {
+            replyReaderStopped(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if a reply reader is running.
+     */
+    public boolean isReplyReaderRunning() {
+        return replyReaderRunning;
+    }
+
+    private void readReplies() {
+        Throwable failure = null;
+        try {
+            while (true) {
+                try {
+                    dispatchMessage(readReplyTree(parser));
+                } catch (final JNCException e) {
+                    trace("reply reader: %s", e);
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            failure = e;
+        } finally {
+            replyReaderStopped(failure);
+        }
+    }
+
+    private void replyReaderStopped(Throwable failure) {
+        synchronized (pendingReplies) {
+            replyReaderRunning = false;
+            notifications.add(READER_STOPPED);
+            failPendingReplies(failure != null ? failure
+                    : new IOException("reply reader stopped"));
+        }
+    }
+
+    /**
+     * Reply reader for transports that deliver the replies as they arrive.
+     */
+    private class ReplyListener implements FrameListener {
+        @Override
+        public void frameReceived(ByteBuffer frame) {
+            try {
+                if (tracing()) {
+                    trace("reply= %s", StandardCharsets.UTF_8.decode(
+                            frame.duplicate()));
+                }
+                final int offset = frame.arrayOffset() + frame.position();
+                if (parser.isLazy()) {
+                    // the frame buffer is reused, the tree keeps a copy
+                    dispatchMessage(parser.parse(Arrays.copyOfRange(
+                            frame.array(), offset, offset + frame.remaining())));
+                    return;
+                }
+                final InputStream reply = new ByteArrayInputStream(
+                        frame.array(), offset, frame.remaining());
+                dispatchMessage(parser.parse(new InputSource(reply)));
+            } catch (final JNCException e) {
+                trace("reply reader: %s", e);
+            }
+        }
+
+        @Override
+        public void closed(IOException cause) {
+            replyReaderStopped(cause);
+        }
+    }
+
     /* Extending the session with new capabilities. */
 
     private List<String> proprietaryClientCaps;
@@ -1715,6 +2571,14 @@ public class NetconfSession {
         }
     }
 
+    /**
+     * Tells whether tracing is enabled; used to avoid formatting large
+     * trees for the trace when it is not.
+     */
+    private static boolean tracing() {
+        return Element.debugLevel >= Element.DEBUG_LEVEL_SESSION;
+    }
+
     /**
      * Printout trace if 'debug'-flag is enabled.
      */
@@ -1748,13 +2612,27 @@ public class NetconfSession {
 
     class RPCRequest
     {
-        final int msgId;
+        /**
+         * The message-id, assigned when the request is sent, 0 until then.
+         */
+        private int msgId;
+        /**
+         * The text of the rpc start tag up to the value of its message-id
+         * attribute, which is written when the request is sent.
+         */
+        private String rpcHead;
         @SuppressWarnings("PMD.AvoidStringBufferField")
         StringBuilder message;
+        /**
+         * Element trees that are encoded straight into the transport when
+         * the request is sent, each preceded by the message text collected
+         * before it was added.
+         */
+        private List<String> textBeforeTrees;
+        private List<NodeSet> trees;
 
         RPCRequest()
         {
-            msgId = message_id++ ;
             message = new StringBuilder(64); // few extra bytes to save a few re-inits
         }
 
@@ -1763,11 +2641,57 @@ public class NetconfSession {
             return msgId;
         }
 
+        /**
+         * Takes the next message-id of the session for this request. Called
+         * with the send lock held.
+         */
+        int assignMsgId()
+        {
+            msgId = message_id++;
+            return msgId;
+        }
+
         public StringBuilder getMessage()
         {
             return message;
         }
 
+        /**
+         * Adds element trees to the message. The trees are not encoded now,
+         * but only when the request is sent.
+         */
+        void addTrees(NodeSet configTrees)
+        {
+            if (trees == null) {
+                textBeforeTrees = new ArrayList<String>();
+                trees = new ArrayList<NodeSet>();
+            }
+            textBeforeTrees.add(message.toString());
+            trees.add(configTrees);
+            message = new StringBuilder(64);
+        }
+
+        /**
+         * Sends the request with its assigned message-id. Element trees are
+         * encoded directly into the transport, so they are on the wire while
+         * being encoded. Called with the send lock held.
+         */
+        void send(Transport out) throws JNCException, IOException
+        {
+            if (rpcHead != null) {
+                out.print(rpcHead);
+                out.print(msgId);
+            }
+            if (trees != null) {
+                for (int i = 0; i < trees.size(); i++) {
+                    out.print(textBeforeTrees.get(i));
+                    trees.get(i).encode(out, null);
+                }
+            }
+            out.print(message.toString());
+            out.flush();
+        }
+
         void addRpcBegin(Attribute attr)
         {
             final String prefix = Element.defaultPrefixes
@@ -1776,13 +2700,12 @@ public class NetconfSession {
             final String xmlnsAttr = mkXmlnsAttr(prefix,
                     Element.NETCONF_NAMESPACE);
 
-            StringBuilder rpcBegin  = new StringBuilder("<" + nc + "rpc " + xmlnsAttr + " " +
-                    nc + "message-id=\"" + msgId + "\"");
+            rpcHead = "<" + nc + "rpc " + xmlnsAttr + " " + nc + "message-id=\"";
+            message.append('"');
             if (attr != null) {
-                rpcBegin.append(' ').append(attr.toXMLString(null));
+                message.append(' ').append(attr.toXMLString(null));
             }
-            rpcBegin.append('>');
-            message.append(rpcBegin.toString());
+            message.append('>');
         }
 
         void addRpcEnd()
@@ -1986,8 +2909,8 @@ public class NetconfSession {
         rpcMsg.encodeDefaultOperation();
         rpcMsg.encodeTestOption();
         rpcMsg.encodeErrorOption();
-        rpcMsg.getMessage().append("\n<" + nc + CONFIG_GT);
-        rpcMsg.getMessage().append("\n" + configTrees.encodedXMLString());
+        rpcMsg.getMessage().append("\n<" + nc + CONFIG_GT + "\n");
+        rpcMsg.addTrees(configTrees);
         rpcMsg.getMessage().append("\n</" + nc + CONFIG_GT);
         rpcMsg.getMessage().append("\n</" + nc + EDIT_CONFIG_GT);
 
@@ -2024,8 +2947,8 @@ public class NetconfSession {
         rpcMsg.getMessage().append("\n" + target);
         rpcMsg.getMessage().append("\n</" + nc + TARGET_GT);
         rpcMsg.getMessage().append("\n<" + nc + SOURCE_GT);
-        rpcMsg.getMessage().append("\n<" + nc + CONFIG_GT);
-        rpcMsg.getMessage().append("\n" + sourceTrees.encodedXMLString());
+        rpcMsg.getMessage().append("\n<" + nc + CONFIG_GT + "\n");
+        rpcMsg.addTrees(sourceTrees);
         rpcMsg.getMessage().append("\n</" + nc + CONFIG_GT);
         rpcMsg.getMessage().append("\n</" + nc + SOURCE_GT);
         rpcMsg.getMessage().append("\n</" + nc + COPY_CONFIG_GT);
@@ -2214,8 +3137,8 @@ public class NetconfSession {
 
         rpcMsg.getMessage().append("\n<" + nc + VALIDATE_GT);
         rpcMsg.getMessage().append("\n<" + nc + SOURCE_GT);
-        rpcMsg.getMessage().append("\n<" + nc + CONFIG_GT);
-        rpcMsg.getMessage().append("\n" + configTree.encodedXMLString(false));
+        rpcMsg.getMessage().append("\n<" + nc + CONFIG_GT + "\n");
+        rpcMsg.addTrees(new NodeSet(configTree));
         rpcMsg.getMessage().append("\n</" + nc + CONFIG_GT);
         rpcMsg.getMessage().append("\n</" + nc + SOURCE_GT);
         rpcMsg.getMessage().append("\n</" + nc + VALIDATE_GT);
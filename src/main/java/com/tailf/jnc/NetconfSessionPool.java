@@ -0,0 +1,523 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of NETCONF sessions towards one {@link Device}.
+ * <p>
+ * All sessions of the pool are channels multiplexed over the SSH connection
+ * of the device, so once the pool is warm, borrowing a session costs neither
+ * a TCP connect nor an SSH key exchange. The connection is opened (and
+ * reopened if it has been lost) with the {@link DeviceUser} of the given
+ * local user name.
+ * <p>
+ * A background keep-alive sends a cheap <code>get</code> with an empty
+ * filter on every idle session. Sessions that fail it are closed, sessions
+ * that have been idle for too long are closed as long as more than the
+ * minimum number of idle sessions remain, and the pool is filled up again to
+ * the minimum. The timer of the keep-alive is shared by all pools, and the
+ * pings and reconnects run on a shared pool of threads, whose size is given
+ * by the system property <code>com.tailf.jnc.keepAliveThreads</code>
+ * (default 4); a pool runs one keep-alive at a time.
+ *
+ * <pre>
+ * NetconfSessionPool pool = new NetconfSessionPool(dev, &quot;joe&quot;)
+ *     .setMinIdle(2)
+ *     .setMaxSessions(8);
+ * pool.start();
+ * NetconfSession session = pool.borrow();
+ * try {
+ *     session.editConfig(someConfigTree);
+ *     pool.release(session);
+ * } catch (IOException e) {
+ *     pool.invalidate(session);
+ * }
+ * </pre>
+ */
+public class NetconfSessionPool implements AutoCloseable {
+
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    /* only schedules the keep-alives, which run on keepAliveWorkers */
+    private static final ScheduledThreadPoolExecutor keepAliveTimer = createTimer();
+    private static final ThreadPoolExecutor keepAliveWorkers = createWorkers();
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        final ScheduledThreadPoolExecutor t = new ScheduledThreadPoolExecutor(1,
+                task -> {
+                    final Thread thread = new Thread(task, "jnc-pool-keep-alive-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        t.setRemoveOnCancelPolicy(true);
+        return t;
+    }
+
+    private static ThreadPoolExecutor createWorkers() {
+        final int size = Math.max(1,
+                Integer.getInteger("com.tailf.jnc.keepAliveThreads", 4));
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor w = new ThreadPoolExecutor(size, size,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                task -> {
+                    final Thread thread = new Thread(task,
+                            "jnc-pool-keep-alive-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        w.allowCoreThreadTimeOut(true);
+        return w;
+    }
+
+    /**
+     * An idle session and the time it was last released.
+     */
+    private static class IdleSession {
+        final NetconfSession session;
+        final long since;
+
+        IdleSession(NetconfSession session, long since) {
+            this.session = session;
+            this.since = since;
+        }
+    }
+
+    private final Device device;
+    private final String localUser;
+
+    private int minIdle;
+    private int maxSessions = 8;
+    private long maxIdleTime = 300000;
+    private long keepAliveInterval = 60000;
+    private int connectTimeout;
+    private String knownHostsFile = "~/.ssh/known_hosts";
+
+    /* most recently released first */
+    private final Deque<IdleSession> idle = new ArrayDeque<IdleSession>();
+    private final Map<NetconfSession, Boolean> borrowed =
+        new IdentityHashMap<NetconfSession, Boolean>();
+    /* sessions being opened or checked by the keep-alive */
+    private int pending;
+    private boolean closed;
+    private ScheduledFuture<?> keepAlive;
+    /* set while a keep-alive of this pool is queued or running */
+    private final AtomicBoolean keepAliveBusy = new AtomicBoolean();
+
+    /**
+     * Creates a pool for a device. No session is opened until the pool is
+     * started or a session is borrowed.
+     *
+     * @param device The device, connected or not
+     * @param localUser The local user name of the {@link DeviceUser} used
+     *            to connect
+     */
+    public NetconfSessionPool(Device device, String localUser) {
+        this.device = device;
+        this.localUser = localUser;
+    }
+
+    /**
+     * Sets the number of idle sessions the pool keeps open, default 0.
+     */
+    public NetconfSessionPool setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of sessions, idle and borrowed, default 8.
+     */
+    public NetconfSessionPool setMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+        return this;
+    }
+
+    /**
+     * Sets the time in milliseconds after which an idle session above the
+     * minimum is closed, default five minutes.
+     */
+    public NetconfSessionPool setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+        return this;
+    }
+
+    /**
+     * Sets the interval in milliseconds of the keep-alive, default one
+     * minute; 0 disables it. Takes effect when the pool is started.
+     */
+    public NetconfSessionPool setKeepAliveInterval(long keepAliveInterval) {
+        this.keepAliveInterval = keepAliveInterval;
+        return this;
+    }
+
+    /**
+     * Sets the timeout in milliseconds for connecting to the device.
+     */
+    public NetconfSessionPool setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * Sets the known hosts file used to check the key of the device, or
+     * <code>null</code> not to check it. Defaults to the standard
+     * known_hosts file.
+     */
+    public NetconfSessionPool setKnownHostsFile(String knownHostsFile) {
+        this.knownHostsFile = knownHostsFile;
+        return this;
+    }
+
+    /**
+     * Opens the minimum number of idle sessions and starts the keep-alive.
+     */
+    public void start() throws IOException, JNCException {
+        prewarm();
+        synchronized (this) {
+            if (keepAliveInterval > 0 && keepAlive == null && !closed) {
+                keepAlive = keepAliveTimer.scheduleWithFixedDelay(
+                        this::submitKeepAlive, keepAliveInterval,
+                        keepAliveInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Borrows a session, waiting as long as it takes for one to be
+     * released if the pool is exhausted.
+     */
+    public NetconfSession borrow() throws IOException, JNCException {
+        return borrow(0);
+    }
+
+    /**
+     * Borrows a session. An idle session is reused if there is one,
+     * otherwise a new one is opened unless the pool is exhausted.
+     *
+     * @param timeout Milliseconds to wait for a session to be released if
+     *            the pool is exhausted, 0 to wait forever
+     * @throws JNCException TIMEOUT_ERROR if no session became available
+     */
+    public NetconfSession borrow(long timeout) throws IOException,
+            JNCException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        synchronized (this) {
+            while (true) {
+                checkOpen();
+                final IdleSession i = idle.pollFirst();
+                if (i != null) {
+                    if (isUsable(i.session)) {
+                        borrowed.put(i.session, Boolean.TRUE);
+                        return i.session;
+                    }
+                    discard(i.session, false);
+                    continue;
+                }
+                if (size() < maxSessions) {
+                    pending++;
+                    break;
+                }
+                long wait = 0;
+                if (timeout > 0) {
+                    wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new JNCException(JNCException.TIMEOUT_ERROR,
+                                "no session available");
+                    }
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new JNCException(JNCException.TIMEOUT_ERROR, e);
+                }
+            }
+        }
+        NetconfSession session = null;
+        try {
+            session = openSession();
+            return session;
+        } finally {
+            synchronized (this) {
+                pending--;
+                if (session != null) {
+                    borrowed.put(session, Boolean.TRUE);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns a borrowed session to the pool. The session must not have any
+     * outstanding requests.
+     */
+    public void release(NetconfSession session) {
+        synchronized (this) {
+            if (borrowed.remove(session) == null) {
+                throw new IllegalArgumentException("session not borrowed");
+            }
+            if (!closed) {
+                idle.addFirst(new IdleSession(session,
+                        System.currentTimeMillis()));
+                notifyAll();
+                return;
+            }
+        }
+        discard(session, true);
+    }
+
+    /**
+     * Closes a borrowed session that is broken, instead of returning it to
+     * the pool. The keep-alive opens a new one if needed.
+     */
+    public void invalidate(NetconfSession session) {
+        synchronized (this) {
+            if (borrowed.remove(session) == null) {
+                throw new IllegalArgumentException("session not borrowed");
+            }
+            notifyAll();
+        }
+        discard(session, false);
+    }
+
+    /**
+     * Returns the number of idle sessions.
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Returns the number of borrowed sessions.
+     */
+    public synchronized int getBorrowedCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * Closes all idle sessions and stops the keep-alive; borrowed sessions
+     * are closed when they are released. The SSH connection of the device
+     * is left open.
+     */
+    @Override
+    public void close() {
+        final List<IdleSession> sessions;
+        synchronized (this) {
+            closed = true;
+            if (keepAlive != null) {
+                keepAlive.cancel(false);
+                keepAlive = null;
+            }
+            sessions = new ArrayList<IdleSession>(idle);
+            idle.clear();
+            notifyAll();
+        }
+        for (final IdleSession i : sessions) {
+            discard(i.session, true);
+        }
+    }
+
+    /**
+     * Opens sessions until the minimum number of sessions is idle.
+     */
+    void prewarm() throws IOException, JNCException {
+        while (true) {
+            synchronized (this) {
+                checkOpen();
+                if (idle.size() + pending >= minIdle
+                        || size() >= maxSessions) {
+                    return;
+                }
+                pending++;
+            }
+            NetconfSession session = null;
+            try {
+                session = openSession();
+            } finally {
+                synchronized (this) {
+                    pending--;
+                    if (session != null) {
+                        idle.addLast(new IdleSession(session,
+                                System.currentTimeMillis()));
+                    }
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the idle sessions, evicting the broken ones and those idle for
+     * too long, then fills the pool up to the minimum again.
+     */
+    void keepAlive() throws IOException, JNCException {
+        final List<IdleSession> sessions;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            sessions = new ArrayList<IdleSession>(idle);
+            idle.clear();
+            pending += sessions.size();
+        }
+        final long now = System.currentTimeMillis();
+        int kept = 0;
+        for (final IdleSession i : sessions) {
+            final boolean keep;
+            if (kept >= minIdle && now - i.since > maxIdleTime) {
+                log.debug("closing idle session {}", i.session.sessionId);
+                discard(i.session, true);
+                keep = false;
+            } else {
+                keep = ping(i.session);
+            }
+            boolean closing = false;
+            synchronized (this) {
+                pending--;
+                if (keep && closed) {
+                    closing = true;
+                } else if (keep) {
+                    idle.addLast(i);
+                    kept++;
+                }
+                notifyAll();
+            }
+            if (closing) {
+                discard(i.session, true);
+            }
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        prewarm();
+    }
+
+    /**
+     * Runs on the timer thread: hands the keep-alive to the workers, unless
+     * the previous one has not finished yet.
+     */
+    private void submitKeepAlive() {
+        if (keepAliveBusy.compareAndSet(false, true)) {
+            keepAliveWorkers.execute(() -> {
+                try {
+                    runKeepAlive();
+                } finally {
+                    keepAliveBusy.set(false);
+                }
+            });
+        }
+    }
+
+    private void runKeepAlive() {
+        try {
+            keepAlive();
+        } catch (IOException | JNCException e) {
+            log.warn("keep-alive of {} failed: {}", device.name, e.toString());
+        } catch (RuntimeException e) {
+            log.error("keep-alive of " + device.name + " failed", e);
+        }
+    }
+
+    /**
+     * Sends a <code>get</code> with an empty filter on the session; closes
+     * it and returns false if that fails.
+     */
+    private boolean ping(NetconfSession session) {
+        try {
+            session.get((Element) null);
+            return true;
+        } catch (IOException | JNCException e) {
+            log.debug("keep-alive of session {} failed: {}", session.sessionId,
+                      e.toString());
+            discard(session, false);
+            return false;
+        }
+    }
+
+    /**
+     * Opens a new session. By default a new SSH channel on the connection
+     * of the device; the connection is (re)opened if needed.
+     */
+    protected NetconfSession openSession() throws IOException, JNCException {
+        SSHConnection con;
+        synchronized (device) {
+            if (device.con == null || !device.con.isConnected()) {
+                if (device.con != null) {
+                    device.con.close();
+                    device.con = null;
+                }
+                device.connect(localUser, connectTimeout, knownHostsFile);
+            }
+            con = device.con;
+        }
+        final SSHSession ssh = new SSHSession(con, device.defaultReadTimeout);
+        try {
+            return new NetconfSession(ssh, new YangXMLParser());
+        } catch (IOException | JNCException e) {
+            ssh.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns false if the session is known to be broken without talking
+     * to the device; called before an idle session is borrowed.
+     */
+    protected boolean isUsable(NetconfSession session) {
+        final Transport transport = session.getTransport();
+        if (transport instanceof SSHSession) {
+            final SSHSession ssh = (SSHSession) transport;
+            try {
+                return ssh.getSession().isOpen() && !ssh.serverSideClosed();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes a session that has left the pool.
+     *
+     * @param graceful If true, a close-session is sent first
+     */
+    private void discard(NetconfSession session, boolean graceful) {
+        if (graceful) {
+            try {
+                session.closeSession();
+            } catch (IOException | JNCException e) {
+                log.debug("close-session failed: {}", e.toString());
+            }
+        }
+        session.getTransport().close();
+    }
+
+    private int size() {
+        return idle.size() + borrowed.size() + pending;
+    }
+
+    private void checkOpen() throws JNCException {
+        if (closed) {
+            throw new JNCException(JNCException.SESSION_ERROR, "pool closed");
+        }
+    }
+}
@@ -25,6 +25,31 @@ public class NodeSet extends ArrayList<Element> {
         super();
     }
 
+    /**
+     * Construct a new empty NodeSet with room for the given number of
+     * elements.
+     */
+    public NodeSet(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    /**
+     * Replaces an element. Counts as a modification of the set, unlike with
+     * ArrayList, so that indexes of the set notice it.
+     */
+    @Override
+    public Element set(int index, Element element) {
+        modCount++;
+        return super.set(index, element);
+    }
+
+    /**
+     * The number of structural modifications made to the set.
+     */
+    int modCount() {
+        return modCount;
+    }
+
     /**
      * Gets an element from the node set.
      */
@@ -40,8 +65,9 @@ public class NodeSet extends ArrayList<Element> {
      */
     public NodeSet get(String pathStr) throws JNCException {
         final NodeSet result = new NodeSet();
+        final Path path = Path.compile(pathStr);
         for (Element e : this) {
-            final NodeSet r = e.get(pathStr);
+            final NodeSet r = path.eval(e);
             if (r != null && r.size() > 0) {
                 result.addAll(r);
             }
@@ -56,9 +82,10 @@ public class NodeSet extends ArrayList<Element> {
      * @param pathStr Path string to find an element within the nodes
      */
     public Element getFirst(String pathStr) throws JNCException {
+        final Path path = Path.compile(pathStr);
         for (int i = 0; i < size(); i++) {
             final Element e = getElement(i);
-            final Element r = e.getFirst(pathStr);
+            final Element r = path.evalFirst(e);
             if (r != null) {
                 return r;
             }
@@ -2,7 +2,10 @@ package com.tailf.jnc;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A path expression. This is a small subset of the W3C recommendations of
@@ -18,6 +21,10 @@ import java.util.List;
  * Path expr = new Path(&quot;/hosts/host[name='kalle']/ip&quot;);
  * NodeSet s = path.eval(element_tree);
  * </pre>
+ * <p>
+ * A Path is immutable once parsed. {@link #compile(String)} returns shared
+ * instances from a bounded cache, which is what the path methods of
+ * {@link Element} and {@link NodeSet} use.
  *
  **/
 
@@ -27,16 +34,74 @@ public class Path {
      * Constructor for a Path from a path expression string.
      */
     public Path(String pathStr) throws JNCException {
-        create = false;
+        this(pathStr, false);
+    }
+
+    /**
+     * Constructor for a 'path' or a 'create path' expression.
+     */
+    Path(String pathStr, boolean create) throws JNCException {
+        this.create = create;
         this.pathStr = pathStr;
-        locationSteps = parse(tokenize(pathStr));
+        final List<LocationStep> steps = parse(tokenize(pathStr));
+        locationSteps = Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * Returns the compiled Path of a path expression string, from a cache of
+     * the most recently used ones. A Path is not changed by evaluating it, so
+     * the same instance can be shared by all threads.
+     *
+     * @param pathStr Path expression string
+     * @return A compiled Path
+     * @throws JNCException If the path expression is not valid
+     */
+    public static Path compile(String pathStr) throws JNCException {
+        final Path path = cache.get(pathStr);
+        if (path != null) {
+            return path;
+        }
+        return cache.put(new Path(pathStr));
     }
 
     /**
-     * Dummy constructor
+     * Sets the maximum number of compiled paths kept by {@link #compile}.
+     * Zero turns the cache off. The default is 1024.
+     *
+     * @param size Maximum number of cached paths
      */
-    Path() {
-        // Intentionally empty.
+    public static void setCacheSize(int size) {
+        cache.setCapacity(Math.max(size, 0));
+    }
+
+    /**
+     * @return The maximum number of compiled paths kept by {@link #compile}
+     */
+    public static int getCacheSize() {
+        return cache.getCapacity();
+    }
+
+    /**
+     * @return The number of calls to {@link #compile} that found the path
+     *         in the cache
+     */
+    public static long getCacheHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * @return The number of calls to {@link #compile} that had to parse the
+     *         path
+     */
+    public static long getCacheMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * Returns the original path expression string.
+     */
+    public String getPathStr() {
+        return pathStr;
     }
 
     /**
@@ -58,6 +123,24 @@ public class Path {
         return nodeSet;
     }
 
+    /**
+     * Evaluates the Path given a contextNode and returns the first node of
+     * the NodeSet that {@link #eval(Element)} would return, or null.
+     * <p>
+     * Nodes are selected depth first, without building the NodeSet of each
+     * location step, and the search stops at the first node found.
+     *
+     * @param contextNode The context node to evaluate expressions on
+     * @return The first selected element, or null
+     */
+    public Element evalFirst(Element contextNode) throws JNCException {
+        trace("evalFirst(): %s", this);
+        if (locationSteps.isEmpty()) {
+            return contextNode;
+        }
+        return locationSteps.get(0).first(contextNode, locationSteps, 1);
+    }
+
     /**
      * Evaluate the Path given a NodeSet.
      * <p>
@@ -91,20 +174,25 @@ public class Path {
     static final int AXIS_PARENT = 3;
     static final int AXIS_ROOT = 4;
 
+    /**
+     * Compiled paths by path string.
+     */
+    private static final PathCache cache = new PathCache(1024);
+
     /**
      * Flag says if it's a 'path' or a 'create path' expression.
      */
-    boolean create;
+    final boolean create;
 
     /**
-     * The list of location steps (LocationStep).
+     * The list of location steps (LocationStep), not modifiable.
      */
-    List<LocationStep> locationSteps;
+    final List<LocationStep> locationSteps;
 
     /**
      * The original path string.
      */
-    String pathStr;
+    final String pathStr;
 
     /**
      * Location step.
@@ -123,24 +211,28 @@ public class Path {
      */
     static class LocationStep {
 
-        int axis;
-        String name;
-        String prefix;
-        List<Expr> predicates; // list of Expr (Predicates)
+        private final int axis;
+        private final String name;
+        private final String prefix;
+        private final List<Expr> predicates; // list of Expr (Predicates)
 
-        LocationStep(int axis) {
-            this.axis = axis;
-        }
+        /* The values of the key leafs given by the leading [key='value']
+           predicates, and the number of such predicates; see keyValues() */
+        private final Map<String, String> keyValues;
+        private final int keyPredicates;
 
-        LocationStep(int axis, String name) {
-            this.axis = axis;
-            this.name = name;
+        LocationStep(int axis) {
+            this(axis, null, null, null);
         }
 
-        LocationStep(int axis, String prefix, String name) {
+        LocationStep(int axis, String prefix, String name,
+                List<Expr> predicates) {
             this.axis = axis;
             this.prefix = prefix;
             this.name = name;
+            this.predicates = predicates;
+            keyValues = keyValues(axis, predicates);
+            keyPredicates = keyValues == null ? 0 : keyValues.size();
         }
 
         /**
@@ -153,8 +245,14 @@ public class Path {
                 /** select axis */
                 switch (axis) {
                 case AXIS_CHILD:
-                    if (node.children != null) {
-                        result.addAll(nodeTest(node.children));
+                    final NodeSet entries = keyLookup(node);
+                    if (entries != null) {
+                        result.addAll(nodeTest(entries, keyPredicates));
+                        break;
+                    }
+                    final NodeSet children = node.getChildren();
+                    if (children != null) {
+                        result.addAll(nodeTest(children));
                     }
                     break;
                 case AXIS_PARENT:
@@ -173,29 +271,133 @@ public class Path {
             return result;
         }
 
+        /**
+         * Finds the first node selected from node by this step and then by
+         * steps from next on, in the order of {@link Path#eval(Element)}.
+         */
+        Element first(Element node, List<LocationStep> steps, int next)
+                throws JNCException {
+            NodeSet candidates;
+            int from = 0;
+            switch (axis) {
+            case AXIS_CHILD:
+                candidates = keyLookup(node);
+                if (candidates != null) {
+                    from = keyPredicates;
+                } else {
+                    candidates = node.getChildren();
+                }
+                break;
+            case AXIS_PARENT:
+                candidates = node.parent == null ? null
+                        : new NodeSet(node.parent);
+                break;
+            case AXIS_SELF:
+                candidates = new NodeSet(node);
+                break;
+            default:
+                candidates = null;
+                break;
+            }
+            if (candidates == null) {
+                return null;
+            }
+            // predicates see all candidates, so only those left without
+            // predicates can be tested one at a time
+            final boolean filter = predicates != null
+                    && from < predicates.size();
+            if (filter) {
+                candidates = nodeTest(candidates, from);
+            }
+            for (int i = 0; i < candidates.size(); i++) {
+                final Element c = candidates.getElement(i);
+                if (filter || nameTest(c)) {
+                    final Element found = next == steps.size() ? c
+                            : steps.get(next).first(c, steps, next + 1);
+                    if (found != null) {
+                        return found;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Looks up the candidates of a child step with key predicates in the
+         * index of the children of node. Returns null if they have to be
+         * found by testing all children.
+         */
+        private NodeSet keyLookup(Element node) {
+            if (keyValues == null) {
+                return null;
+            }
+            return node.getEntries(name, keyValues);
+        }
+
+        /**
+         * Picks out the leading predicates of the form [leaf='value'] with
+         * distinct leafs. If the step is a list, and the leafs are its keys,
+         * the entries they select can be looked up by key.
+         */
+        private static Map<String, String> keyValues(int axis,
+                List<Expr> predicates) {
+            if (axis != AXIS_CHILD || predicates == null) {
+                return null;
+            }
+            final Map<String, String> values = new HashMap<String, String>();
+            int n = 0;
+            for (final Expr p : predicates) {
+                if (p.op != EQ || !(p.rvalue instanceof String)
+                        || !(p.lvalue instanceof Expr)) {
+                    break;
+                }
+                final Expr l = (Expr) p.lvalue;
+                if (l.op != CHILD_VALUE || !(l.lvalue instanceof String)
+                        || values.containsKey(l.lvalue)) {
+                    break;
+                }
+                values.put((String) l.lvalue, (String) p.rvalue);
+                n++;
+            }
+            return n > 0 ? values : null;
+        }
+
+        /**
+         * The NameTest: the name, and the namespace if a prefix is given.
+         */
+        private boolean nameTest(Element node) {
+            if (!node.name.equals(name)) {
+                return false;
+            }
+            if (prefix != null) {
+                return node.namespace.equals(node.lookupContextPrefix(prefix));
+            }
+            // skip namespace test when prefix is not given
+            return true;
+        }
+
         /**
          * perform nodeTest on nodeSet. (only NameTest) since all nodes are
          * simplified to be Elements
          */
         private NodeSet nodeTest(NodeSet nodeSet) throws JNCException {
+            return nodeTest(nodeSet, 0);
+        }
+
+        /**
+         * perform nodeTest on nodeSet, applying the predicates from index
+         * from on.
+         */
+        private NodeSet nodeTest(NodeSet nodeSet, int from)
+                throws JNCException {
             NodeSet result = new NodeSet();
             /**
              * A simple "NameTest" Filter away those with wrong name
              */
             for (int i = 0; i < nodeSet.size(); i++) {
                 final Element node = nodeSet.getElement(i);
-                if (node.name.equals(name)) {
-                    /* check namespace also, if prefix is given */
-                    String namespace;
-                    if (prefix != null) {
-                        namespace = node.lookupContextPrefix(prefix);
-                        if (node.namespace.equals(namespace)) {
-                            result.add(node);
-                        }
-                    } else {
-                        // skip namespace test when prefix is not given
-                        result.add(node);
-                    }
+                if (nameTest(node)) {
+                    result.add(node);
                 }
             }
             if (result.size() == 0) {
@@ -207,7 +409,7 @@ public class Path {
              * an argument we do not want to change it. */
             NodeSet contextSet;
             if (predicates != null) {
-                for (final Expr p : predicates) {
+                for (final Expr p : predicates.subList(from, predicates.size())) {
                     contextSet = result;
                     result = new NodeSet();
                     for (int j = 0; j < contextSet.size(); j++) {
@@ -323,14 +525,13 @@ public class Path {
      */
     class Expr {
 
-        int op; // See OP codes above
-        Object lvalue; // Expr|Boolean|String|Integer|NodeSet
-        Object rvalue; // Expr|Boolean|String|Integer|NodeSet
+        private final int op; // See OP codes above
+        private final Object lvalue; // Expr|Boolean|String|Integer|NodeSet
+        private final Object rvalue; // Expr|Boolean|String|Integer|NodeSet
 
         /** constructor */
         Expr(int op, Object lvalue) {
-            this.op = op;
-            this.lvalue = lvalue;
+            this(op, lvalue, null);
         }
 
         Expr(int op, Object lvalue, Object rvalue) {
@@ -762,7 +963,6 @@ public class Path {
             Token tok3;
             Token tok4;
             Token tok5;
-            LocationStep step;
 
             int sz = tokens.size();
             while (sz > 0) {
@@ -792,43 +992,37 @@ public class Path {
 
                 /* "/" (root) */
                 if (tok1.type == SLASH) {
-                    step = new LocationStep(AXIS_ROOT);
-                    steps.add(step);
+                    steps.add(new LocationStep(AXIS_ROOT));
                     tokens.remove(0);
                 }
                 /* AXIS::PREFIX:TAG */
                 else if (tok1.type == ATOM && tok2.type == COLONCOLON
                         && tok3.type == ATOM && tok4.type == COLON
                         && tok5.type == ATOM) {
-                    step = new LocationStep(parseAxis(tok1.value),
-                            tok3.value, tok5.value);
-                    steps.add(step);
                     tokens.removeRange(0, 5);
-                    parsePredicates(tokens, step);
+                    steps.add(new LocationStep(parseAxis(tok1.value),
+                            tok3.value, tok5.value,
+                            parsePredicates(tokens, null)));
                 }
                 /* AXIS::TAG */
                 else if (tok1.type == ATOM && tok2.type == COLONCOLON
                         && tok3.type == ATOM) {
-                    step = new LocationStep(parseAxis(tok1.value), tok3.value);
-                    steps.add(step);
                     tokens.removeRange(0, 3);
-                    parsePredicates(tokens, step);
+                    steps.add(new LocationStep(parseAxis(tok1.value), null,
+                            tok3.value, parsePredicates(tokens, null)));
                 }
                 /* PREFIX:TAG */
                 else if (tok1.type == ATOM && tok2.type == COLON
                         && tok3.type == ATOM) {
-                    step = new LocationStep(AXIS_CHILD, tok1.value,
-                            tok3.value);
-                    steps.add(step);
                     tokens.removeRange(0, 3);
-                    parsePredicates(tokens, step);
+                    steps.add(new LocationStep(AXIS_CHILD, tok1.value,
+                            tok3.value, parsePredicates(tokens, null)));
                 }
                 /* TAG */
                 else if (tok1.type == ATOM) {
-                    step = new LocationStep(AXIS_CHILD, tok1.value);
-                    steps.add(step);
                     tokens.remove(0);
-                    parsePredicates(tokens, step);
+                    steps.add(new LocationStep(AXIS_CHILD, null, tok1.value,
+                            parsePredicates(tokens, null)));
                 }
                 /* '//' (SLASHSLASH) */
                 else if (tok1.type == SLASHSLASH) {
@@ -871,9 +1065,10 @@ public class Path {
     }
 
     /**
-     * parse out predicates
+     * parse out predicates, adding them to the given list (or a new list if
+     * null). Returns the list, or null if there were no predicates.
      */
-    void parsePredicates(TokenList tokens, LocationStep step)
+    List<Expr> parsePredicates(TokenList tokens, List<Expr> predicates)
             throws JNCException {
         trace("parsePredicates(): %s", tokens);
         final int sz = tokens.size();
@@ -890,8 +1085,8 @@ public class Path {
                     throw (JNCException) new JNCException(JNCException.PATH_ERROR,
                             "unmatched '[' in expression").initCause(e);
                 }
-                if (step.predicates == null) {
-                    step.predicates = new ArrayList<Expr>();
+                if (predicates == null) {
+                    predicates = new ArrayList<Expr>();
                 }
                 /* search for sequence */
                 int start = 1;
@@ -900,20 +1095,21 @@ public class Path {
                     final Token tok2 = tokens.getToken(j + 1);
                     if (tok1.type == COMMA && tok2.type != COMMA) {
                         final Expr pred = parsePredicate(tokens, start, j);
-                        step.predicates.add(pred);
+                        predicates.add(pred);
                         start = j + 1;
                     }
                 }
                 final Expr pred = parsePredicate(tokens, start, i);
-                step.predicates.add(pred);
+                predicates.add(pred);
                 tokens.removeRange(0, i + 1);
-                parsePredicates(tokens, step);
+                return parsePredicates(tokens, predicates);
             } else if (tok1.type == SLASH) {
                 tokens.remove(0);
             } else if (tok1.type != SLASHSLASH) {
                 parseError(tokens);
             }
         }
+        return predicates;
     }
 
     /**
@@ -0,0 +1,87 @@
+package com.tailf.jnc;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of compiled {@link Path} objects by path string, that
+ * drops the least recently used path when full. Counts hits and misses.
+ * <p>
+ * All methods are synchronized; a lookup is a short map access, while the
+ * path is parsed outside the lock.
+ */
+final class PathCache {
+
+    private final LinkedHashMap<String, Path> paths =
+            new LinkedHashMap<String, Path>(16, 0.75f, true);
+
+    private int capacity;
+    private long hits;
+    private long misses;
+
+    PathCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the cached path for a path string and makes it the most
+     * recently used, or counts a miss and returns null.
+     */
+    synchronized Path get(String pathStr) {
+        final Path path = paths.get(pathStr);
+        if (path != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return path;
+    }
+
+    /**
+     * Adds a parsed path, unless another thread added the same path string
+     * first. Returns the cached path.
+     */
+    synchronized Path put(Path path) {
+        if (capacity == 0) {
+            return path;
+        }
+        final Path old = paths.get(path.pathStr);
+        if (old != null) {
+            return old;
+        }
+        paths.put(path.pathStr, path);
+        trim();
+        return path;
+    }
+
+    synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+        trim();
+    }
+
+    synchronized int getCapacity() {
+        return capacity;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized int size() {
+        return paths.size();
+    }
+
+    private void trim() {
+        final Iterator<Map.Entry<String, Path>> it =
+                paths.entrySet().iterator();
+        while (paths.size() > capacity && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
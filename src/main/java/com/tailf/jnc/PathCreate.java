@@ -25,8 +25,7 @@ public class PathCreate extends Path {
      * @param pathStr A "path create" string
      */
     public PathCreate(String pathStr) throws JNCException {
-        create = true;
-        locationSteps = parse(tokenize(pathStr));
+        super(pathStr, true);
     }
 
     /**
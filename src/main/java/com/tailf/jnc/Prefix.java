@@ -66,7 +66,7 @@ public class Prefix extends Attribute {
     void encode(Transport out) {
         out.print(qName);
         out.print("=\"");
-        out.print(value);
+        out.print(encodedValue());
         out.print("\"");
     }
 
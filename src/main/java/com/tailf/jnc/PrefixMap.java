@@ -11,6 +11,10 @@ public class PrefixMap extends ArrayList<Prefix> {
 
     private static final long serialVersionUID = 1L;
 
+    /* The number of prefixes replaced by set(int, Prefix), which is not a
+       structural change, see version() */
+    private transient int replaced;
+
     /**
      * Creates an empty prefix map object.
      */
@@ -88,6 +92,20 @@ public class PrefixMap extends ArrayList<Prefix> {
         }
     }
 
+    @Override
+    public Prefix set(int index, Prefix prefix) {
+        replaced++;
+        return super.set(index, prefix);
+    }
+
+    /**
+     * Returns a number that changes whenever prefixes are added, removed or
+     * replaced through the methods of this map.
+     */
+    int version() {
+        return modCount + replaced;
+    }
+
     /**
      * Removes a prefix mapping.
      * 
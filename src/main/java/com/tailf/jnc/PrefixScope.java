@@ -0,0 +1,165 @@
+package com.tailf.jnc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The prefix mappings in scope at an element: its own prefixes, those of
+ * its ancestors that it does not redefine, and the
+ * {@link Element#defaultPrefixes default prefixes}.
+ * <p>
+ * A scope is built from the default prefixes as they were at the time, and
+ * is replaced when they have been changed, see {@link #isCurrent()}.
+ * <p>
+ * A scope is immutable, apart from the qualified names it keeps encoded for
+ * {@link XMLEncoder}. Elements without prefixes of their own share the
+ * scope of their parent, and each scope resolves prefixes and namespaces
+ * with one hash lookup, the way the walks up the parent links of
+ * {@link Element#lookupContextPrefix(String)} and
+ * {@link Element#nsToPrefix(String)} did.
+ */
+final class PrefixScope {
+
+    /* The scope of a root element without prefixes, see defaults() */
+    private static volatile PrefixScope defaults =
+            new PrefixScope(null, Element.defaultPrefixes);
+
+    /* The version of Element.defaultPrefixes this scope was built from */
+    private final int defaultsVersion;
+
+    /* The mappings as merged by Element.getContextPrefixMap(): the inner
+       ones first, one per prefix name. Not modified. */
+    private final PrefixMap prefixMap;
+
+    private final Map<String, String> nsByPrefix;
+    private final Map<String, String> prefixByNs;
+
+    /**
+     * The most qualified names each scope keeps encoded.
+     */
+    static final int MAX_NAMES = 1024;
+
+    /* UTF-8 encoded qualified names by namespace and name, for XMLEncoder */
+    private final ConcurrentMap<String, ConcurrentMap<String, byte[]>> qNames =
+            new ConcurrentHashMap<String, ConcurrentMap<String, byte[]>>();
+    private volatile int names; // about the number kept, not exact
+
+    private PrefixScope(PrefixScope outer, PrefixMap own) {
+        defaultsVersion = outer == null ? Element.defaultPrefixes.version()
+                : outer.defaultsVersion;
+        prefixMap = new PrefixMap();
+        prefixMap.merge(own);
+        if (outer != null) {
+            prefixMap.merge(outer.prefixMap);
+        }
+        prefixMap.trimToSize();
+        nsByPrefix = new HashMap<String, String>();
+        for (final Prefix p : prefixMap) {
+            nsByPrefix.put(p.name, p.value);
+        }
+        // the innermost element with a mapping of a namespace gives its
+        // prefix, even if an element below maps that prefix to another one
+        prefixByNs = outer == null ? new HashMap<String, String>()
+                : new HashMap<String, String>(outer.prefixByNs);
+        final Map<String, String> inner = new HashMap<String, String>();
+        for (final Prefix p : own) {
+            if (!inner.containsKey(p.value)) {
+                inner.put(p.value, p.name);
+            }
+        }
+        prefixByNs.putAll(inner);
+    }
+
+    /**
+     * Returns the scope of a root element without prefixes, built anew if
+     * the default prefixes have been changed.
+     */
+    static PrefixScope defaults() {
+        PrefixScope s = defaults;
+        if (!s.isCurrent()) {
+            s = new PrefixScope(null, Element.defaultPrefixes);
+            defaults = s;
+        }
+        return s;
+    }
+
+    /**
+     * Returns false if the default prefixes have been changed since this
+     * scope was built.
+     */
+    boolean isCurrent() {
+        return defaultsVersion == Element.defaultPrefixes.version();
+    }
+
+    /**
+     * Returns the scope of an element with the given prefixes of its own
+     * inside this one.
+     */
+    PrefixScope with(PrefixMap own) {
+        if (own == null || own.isEmpty()) {
+            return this;
+        }
+        return new PrefixScope(this, own);
+    }
+
+    /**
+     * Returns the namespace a prefix is mapped to, or null.
+     */
+    String prefixToNs(String prefix) {
+        return nsByPrefix.get(prefix);
+    }
+
+    /**
+     * Returns the prefix of a namespace, or null.
+     */
+    String nsToPrefix(String ns) {
+        return prefixByNs.get(ns);
+    }
+
+    /**
+     * Returns the qualified name of an element, prefix:name or just name,
+     * encoded as UTF-8. The array must not be modified.
+     */
+    byte[] qualifiedName(String ns, String name) {
+        if (ns == null) {
+            return XMLEncoder.utf8(qualify(null, name));
+        }
+        ConcurrentMap<String, byte[]> byName = qNames.get(ns);
+        byte[] q = byName == null ? null : byName.get(name);
+        if (q != null) {
+            return q;
+        }
+        q = XMLEncoder.utf8(qualify(ns, name));
+        if (names < MAX_NAMES) {
+            if (byName == null) {
+                final ConcurrentMap<String, byte[]> m =
+                        new ConcurrentHashMap<String, byte[]>();
+                byName = qNames.putIfAbsent(ns, m);
+                if (byName == null) {
+                    byName = m;
+                }
+            }
+            if (byName.putIfAbsent(name, q) == null) {
+                names++;
+            }
+        }
+        return q;
+    }
+
+    private String qualify(String ns, String name) {
+        final String prefix = nsToPrefix(ns);
+        if (prefix == null || prefix.isEmpty()) {
+            return name;
+        }
+        return prefix + ":" + name;
+    }
+
+    /**
+     * Returns the merged prefix map, which must not be modified.
+     */
+    PrefixMap prefixMap() {
+        return prefixMap;
+    }
+}
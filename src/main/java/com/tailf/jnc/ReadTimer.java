@@ -0,0 +1,55 @@
+package com.tailf.jnc;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read deadlines of all sessions, kept by one shared timer thread instead of
+ * a watchdog thread per session. A transport registers a deadline when it
+ * starts to block in a read and cancels it when the read returns; if the
+ * read is still blocked when the deadline expires, the expiry action is run
+ * on the timer thread. The action should only wake the blocked reader (as
+ * {@link SSHSession} does by interrupting it) and leave closing the session
+ * to the reading thread, so the timer thread never blocks.
+ * <p>
+ * Cancelled deadlines are removed from the timer queue at once, so the queue
+ * only holds the reads that are currently blocked.
+ */
+final class ReadTimer {
+
+    private static final ScheduledThreadPoolExecutor timer = createTimer();
+
+    private ReadTimer() {
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        final ScheduledThreadPoolExecutor t = new ScheduledThreadPoolExecutor(1,
+                task -> {
+                    final Thread thread = new Thread(task, "jnc-read-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        t.setRemoveOnCancelPolicy(true);
+        t.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return t;
+    }
+
+    /**
+     * Registers a read deadline.
+     *
+     * @param timeout Time until the deadline, in milliseconds
+     * @param onExpiry Run if the deadline is not cancelled in time
+     * @return The deadline, to be cancelled when the read returns
+     */
+    static ScheduledFuture<?> schedule(long timeout, Runnable onExpiry) {
+        return timer.schedule(onExpiry, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the number of registered deadlines.
+     */
+    static int pending() {
+        return timer.getQueue().size();
+    }
+}
@@ -0,0 +1,293 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The outstanding reply of a pipelined NETCONF request. Requests can be sent
+ * with the <code>*Async</code> methods of {@link NetconfSession} without
+ * waiting for their replies, so many of them can be in flight on a single
+ * session; the replies are matched to their requests by
+ * <code>message-id</code>.
+ * <p>
+ * If a reply reader has been started with
+ * {@link NetconfSession#startReplyReader}, it completes the futures as the
+ * replies arrive, and dependent stages run on the reader thread, or on the
+ * executor set with {@link NetconfSession#setCompletionExecutor}. Otherwise
+ * replies are read from the session when a caller waits for one of them
+ * ({@link #await()}, {@link #get()} or {@link #join()}); replies to other
+ * outstanding requests that arrive first complete their own futures on the
+ * way. A caller waiting with a timeout ({@link #get(long, TimeUnit)}) has
+ * the replies read by a shared thread instead, so that it waits no longer
+ * than the timeout; the replies are still read after it has timed out.
+ * <p>
+ * Without a reply reader, the stages returned by the methods of a future,
+ * such as <code>thenApply</code>, read the replies of the stages they
+ * depend on when waited for (from Java 9 on), and so does {@link #allOf}. A future that
+ * depends on an RpcFuture in another way, for example through
+ * {@link CompletableFuture#allOf}, completes only once the replies are read
+ * by waiting for the RpcFuture or by a reply reader.
+ * <p>
+ * Example: read many subtrees at the cost of roughly one round trip
+ *
+ * <pre>
+ * List&lt;RpcFuture&lt;NodeSet&gt;&gt; replies = new ArrayList&lt;RpcFuture&lt;NodeSet&gt;&gt;();
+ * for (Element filter : filters) {
+ *     replies.add(session.getConfigAsync(NetconfSession.RUNNING, filter));
+ * }
+ * for (RpcFuture&lt;NodeSet&gt; reply : replies) {
+ *     NodeSet config = reply.await();
+ *     ...
+ * }
+ * </pre>
+ *
+ * @param <T> The type of the result, for example the {@link NodeSet} of the
+ *            <code>data</code> element of the reply
+ */
+public class RpcFuture<T> extends CompletableFuture<T> {
+
+    /**
+     * Converts a reply into the result of the request with the given
+     * message-id.
+     */
+    interface ReplyHandler<T> {
+        T handle(Element reply, String messageId) throws JNCException;
+    }
+
+    /**
+     * Reads the replies that callers of get(long, TimeUnit) wait for.
+     */
+    private static final ExecutorService replyWaiters =
+            Executors.newCachedThreadPool(task -> {
+                final Thread thread = new Thread(task, "jnc-reply-waiter");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final NetconfSession session;
+    private final String messageId;
+    private final ReplyHandler<T> handler;
+
+    RpcFuture(NetconfSession session, String messageId,
+              ReplyHandler<T> handler) {
+        this.session = session;
+        this.messageId = messageId;
+        this.handler = handler;
+    }
+
+    /**
+     * Returns the message-id of the request.
+     */
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * Completes the future with the result of the reply, or exceptionally
+     * if the reply is an error.
+     */
+    void completeReply(Element reply) {
+        try {
+            complete(handler.handle(reply, messageId));
+        } catch (final JNCException | RuntimeException e) {
+            completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Reads replies from the session until this one has arrived.
+     */
+    void readReply() throws JNCException, IOException {
+        if (!isDone()) {
+            session.awaitReply(this);
+        }
+    }
+
+    /**
+     * Returns a stage that reads the reply of this future when waited for.
+     * <p>
+     * Overrides the method by which CompletableFuture creates its dependent
+     * stages from Java 9 on; not annotated, so that it compiles for Java 8.
+     */
+    public <U> CompletableFuture<U> newIncompleteFuture() {
+        return new Stage<U>(this);
+    }
+
+    /**
+     * Returns a future that completes when all given futures have completed,
+     * as {@link CompletableFuture#allOf}, and that reads the replies of the
+     * RpcFutures among them when waited for.
+     *
+     * @param futures The futures to wait for
+     * @return A future completing when all of them have
+     */
+    public static CompletableFuture<Void> allOf(CompletableFuture<?>... futures) {
+        final Stage<Void> all = new Stage<Void>(futures.clone());
+        CompletableFuture.allOf(futures).whenComplete((v, e) -> {
+            if (e != null) {
+                all.completeExceptionally(e instanceof CompletionException
+                        ? e.getCause() : e);
+            } else {
+                all.complete(null);
+            }
+        });
+        return all;
+    }
+
+    /**
+     * Reads the replies of the futures a stage depends on, directly or
+     * through other stages.
+     */
+    static void readReplies(CompletableFuture<?>... sources)
+            throws JNCException, IOException {
+        for (final CompletableFuture<?> source : sources) {
+            if (source instanceof RpcFuture) {
+                ((RpcFuture<?>) source).readReply();
+            } else if (source instanceof Stage) {
+                readReplies(((Stage<?>) source).sources);
+            }
+        }
+    }
+
+    /**
+     * Reads the replies of the futures a stage depends on, as
+     * {@link #readReplies}, on a thread of the reply waiters; a failure to
+     * read them completes the waiting future. Does nothing if there is no
+     * reply to read, because the futures are done or have a reply reader.
+     */
+    static void readRepliesAsync(CompletableFuture<?> waiting,
+                                 CompletableFuture<?>... sources) {
+        if (waiting.isDone() || !needReading(sources)) {
+            return;
+        }
+        replyWaiters.execute(() -> {
+            try {
+                readReplies(sources);
+            } catch (JNCException | IOException | RuntimeException e) {
+                waiting.completeExceptionally(e);
+            }
+        });
+    }
+
+    private static boolean needReading(CompletableFuture<?>... sources) {
+        for (final CompletableFuture<?> source : sources) {
+            if (source instanceof RpcFuture) {
+                final RpcFuture<?> f = (RpcFuture<?>) source;
+                if (!f.isDone() && !f.session.isReplyReaderRunning()) {
+                    return true;
+                }
+            } else if (source instanceof Stage
+                    && needReading(((Stage<?>) source).sources)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A stage depending on RpcFutures, which reads their replies when waited
+     * for, before waiting itself.
+     */
+    static class Stage<T> extends CompletableFuture<T> {
+        final CompletableFuture<?>[] sources;
+
+        Stage(CompletableFuture<?>... sources) {
+            this.sources = sources;
+        }
+
+        public <U> CompletableFuture<U> newIncompleteFuture() {
+            return new Stage<U>(this);
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            try {
+                readReplies(sources);
+            } catch (JNCException | IOException e) {
+                throw new ExecutionException(e);
+            }
+            return super.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException,
+                ExecutionException, TimeoutException {
+            readRepliesAsync(this, sources);
+            return super.get(timeout, unit);
+        }
+
+        @Override
+        public T join() {
+            try {
+                readReplies(sources);
+            } catch (JNCException | IOException e) {
+                throw new CompletionException(e);
+            }
+            return super.join();
+        }
+    }
+
+    /**
+     * Waits for the reply and returns the result of the request.
+     *
+     * @return The result of the request
+     * @throws JNCException If the reply is an rpc-error, or cannot be parsed
+     * @throws IOException If the session fails while reading replies
+     */
+    public T await() throws JNCException, IOException {
+        readReply();
+        try {
+            return super.get();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof JNCException) {
+                throw (JNCException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new JNCException(JNCException.SESSION_ERROR, cause);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JNCException(JNCException.SESSION_ERROR, e);
+        }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        try {
+            readReply();
+        } catch (JNCException | IOException e) {
+            throw new ExecutionException(e);
+        }
+        return super.get();
+    }
+
+    /**
+     * As {@link #get()}, but waits no longer than the timeout. Unless a
+     * reply reader is running, the replies are read by a shared thread,
+     * which goes on reading them if the wait times out.
+     */
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException,
+            ExecutionException, TimeoutException {
+        readRepliesAsync(this, this);
+        return super.get(timeout, unit);
+    }
+
+    @Override
+    public T join() {
+        try {
+            readReply();
+        } catch (JNCException | IOException e) {
+            throw new CompletionException(e);
+        }
+        return super.join();
+    }
+}
@@ -197,6 +197,14 @@ public class SSHConnection implements AutoCloseable {
         }
     }
 
+    /**
+     * Returns true if the connection is up and authenticated, so that new
+     * sessions (channels) can be opened on it.
+     */
+    public boolean isConnected() {
+        return client.isConnected() && client.isAuthenticated();
+    }
+
     SSHClient getClient() {
         return client;
     }
@@ -6,13 +6,13 @@ import com.tailf.jnc.framing.Framer;
 import com.tailf.jnc.framing.Framing;
 
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ScheduledFuture;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -46,79 +46,84 @@ public class SSHSession implements Transport, AutoCloseable {
     private Session session;
     private Session.Subsystem subsys;
 
-    private InputWatchdog watchdog;
+    /**
+     * Deadline of the read in progress, <code>null</code> if no read is in
+     * progress or reads have no timeout.
+     */
+    private volatile ScheduledFuture<?> readDeadline;
+    /**
+     * Thread blocked in the read that has a deadline, and whether the
+     * deadline has interrupted it. Guarded by readLock.
+     */
+    private final Object readLock = new Object();
+    private Thread reader;
+    private boolean readInterrupted;
 
-    @SuppressWarnings("PMD.AvoidStringBufferField")
-    private StringBuilder message;
+    /**
+     * Encoder of the frame being sent, <code>null</code> if no frame is
+     * being sent.
+     */
+    private XMLEncoder message;
+    /**
+     * Failure of a print call, reported by the following flush.
+     */
+    private IOException printError;
     private final List<IOSubscriber> ioSubscribers;
     protected long readTimeout; // 0 millisecs by default
 
     private Framer framer;
+    private int chunkSize = 64 * 1024;
     private InputStream subsysInput;
     private OutputStream sessionOutput;
 
-    private interface InputWatchdog {
-        void start();
-        void watch();
-        void done();
-        void terminate();
-    }
-
-    private class DummyWatchdog implements InputWatchdog {
-        @Override
-        public void start() {
-            // intentionally empty
-        }
-        @Override
-        public void watch() {
-            // intentionally empty
-        }
-        @Override
-        public void done() {
-            // intentionally empty
-        }
-        @Override
-        public void terminate() {
-            // intentionally empty
+    /**
+     * Runs on the timer thread when a read has been blocked for longer than
+     * the read timeout. Closing the session may block, so the timer only
+     * interrupts the read, and the reading thread closes the session.
+     */
+    private void readTimedOut() {
+        synchronized (readLock) {
+            if (reader != null) {
+                readInterrupted = true;
+                reader.interrupt();
+            }
         }
     }
 
-    private class TimeoutWatchdog extends Thread implements InputWatchdog {
-        private Semaphore semaphore = new Semaphore(0);
-        private boolean running = true;
-
-        @Override
-        public void watch() {
-            semaphore.release();
-        }
-
-        @Override
-        public void done() {
-            semaphore.release();
+    /**
+     * Registers the deadline of a read with the shared {@link ReadTimer}.
+     */
+    private void watch() {
+        if (readTimeout > 0) {
+            synchronized (readLock) {
+                reader = Thread.currentThread();
+                readInterrupted = false;
+            }
+            readDeadline = ReadTimer.schedule(readTimeout, this::readTimedOut);
         }
+    }
 
-        @Override
-        public void terminate() {
-            running = false;
-            interrupt();
+    /**
+     * Cancels the deadline of the read that has returned.
+     *
+     * @return true if the deadline has interrupted the read
+     */
+    private boolean done() {
+        final ScheduledFuture<?> deadline = readDeadline;
+        if (deadline == null) {
+            return false;
         }
-
-        @Override
-        public void run() {
-            try {
-                while (running) {
-                    semaphore.acquire();
-                    // now the session is reading, watch for timeout
-                    if (! semaphore.tryAcquire(readTimeout, TimeUnit.MILLISECONDS)) {
-                        log.warn("read timeout, closing session");
-                        close();
-                        running = false;
-                    }
-                }
-            } catch (InterruptedException e) {
-                // log.debug("watchdog interrupted");
+        readDeadline = null;
+        deadline.cancel(false);
+        synchronized (readLock) {
+            reader = null;
+            if (readInterrupted) {
+                // the interrupt was ours, not the caller's
+                Thread.interrupted();
+                return true;
             }
         }
+        return false;
     }
 
     private class SessionDataReader implements DataReader {
@@ -132,24 +137,29 @@ public class SSHSession implements Transport, AutoCloseable {
         @Override
         public <DataBufType> int readData(BaseReader<DataBufType> rdr, DataBufType buf,
                                           int offset, int length) throws IOException {
-            watchdog.watch();
+            watch();
+            final int read;
             try {
-                int read = rdr.read(buf, offset, length);
-                if (read == -1) {
-                    trace("end of input (-1)");
-                    throw new IOException("Session closed");
-                } else {
-                    ByteBuffer data = rdr.encode(buf, offset, read);
-                    // FIXME: this is broken, readData may be called repeatedly
-                    // on the same data due to buffering and mark/reset calls
-                    for (final IOSubscriber sub: ioSubscribers) {
-                        sub.inputRaw(data);
-                    }
+                read = rdr.read(buf, offset, length);
+            } catch (final InterruptedIOException e) {
+                if (done()) {
+                    log.warn("read timeout, closing session");
+                    close();
+                    throw new IOException("Session closed", e);
                 }
-                return read;
+                throw e;
             } finally {
-                watchdog.done();
+                done();
+            }
+            if (read == -1) {
+                trace("end of input (-1)");
+                throw new IOException("Session closed");
             }
+            ByteBuffer data = rdr.encode(buf, offset, read);
+            for (final IOSubscriber sub: ioSubscribers) {
+                sub.inputRaw(data);
+            }
+            return read;
         }
     }
 
@@ -182,13 +192,6 @@ public class SSHSession implements Transport, AutoCloseable {
         subsysInput = subsys.getInputStream();
         sessionOutput = session.getOutputStream();
         setFraming(Framing.END_OF_MESSAGE);
-        if (readTimeout > 0) {
-            watchdog = new TimeoutWatchdog();
-        } else {
-            watchdog = new DummyWatchdog();
-        }
-        watchdog.start();
-        message = new StringBuilder();
         ioSubscribers = new ArrayList<IOSubscriber>();
         // hello will be done by NetconfSession
     }
@@ -198,6 +201,19 @@ public class SSHSession implements Transport, AutoCloseable {
     public void setFraming (Framing f) {
     	framer = f.newSessionFramer(new SessionDataReader(),
                                     subsysInput, sessionOutput);
+        framer.setChunkSize(chunkSize);
+    }
+
+    /**
+     * Set the maximum size of chunks sent with NETCONF 1.1 framing. Output
+     * is sent in chunks while it is being printed, so this also bounds the
+     * amount of outgoing data held in memory.
+     *
+     * @param chunkSize chunk size in bytes; 64 KiB by default
+     */
+    public void setChunkSize(int chunkSize) {
+        framer.setChunkSize(chunkSize);
+        this.chunkSize = chunkSize;
     }
 
     /**
@@ -220,8 +236,8 @@ public class SSHSession implements Transport, AutoCloseable {
      * Set the read timeout
      *
      * @param readTimeout timout in milliseconds The readTimeout parameter
-     *            affects all read operations. If a timeout is reached, an
-     *            INMException is thrown. The socket is not closed.
+     *            affects all following read operations. If a timeout is
+     *            reached, the session is closed and the read fails.
      */
     public void setReadTimeout(int readTimeout) {
         this.readTimeout = readTimeout;
@@ -264,6 +280,59 @@ public class SSHSession implements Transport, AutoCloseable {
         return frame;
     }
 
+    /**
+     * Opens "one" reply from the SSH transport input stream as a byte
+     * stream, without collecting the reply in memory. When there are IO
+     * subscribers, the reply is read as a whole so that they can be given
+     * the complete frame.
+     */
+    @Override
+    public InputStream readFrameStream() throws IOException, JNCException {
+        if (!ioSubscribers.isEmpty()) {
+            return Transport.super.readFrameStream();
+        }
+        return framer.openFrame();
+    }
+
+    /**
+     * Writes text to the frame being sent, opening a new frame if needed.
+     * Failures are reported by the next {@link #flush()}.
+     */
+    private void write(String s) {
+        final XMLEncoder frame = frame();
+        if (frame != null) {
+            frame.write(s);
+        }
+    }
+
+    /**
+     * Returns the encoder of the frame being sent, opening a new frame if
+     * needed, or null after a failure to open one.
+     */
+    private XMLEncoder frame() {
+        if (printError == null && message == null) {
+            try {
+                message = new XMLEncoder(framer.openFrameOutput());
+            } catch (IOException e) {
+                printError = e;
+            }
+        }
+        return printError == null ? message : null;
+    }
+
+    /**
+     * Returns the encoder of the frame being sent, unless the output is
+     * traced, which needs it as text.
+     */
+    @Override
+    public XMLEncoder encoder() {
+        if (!ioSubscribers.isEmpty()
+                || Element.debugLevel >= Element.DEBUG_LEVEL_TRANSPORT) {
+            return null;
+        }
+        return frame();
+    }
+
     /**
      * Prints an integer (as text) to the output stream.
      *
@@ -274,7 +343,7 @@ public class SSHSession implements Transport, AutoCloseable {
 
         String data = String.valueOf(iVal);
         trace(data);
-        message.append(data);
+        write(data);
     }
 
     /**
@@ -285,7 +354,7 @@ public class SSHSession implements Transport, AutoCloseable {
     @Override
     public void print(String s) {
         trace(s);
-        message.append(s);
+        write(s);
     }
 
     /**
@@ -309,7 +378,8 @@ public class SSHSession implements Transport, AutoCloseable {
     @Override
     public void println(String s) {
         trace(s);
-        message.append(s).append('\n');
+        write(s);
+        write("\n");
     }
 
     /**
@@ -339,15 +409,23 @@ public class SSHSession implements Transport, AutoCloseable {
     }
 
     /**
-     * Signals that the message is complete and should be sent to the output
-     * transport stream. This method furthermore flushes the transport output
-     * stream buffer.
+     * Signals that the message is complete. The data printed since the last
+     * flush have already been sent, except for the last chunk; the last chunk
+     * and the end of frame are sent now and the transport output stream
+     * buffer is flushed.
      */
     @Override
     public void flush() throws IOException {
-        String messageStr = message.toString();
-        framer.sendFrame(messageStr);
-        message = new StringBuilder();
+        // an empty message is still sent as a frame
+        write("");
+        final XMLEncoder frame = message;
+        final IOException error = printError;
+        message = null;
+        printError = null;
+        if (error != null) {
+            throw error;
+        }
+        frame.close();
     }
 
     /**
@@ -380,7 +458,7 @@ public class SSHSession implements Transport, AutoCloseable {
     @Override
     public void close() {
         try {
-            watchdog.terminate();
+            done();
             sessionOutput.close();
             subsys.close();
             session.close();
@@ -119,10 +119,11 @@ public class SchemaParser {
                         node.tagpath = new Tagpath(splittedTagpath.length - 1);
                         System.arraycopy(splittedTagpath, 1, node.tagpath.p, 0, splittedTagpath.length - 1);
                     }
+                    Symbols.intern(node.tagpath.p);
                     break;
                 }
                 case "namespace": {
-                    node.namespace = value;
+                    node.namespace = Symbols.intern(value);
                     break;
                 }
                 case "primitive_type": {
@@ -144,6 +145,7 @@ public class SchemaParser {
                     } else {
                         node.children = new String[child.length];
                         System.arraycopy(child, 0, node.children, 0, child.length);
+                        Symbols.intern(node.children);
                     }
                     break;
                 }
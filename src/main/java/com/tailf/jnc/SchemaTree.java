@@ -23,6 +23,7 @@ public final class SchemaTree {
      * @return The HashMap associated with namespace.
      */
     public static Map<Tagpath, SchemaNode> create(String namespace) {
+        namespace = Symbols.intern(namespace);
         if (namespaces.containsKey(namespace)) {
             return namespaces.get(namespace);
         }
@@ -0,0 +1,237 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread reading any number of non-blocking channels with one selector.
+ * Transports like {@link TCPSession} register their channel with a loop and
+ * are called back when input is available, or when output that the channel
+ * did not take at once can be written, so that no thread is blocked per
+ * session.
+ * <p>
+ * Sessions normally use the loops of a shared pool, see {@link #next()}; the
+ * size of the pool is given by the system property
+ * <code>com.tailf.jnc.selectorLoops</code> and defaults to half the number
+ * of processors.
+ */
+public class SelectorLoop implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(SelectorLoop.class);
+
+    /**
+     * Called by the loop thread when a registered channel can be read or
+     * written.
+     */
+    interface Handler {
+        /**
+         * Reads what is available from the channel, without blocking.
+         */
+        void readable() throws IOException;
+
+        /**
+         * Writes what the channel takes of the pending output, without
+         * blocking; called while write interest is set, see
+         * {@link SelectorLoop#setWriteInterest(SelectableChannel, boolean)}.
+         */
+        void writable() throws IOException;
+
+        /**
+         * The channel has failed; it has been deregistered.
+         */
+        void failed(IOException cause);
+    }
+
+    private static SelectorLoop[] shared;
+    private static int nextShared;
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final Thread thread;
+    /**
+     * Set when the loop has stopped after a failure of its selector.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Creates a loop and starts its thread.
+     *
+     * @param name Name of the thread
+     */
+    public SelectorLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns a loop of the shared pool; the loops are handed out in turn,
+     * and a loop that has stopped is replaced by a new one.
+     */
+    public static synchronized SelectorLoop next() throws IOException {
+        if (shared == null) {
+            final int size = Integer.getInteger("com.tailf.jnc.selectorLoops",
+                    Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+            shared = new SelectorLoop[Math.max(1, size)];
+        }
+        final int i = nextShared;
+        nextShared = (nextShared + 1) % shared.length;
+        if (shared[i] == null || shared[i].stopped) {
+            shared[i] = new SelectorLoop("jnc-selector-" + i);
+        }
+        return shared[i];
+    }
+
+    /**
+     * Returns true if called from the thread of this loop.
+     */
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Returns true if the loop has stopped after a failure of its selector;
+     * its channels have been failed.
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Runs the task on the thread of this loop. Once the loop has stopped,
+     * the task is run by the caller instead.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (stopped) {
+            runTasks();
+        } else {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Registers a non-blocking channel to be read by the loop.
+     */
+    void register(SelectableChannel channel, Handler handler) {
+        execute(() -> {
+            try {
+                channel.register(selector, SelectionKey.OP_READ, handler);
+            } catch (final IOException e) {
+                handler.failed(e);
+            } catch (final ClosedSelectorException e) {
+                handler.failed(new IOException("Selector loop stopped", e));
+            }
+        });
+    }
+
+    /**
+     * Sets whether the handler of a registered channel is also called when
+     * the channel can be written. Takes effect at once when called on the
+     * loop thread, and before the next select otherwise.
+     */
+    void setWriteInterest(SelectableChannel channel, boolean on) {
+        final Runnable task = () -> {
+            final SelectionKey key = channel.keyFor(selector);
+            if (key != null && key.isValid()) {
+                key.interestOps(on ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                        : SelectionKey.OP_READ);
+            }
+        };
+        if (inLoop()) {
+            task.run();
+        } else {
+            execute(task);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+            } catch (final IOException e) {
+                log.error("select failed", e);
+                stop(e);
+                return;
+            } catch (final ClosedSelectorException e) {
+                log.error("selector closed", e);
+                stop(new IOException("Selector closed", e));
+                return;
+            }
+            runTasks();
+            final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+                final Handler handler = (Handler) key.attachment();
+                try {
+                    if (key.isReadable()) {
+                        handler.readable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        handler.writable();
+                    }
+                } catch (final IOException e) {
+                    key.cancel();
+                    handler.failed(e);
+                } catch (final CancelledKeyException e) {
+                    // the channel was closed meanwhile
+                } catch (final RuntimeException e) {
+                    log.error("channel handler failed", e);
+                    key.cancel();
+                    handler.failed(new IOException(e));
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the loop: fails the channels of all registered keys, and runs
+     * the remaining tasks, so that none of them waits for the loop.
+     */
+    private void stop(IOException cause) {
+        stopped = true;
+        // tasks added from now on are run by their callers
+        runTasks();
+        try {
+            for (final SelectionKey key : selector.keys()) {
+                key.cancel();
+                ((Handler) key.attachment()).failed(cause);
+            }
+        } catch (final ClosedSelectorException e) {
+            log.error("cannot fail the channels of a closed selector", e);
+        }
+        try {
+            selector.close();
+        } catch (final IOException e) {
+            log.warn("Exception caught while closing selector", e);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            runSafely(task);
+        }
+    }
+
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (final RuntimeException e) {
+            log.error("selector task failed", e);
+        }
+    }
+}
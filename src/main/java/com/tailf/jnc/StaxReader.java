@@ -0,0 +1,166 @@
+package com.tailf.jnc;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Pull (StAX) backend of {@link XMLParser}. The document is read with an
+ * {@link XMLStreamReader} and fed to the same content handlers as with SAX,
+ * so both backends build the same trees.
+ * <p>
+ * The text of an element is collected in a buffer that is reused for every
+ * document and passed to the handler in one piece, however many pieces the
+ * reader delivers it in. Text between elements that is only whitespace is
+ * not passed to the handler at all.
+ */
+final class StaxReader {
+
+    private static final XMLInputFactory factory = newFactory();
+
+    private final StringBuilder text = new StringBuilder();
+    private char[] chars = new char[256];
+    private final AttributesImpl attributes = new AttributesImpl();
+
+    private static XMLInputFactory newFactory() {
+        final XMLInputFactory f = XMLInputFactory.newInstance();
+        f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        f.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                      Boolean.FALSE);
+        return f;
+    }
+
+    /**
+     * Reads a document, calling the content handler for its elements.
+     */
+    void read(InputSource is, ContentHandler handler)
+        throws SAXException, XMLStreamException {
+        final XMLStreamReader r = open(is);
+        try {
+            handler.startDocument();
+            // true between a start tag and the first child or end tag
+            boolean open = false;
+            while (r.hasNext()) {
+                switch (r.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    flushText(handler, false);
+                    startElement(r, handler);
+                    open = true;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    // whitespace is kept only as the value of a leaf
+                    flushText(handler, open);
+                    handler.endElement(uri(r.getNamespaceURI()),
+                                       r.getLocalName(), qName(r));
+                    open = false;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(r.getTextCharacters(), r.getTextStart(),
+                                r.getTextLength());
+                    break;
+                default:
+                    break;
+                }
+            }
+            handler.endDocument();
+        } finally {
+            text.setLength(0);
+            attributes.clear();
+            r.close();
+        }
+    }
+
+    private static XMLStreamReader open(InputSource is)
+        throws XMLStreamException {
+        synchronized (factory) {
+            if (is.getCharacterStream() != null) {
+                return factory.createXMLStreamReader(is.getCharacterStream());
+            }
+            if (is.getByteStream() != null) {
+                return is.getEncoding() == null
+                    ? factory.createXMLStreamReader(is.getByteStream())
+                    : factory.createXMLStreamReader(is.getByteStream(),
+                                                    is.getEncoding());
+            }
+            return factory.createXMLStreamReader(
+                    new StreamSource(is.getSystemId()));
+        }
+    }
+
+    private void startElement(XMLStreamReader r, ContentHandler handler)
+        throws SAXException {
+        for (int i = 0; i < r.getNamespaceCount(); i++) {
+            final String prefix = r.getNamespacePrefix(i);
+            handler.startPrefixMapping(prefix == null ? "" : prefix,
+                                       uri(r.getNamespaceURI(i)));
+        }
+        attributes.clear();
+        for (int i = 0; i < r.getAttributeCount(); i++) {
+            final String prefix = r.getAttributePrefix(i);
+            final String localName = r.getAttributeLocalName(i);
+            attributes.addAttribute(uri(r.getAttributeNamespace(i)), localName,
+                    prefix == null || prefix.isEmpty() ? localName
+                        : prefix + ":" + localName,
+                    r.getAttributeType(i), r.getAttributeValue(i));
+        }
+        handler.startElement(uri(r.getNamespaceURI()), r.getLocalName(),
+                             qName(r), attributes);
+    }
+
+    /**
+     * Passes the collected text to the handler.
+     *
+     * @param keepWhitespace If false, text that is only whitespace is
+     *            dropped
+     */
+    private void flushText(ContentHandler handler, boolean keepWhitespace)
+        throws SAXException {
+        final int len = text.length();
+        if (len == 0) {
+            return;
+        }
+        if (keepWhitespace || !isWhitespace(text)) {
+            if (chars.length < len) {
+                chars = new char[Math.max(len, chars.length * 2)];
+            }
+            text.getChars(0, len, chars, 0);
+            handler.characters(chars, 0, len);
+        }
+        text.setLength(0);
+    }
+
+    private static boolean isWhitespace(CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            switch (s.charAt(i)) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\r':
+                break;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String uri(String uri) {
+        return uri == null ? "" : uri;
+    }
+
+    private static String qName(XMLStreamReader r) {
+        final String prefix = r.getPrefix();
+        return prefix == null || prefix.isEmpty() ? r.getLocalName()
+            : prefix + ":" + r.getLocalName();
+    }
+}
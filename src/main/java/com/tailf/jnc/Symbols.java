@@ -0,0 +1,76 @@
+package com.tailf.jnc;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The Symbols class is a table of canonical namespace URIs and local names.
+ * <p>
+ * The parsers look up the namespace and name of every element and attribute
+ * they create here, so that all elements with the same name share one
+ * String instance, and comparing names (as in {@link Element#equals} or
+ * {@link Element#getChild(String)}) mostly succeeds on reference equality.
+ * The canonical instance of a string is its {@link String#intern() interned}
+ * instance, the same as a string literal in the classes generated by the
+ * JNC pyang plugin. The table is seeded with the namespaces and node names
+ * of the schemas registered in {@link SchemaTree}.
+ * <p>
+ * The table holds at most {@link #MAX_SIZE} symbols; other strings are
+ * returned as they are.
+ */
+public final class Symbols {
+
+    /**
+     * The maximum number of symbols in the table.
+     */
+    public static final int MAX_SIZE = 1 << 16;
+
+    private static final ConcurrentHashMap<String, String> table = new ConcurrentHashMap<String, String>();
+
+    private Symbols() {
+        throw new UnsupportedOperationException("Cannot instantiate Symbols");
+    }
+
+    /**
+     * Returns the canonical instance of a namespace URI or name.
+     *
+     * @param s The string, or null
+     * @return The canonical instance of s, or s itself if the table is full
+     */
+    public static String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        final String symbol = table.get(s);
+        if (symbol != null) {
+            return symbol;
+        }
+        if (table.size() >= MAX_SIZE) {
+            return s;
+        }
+        final String canonical = s.intern();
+        final String old = table.putIfAbsent(canonical, canonical);
+        return old == null ? canonical : old;
+    }
+
+    /**
+     * Returns the canonical instances of an array of names, in place.
+     *
+     * @param names The names, or null
+     * @return names
+     */
+    static String[] intern(String[] names) {
+        if (names != null) {
+            for (int i = 0; i < names.length; i++) {
+                names[i] = intern(names[i]);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return The number of symbols in the table.
+     */
+    public static int size() {
+        return table.size();
+    }
+}
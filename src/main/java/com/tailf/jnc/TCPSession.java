@@ -0,0 +1,586 @@
+package com.tailf.jnc;
+
+import com.tailf.jnc.framing.FrameDecoder;
+import com.tailf.jnc.framing.Framer;
+import com.tailf.jnc.framing.Framing;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A plain TCP NETCONF transport, for servers that accept NETCONF over TCP,
+ * over a TLS terminating proxy, or for test stand-ins.
+ * <p>
+ * The socket is read by a {@link SelectorLoop} shared with other sessions,
+ * so no thread is blocked per session: the replies are decoded on the loop
+ * thread as they arrive, and either queued for {@link #readOne()} or passed
+ * to a {@link FrameListener}. A {@link NetconfSession} with a reply reader
+ * (see {@link NetconfSession#startReplyReader()}) uses a listener, so any
+ * number of such sessions are served by the threads of the selector pool.
+ * <p>
+ * Sending never blocks either: what the socket does not take at once is
+ * queued and written by the loop thread as the socket drains. A request can
+ * therefore be sent from a reply callback running on the loop thread.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * TCPSession tcp = new TCPSession(&quot;127.0.0.1&quot;, 2023);
+ * NetconfSession dev1 = new NetconfSession(tcp);
+ * dev1.startReplyReader();
+ * </pre>
+ */
+public class TCPSession implements Transport, AutoCloseable {
+
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final int BUFSIZ = 8 * 1024;
+
+    /**
+     * Queued when the input has ended; {@link #failure} tells why.
+     */
+    private static final byte[] END_OF_INPUT = new byte[0];
+
+    private final SocketChannel channel;
+    private final SelectorLoop loop;
+    private final FrameDecoder decoder;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFSIZ);
+
+    /**
+     * Replies received while there is no listener. Guarded by itself, as is
+     * the listener.
+     */
+    private final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<byte[]>();
+    private FrameListener listener;
+    private volatile IOException failure;
+    /**
+     * Time of the last input, in {@link System#nanoTime()}; set by the loop
+     * thread.
+     */
+    private volatile long lastInput;
+
+    private final ChannelOutput output = new ChannelOutput();
+    private Framer framer;
+    private int chunkSize = 64 * 1024;
+    /**
+     * Encoder of the frame being sent, <code>null</code> if no frame is
+     * being sent.
+     */
+    private XMLEncoder message;
+    /**
+     * Failure of a print call, reported by the following flush.
+     */
+    private IOException printError;
+    private final List<IOSubscriber> ioSubscribers;
+    protected long readTimeout; // 0 millisecs by default
+
+    /**
+     * Connects to a NETCONF server.
+     *
+     * @param host Host name or address of the server
+     * @param port Port of the server
+     */
+    public TCPSession(String host, int port) throws IOException {
+        this(host, port, 0);
+    }
+
+    /**
+     * Connects to a NETCONF server, with a timeout for {@link #readOne()}.
+     *
+     * @param host Host name or address of the server
+     * @param port Port of the server
+     * @param readTimeout Time to wait for input (in milliseconds), 0 waits
+     *            forever
+     */
+    public TCPSession(String host, int port, long readTimeout)
+            throws IOException {
+        this(SocketChannel.open(new InetSocketAddress(host, port)),
+             SelectorLoop.next(), readTimeout);
+    }
+
+    /**
+     * Creates a session over a connected channel, read by the given loop.
+     *
+     * @param channel A connected socket channel
+     * @param loop The loop that reads the channel
+     * @param readTimeout Time to wait for input (in milliseconds), 0 waits
+     *            forever
+     */
+    public TCPSession(SocketChannel channel, SelectorLoop loop,
+                      long readTimeout) throws IOException {
+        this.channel = channel;
+        this.loop = loop;
+        this.readTimeout = readTimeout;
+        // read by the loop thread
+        ioSubscribers = new CopyOnWriteArrayList<IOSubscriber>();
+        decoder = new FrameDecoder(Framing.END_OF_MESSAGE);
+        framer = Framing.END_OF_MESSAGE.newOutputFramer(output);
+        framer.setChunkSize(chunkSize);
+        channel.configureBlocking(false);
+        loop.register(channel, new SelectorLoop.Handler() {
+            @Override
+            public void readable() throws IOException {
+                read();
+            }
+
+            @Override
+            public void writable() throws IOException {
+                output.drain();
+            }
+
+            @Override
+            public void failed(IOException cause) {
+                output.failed(cause);
+                endOfInput(cause);
+            }
+        });
+        // hello will be done by NetconfSession
+    }
+
+    /**
+     * Called on the loop thread when the channel can be read.
+     */
+    private void read() throws IOException {
+        while (true) {
+            final int read = channel.read(readBuffer);
+            if (read == -1) {
+                trace("end of input (-1)");
+                throw new IOException("Session closed");
+            }
+            if (read == 0) {
+                return;
+            }
+            lastInput = System.nanoTime();
+            readBuffer.flip();
+            for (final IOSubscriber sub : ioSubscribers) {
+                sub.inputRaw(readBuffer.duplicate());
+            }
+            decoder.decode(readBuffer, this::frameReceived);
+            readBuffer.clear();
+        }
+    }
+
+    private void frameReceived(ByteBuffer frame) {
+        synchronized (frames) {
+            if (listener != null) {
+                if (!ioSubscribers.isEmpty()) {
+                    final String s = StandardCharsets.UTF_8.decode(frame.duplicate()).toString();
+                    for (final IOSubscriber sub : ioSubscribers) {
+                        sub.inputFrame(s);
+                    }
+                }
+                listener.frameReceived(frame);
+                return;
+            }
+            final byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            frames.add(bytes);
+        }
+    }
+
+    private void endOfInput(IOException cause) {
+        synchronized (frames) {
+            if (failure != null) {
+                return;
+            }
+            failure = cause;
+            if (listener != null) {
+                listener.closed(cause);
+            } else {
+                frames.add(END_OF_INPUT);
+            }
+        }
+    }
+
+    @Override
+    public boolean setFrameListener(FrameListener newListener) {
+        synchronized (frames) {
+            if (newListener != null) {
+                byte[] frame;
+                while ((frame = frames.poll()) != null && frame != END_OF_INPUT) {
+                    newListener.frameReceived(ByteBuffer.wrap(frame));
+                }
+                if (failure != null) {
+                    newListener.closed(failure);
+                }
+            } else if (listener != null && failure != null) {
+                frames.add(END_OF_INPUT);
+            }
+            listener = newListener;
+        }
+        return true;
+    }
+
+    // Sets the framing to accommodate Netconf 1.1
+    @Override
+    public void setFraming(Framing f) {
+        // The decoder belongs to the loop thread. The loop runs its tasks
+        // before it reads again, and the server sends nothing in the new
+        // framing before our next request, so the switch is in time.
+        if (loop.inLoop()) {
+            decoder.setFraming(f);
+        } else {
+            loop.execute(() -> decoder.setFraming(f));
+        }
+        framer = f.newOutputFramer(output);
+        framer.setChunkSize(chunkSize);
+    }
+
+    /**
+     * Set the maximum size of chunks sent with NETCONF 1.1 framing.
+     *
+     * @param chunkSize chunk size in bytes; 64 KiB by default
+     */
+    public void setChunkSize(int chunkSize) {
+        framer.setChunkSize(chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Return the readTimeout value that is used by {@link #readOne()}.
+     */
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Set the read timeout. If nothing is received for the timeout while
+     * waiting for a reply, the session is closed and the read fails. As for
+     * {@link SSHSession}, the timeout applies to the input of the reply, not
+     * to the whole reply: a large reply that keeps arriving does not time
+     * out.
+     *
+     * @param readTimeout timeout in milliseconds, 0 waits forever
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Return the underlying socket channel.
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Tell whether a reply has been received, or the input has ended.
+     */
+    @Override
+    public boolean ready() {
+        return !frames.isEmpty();
+    }
+
+    private byte[] takeFrame() throws IOException {
+        final byte[] frame;
+        try {
+            frame = readTimeout > 0 ? pollFrame() : frames.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading");
+        }
+        if (frame == null) {
+            log.warn("read timeout, closing session");
+            close();
+            throw new IOException("Session closed");
+        }
+        if (frame == END_OF_INPUT) {
+            // keep it for further reads
+            frames.add(END_OF_INPUT);
+            throw failure;
+        }
+        return frame;
+    }
+
+    /**
+     * Waits for a frame until no input has been received for the read
+     * timeout.
+     *
+     * @return The frame, or null on timeout
+     */
+    private byte[] pollFrame() throws InterruptedException {
+        final long timeout = TimeUnit.MILLISECONDS.toNanos(readTimeout);
+        long idleSince = System.nanoTime();
+        while (true) {
+            final long wait = idleSince + timeout - System.nanoTime();
+            final byte[] frame = frames.poll(wait, TimeUnit.NANOSECONDS);
+            if (frame != null) {
+                return frame;
+            }
+            final long last = lastInput;
+            if (last - idleSince <= 0) {
+                return null;
+            }
+            idleSince = last;
+        }
+    }
+
+    /**
+     * Reads "one" reply; waits until it has been received.
+     */
+    @Override
+    public String readOne() throws IOException {
+        final String frame = new String(takeFrame(), StandardCharsets.UTF_8);
+        for (final IOSubscriber sub : ioSubscribers) {
+            sub.inputFrame(frame);
+        }
+        return frame;
+    }
+
+    /**
+     * Opens "one" reply as a byte stream; waits until it has been received.
+     */
+    @Override
+    public InputStream readFrameStream() throws IOException, JNCException {
+        if (!ioSubscribers.isEmpty()) {
+            return Transport.super.readFrameStream();
+        }
+        return new ByteArrayInputStream(takeFrame());
+    }
+
+    /**
+     * Writes text to the frame being sent, opening a new frame if needed.
+     * Failures are reported by the next {@link #flush()}.
+     */
+    private void write(String s) {
+        final XMLEncoder frame = frame();
+        if (frame != null) {
+            frame.write(s);
+        }
+    }
+
+    /**
+     * Returns the encoder of the frame being sent, opening a new frame if
+     * needed, or null after a failure to open one.
+     */
+    private XMLEncoder frame() {
+        if (printError == null && message == null) {
+            try {
+                message = new XMLEncoder(framer.openFrameOutput());
+            } catch (IOException e) {
+                printError = e;
+            }
+        }
+        return printError == null ? message : null;
+    }
+
+    /**
+     * Returns the encoder of the frame being sent, unless the output is
+     * traced, which needs it as text.
+     */
+    @Override
+    public XMLEncoder encoder() {
+        if (!ioSubscribers.isEmpty()
+                || Element.debugLevel >= Element.DEBUG_LEVEL_TRANSPORT) {
+            return null;
+        }
+        return frame();
+    }
+
+    /**
+     * Prints an integer (as text) to the output stream.
+     *
+     * @param iVal Text to send to the stream.
+     */
+    @Override
+    public void print(long iVal) {
+        String data = String.valueOf(iVal);
+        trace(data);
+        write(data);
+    }
+
+    /**
+     * Prints text to the output stream.
+     *
+     * @param s Text to send to the stream.
+     */
+    @Override
+    public void print(String s) {
+        trace(s);
+        write(s);
+    }
+
+    /**
+     * Prints an integer (as text) to the output stream. A newline char is
+     * appended to end of the output stream.
+     *
+     * @param iVal Text to send to the stream.
+     */
+    @Override
+    public void println(long iVal) {
+        println(String.valueOf(iVal));
+    }
+
+    /**
+     * Print text to the output stream. A newline char is appended to end of
+     * the output stream.
+     *
+     * @param s Text to send to the stream.
+     */
+    @Override
+    public void println(String s) {
+        trace(s);
+        write(s);
+        write("\n");
+    }
+
+    /**
+     * Add an IO Subscriber for this transport. This is useful for tracing the
+     * messages.
+     *
+     * @param s An IOSUbscriber that will be called whenever there is something
+     *            received or sent on this transport.
+     */
+    public void addSubscriber(IOSubscriber s) {
+        ioSubscribers.add(s);
+    }
+
+    /**
+     * Removes an IO subscriber.
+     *
+     * @param s The IO subscriber to remove.
+     */
+    public void delSubscriber(IOSubscriber s) {
+        ioSubscribers.remove(s);
+    }
+
+    /**
+     * Signals that the message is complete; the end of the frame is sent.
+     */
+    @Override
+    public void flush() throws IOException {
+        // an empty message is still sent as a frame
+        write("");
+        final XMLEncoder frame = message;
+        final IOException error = printError;
+        message = null;
+        printError = null;
+        if (error != null) {
+            throw error;
+        }
+        frame.close();
+    }
+
+    /**
+     * Closes the socket. Output that the socket has not taken yet is
+     * dropped.
+     */
+    @Override
+    public void close() {
+        final IOException closed = new IOException("Session closed");
+        output.failed(closed);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Exception caught while closing", e);
+        }
+        endOfInput(closed);
+    }
+
+    @Override
+    public String getDeviceConnectionInfo() {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "closed";
+        }
+    }
+
+    @Override
+    public Collection<IOSubscriber> getIOSubscribers() {
+        return ioSubscribers;
+    }
+
+    /**
+     * Writes to the non-blocking channel. Writes normally complete at once;
+     * when the socket buffer is full, the rest is queued and written by the
+     * loop thread when the channel can be written again, so a write never
+     * waits, not even on the loop thread.
+     */
+    private class ChannelOutput extends OutputStream {
+        /**
+         * Output not yet taken by the channel, in order. Guarded by this
+         * stream, as is the failure.
+         */
+        private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+        private IOException failure;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len)
+                throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            final ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+            if (pending.isEmpty()) {
+                channel.write(buf);
+                if (!buf.hasRemaining()) {
+                    return;
+                }
+                loop.setWriteInterest(channel, true);
+            }
+            final ByteBuffer rest = ByteBuffer.allocate(buf.remaining());
+            rest.put(buf).flip();
+            pending.add(rest);
+        }
+
+        /**
+         * Called on the loop thread when the channel can be written.
+         */
+        synchronized void drain() throws IOException {
+            ByteBuffer buf;
+            while ((buf = pending.peek()) != null) {
+                channel.write(buf);
+                if (buf.hasRemaining()) {
+                    return;
+                }
+                pending.poll();
+            }
+            loop.setWriteInterest(channel, false);
+        }
+
+        /**
+         * Drops the pending output; later writes fail with the cause.
+         */
+        synchronized void failed(IOException cause) {
+            if (failure == null) {
+                failure = cause;
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private void trace(String s) {
+        for (final IOSubscriber sub : ioSubscribers) {
+            sub.output("*TCPSession:" + s);
+        }
+        if (Element.debugLevel >= Element.DEBUG_LEVEL_TRANSPORT) {
+            System.err.println("*TCPSession:@" + getDeviceConnectionInfo() + "\n" + s);
+        }
+    }
+}
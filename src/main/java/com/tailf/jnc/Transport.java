@@ -2,7 +2,10 @@ package com.tailf.jnc;
 
 import com.tailf.jnc.framing.Framing;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 
 /**
@@ -28,6 +31,34 @@ public interface Transport {
      */
     String readOne() throws IOException, JNCException;
 
+    /**
+     * Opens "one" reply from the transport input stream as a stream of
+     * (UTF-8 encoded) bytes that ends where the reply ends. The stream must
+     * be read to its end or closed before the next reply is read.
+     * <p>
+     * The default implementation reads the whole reply with
+     * {@link #readOne()}; transports should override it so that replies
+     * never need to be held in memory as a whole.
+     */
+    default InputStream readFrameStream() throws IOException, JNCException {
+        return new ByteArrayInputStream(readOne().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Makes the transport deliver incoming replies to the listener as they
+     * arrive, on a thread of the transport, instead of them being read with
+     * {@link #readOne()}. Replies received before the call are delivered
+     * first. This is supported by transports that read their input without
+     * a thread blocked per session, like {@link TCPSession}.
+     *
+     * @param listener The listener, or <code>null</code> to return to
+     *            reading with {@link #readOne()}
+     * @return false if the transport does not support listeners
+     */
+    default boolean setFrameListener(FrameListener listener) {
+        return false;
+    }
+
     /**
      * Prints an integer to the transport output stream.
      */
@@ -38,6 +69,19 @@ public interface Transport {
      */
     void print(String s);
 
+    /**
+     * Returns an encoder writing UTF-8 bytes to the message being sent, in
+     * order with what is printed, so that element trees are encoded into the
+     * transport without building strings. Errors are reported by the next
+     * {@link #flush()}.
+     * <p>
+     * The default implementation returns <code>null</code>, and element
+     * trees are printed as text instead.
+     */
+    default XMLEncoder encoder() {
+        return null;
+    }
+
     /**
      * Prints an integer to the transport output stream and an additional line
      * break.
@@ -0,0 +1,323 @@
+package com.tailf.jnc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The diff and sync algorithms of {@link YangElement#getDiff} and
+ * {@link YangElement#syncMerge}.
+ * <p>
+ * The children of two elements are first paired with a
+ * {@link ChildMatcher}; then the pairs are compared, and equal pairs
+ * recursed into. With a threshold above 0, the pairs of an element are split
+ * into halves that are handled as {@link ForkJoinPool#commonPool() common
+ * pool} tasks for as long as there are more than threshold pairs, or the
+ * pairs have more than threshold children together, so that both long lists
+ * and a few large containers are shared between threads. Each task collects
+ * its results in node sets of its own, which are appended in the order of
+ * the pairs, so the results are the same as when diffing on one thread.
+ * <p>
+ * With digests, pairs of subtrees with equal {@link Element#digest()
+ * digests} are skipped. The digests of both trees are computed at the start,
+ * before any tasks are forked.
+ * <p>
+ * Parts of the trees handled by different tasks must not be changed while
+ * diffing, and are not shared: every element is read by one task only.
+ */
+final class TreeDiff {
+
+    private final int threshold;
+    private final boolean digests;
+
+    /**
+     * The results of diffing or syncing a part of two trees.
+     */
+    private static final class Result {
+        final NodeSet uniqueA;
+        final NodeSet uniqueB;
+        final NodeSet changedA;
+        final NodeSet changedB;
+        final NodeSet toDel;
+        int diffs;
+
+        Result(NodeSet uniqueA, NodeSet uniqueB, NodeSet changedA,
+               NodeSet changedB, NodeSet toDel) {
+            this.uniqueA = uniqueA;
+            this.uniqueB = uniqueB;
+            this.changedA = changedA;
+            this.changedB = changedB;
+            this.toDel = toDel;
+        }
+
+        /**
+         * Returns an empty result of the same kind.
+         */
+        Result part() {
+            return toDel == null
+                ? new Result(new NodeSet(), new NodeSet(), new NodeSet(),
+                             new NodeSet(), null)
+                : new Result(null, null, null, null, new NodeSet());
+        }
+
+        void add(Result r) {
+            if (toDel == null) {
+                uniqueA.addAll(r.uniqueA);
+                uniqueB.addAll(r.uniqueB);
+                changedA.addAll(r.changedA);
+                changedB.addAll(r.changedB);
+            } else {
+                toDel.addAll(r.toDel);
+            }
+            diffs += r.diffs;
+        }
+    }
+
+    /**
+     * A range of pairs, diffed or synced in a task.
+     */
+    private final class Part extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final Element[] as;
+        final Element[] bs;
+        final int from;
+        final int to;
+        final Result result;
+
+        Part(Element[] as, Element[] bs, int from, int to, Result result) {
+            this.as = as;
+            this.bs = bs;
+            this.from = from;
+            this.to = to;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            if (result.toDel == null) {
+                diffPairs(as, bs, from, to, result);
+            } else {
+                syncPairs(as, bs, from, to, result);
+            }
+        }
+    }
+
+    /**
+     * @param threshold The number of pairs or children from which the pairs
+     *            of an element are split between tasks, or 0 to diff on the
+     *            calling thread
+     * @param digests Whether getDiff skips pairs with equal
+     *            {@link Element#digest() digests}
+     */
+    TreeDiff(int threshold, boolean digests) {
+        this.threshold = threshold;
+        this.digests = digests;
+    }
+
+    /**
+     * See {@link YangElement#getDiff}.
+     */
+    void getDiff(YangElement a, YangElement b, NodeSet uniqueA,
+                 NodeSet uniqueB, NodeSet changedA, NodeSet changedB) {
+        final Result r = new Result(uniqueA, uniqueB, changedA, changedB,
+                                    null);
+        run(() -> diff(a, b, r));
+    }
+
+    /**
+     * Works out the NETCONF merge needed to go from a to b.
+     *
+     * @param a Subtree to sync
+     * @param b Copy of subtree to mimic
+     * @param toDel A list with elements that should be removed from 'b'
+     * @return Number of diffs
+     */
+    int sync(YangElement a, YangElement b, NodeSet toDel) {
+        final Result r = new Result(null, null, null, null, toDel);
+        run(() -> r.diffs = sync(a, b, r));
+        return r.diffs;
+    }
+
+    private void run(Runnable task) {
+        if (threshold > 0 && !ForkJoinTask.inForkJoinPool()) {
+            ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(task));
+        } else {
+            task.run();
+        }
+    }
+
+    private void diff(YangElement a, YangElement b, Result r) {
+        if (digests && a.digest() == b.digest()) {
+            return;
+        }
+        a.materialize();
+        b.materialize();
+        if (a.compare(b) < 0) {
+            // A and B are completely different
+            r.uniqueA.add(a);
+            r.uniqueB.add(b);
+            return;
+        }
+        // parents are equal, go through the children.
+        if (a.children == null || b.children == null) {
+            if (b.children != null) {
+                r.uniqueB.addAll(b.children);
+            } else if (a.children != null) {
+                r.uniqueA.addAll(a.children);
+            }
+            return;
+        }
+        // For each child in a, find the first child in b it compares to.
+        final ChildMatcher bList = new ChildMatcher(b.children);
+        final Element[] as = a.children.toArray(new Element[0]);
+        final Element[] bs = new Element[as.length];
+        for (int i = 0; i < as.length; i++) {
+            bs[i] = bList.takeSame(as[i]);
+        }
+        diffPairs(as, bs, 0, as.length, r);
+        // Add any remaining nodes in bList to uniqueB
+        r.uniqueB.addAll(bList.remaining());
+    }
+
+    private void diffPairs(Element[] as, Element[] bs, int from, int to,
+                           Result r) {
+        if (split(as, from, to)) {
+            fork(as, bs, from, to, r);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            final Element aChild = as[i];
+            final Element bChild = bs[i];
+            if (bChild == null) { // not found
+                r.uniqueA.add(aChild);
+                continue;
+            }
+            if (digests && aChild.digest() == bChild.digest()) {
+                // already hashed with their parents
+                continue;
+            }
+            final int bRes = aChild.compare(bChild);
+            if (bRes == 1) { // different content
+                r.changedA.add(aChild);
+                r.changedB.add(bChild);
+            } else if (aChild instanceof YangElement) {
+                // bRes == 0 so they are equal, but their children might
+                // not be, so we recurse
+                diff((YangElement) aChild, (YangElement) bChild, r);
+            }
+            // Skip if equal and not YangElement
+        }
+    }
+
+    private int sync(YangElement a, YangElement b, Result r) {
+        a.materialize();
+        b.materialize();
+        final ChildMatcher aList = new ChildMatcher(a.children);
+        final int n = b.children == null ? 0 : b.children.size();
+        final Element[] bs = new Element[n];
+        final Element[] as = new Element[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            final Element bChild = b.children.get(i);
+            if (a.keyNames() != null && bChild instanceof Leaf
+                    && ((Leaf) bChild).isKey()) {
+                // inside list entries we ignore keys
+                continue;
+            }
+            bs[m] = bChild;
+            as[m++] = aList.takeSync(bChild);
+        }
+        final Result part = r.part();
+        syncPairs(as, bs, 0, m, part);
+        r.toDel.addAll(part.toDel);
+        int diffs = part.diffs;
+
+        // Mark remaining elements in 'a' for deletion and move them to 'b'
+        final NodeSet rest = aList.remaining();
+        for (int i = 0; i < rest.size(); i++) {
+            final Element x = rest.get(i);
+            if (x instanceof Leaf) {
+                final Leaf leaf = (Leaf) x;
+                if (leaf.isKey()) {
+                    // ignore key leafs - they're handled elsewhere
+                    continue;
+                }
+                diffs++;
+                b.addChild(x);
+                x.markDelete();
+            }
+
+            // Remove all children except keys (if any)
+            else if (x instanceof YangElement) {
+                diffs++;
+                final YangElement c = (YangElement) x;
+                final YangElement copy = (YangElement) c.cloneShallow();
+                b.addChild(copy);
+                copy.markDelete();
+            }
+        }
+        return diffs;
+    }
+
+    private void syncPairs(Element[] as, Element[] bs, int from, int to,
+                           Result r) {
+        if (split(bs, from, to)) {
+            fork(as, bs, from, to, r);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            final Element aChild = as[i];
+            final Element bChild = bs[i];
+            if (aChild == null) {
+                // It's a new child that needs to be merged
+                r.diffs++;
+            } else if (aChild instanceof YangElement) {
+                final int d = sync((YangElement) aChild, (YangElement) bChild,
+                                   r);
+                r.diffs += d;
+                if (d == 0) {
+                    // both children are identical - remove from b as well
+                    r.toDel.add(bChild);
+                }
+            } else if (aChild instanceof Leaf) {
+                if (aChild.equals(bChild)) {
+                    // remove identical leaves from b - no need to send them
+                    r.toDel.add(bChild);
+                } else {
+                    r.diffs++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if a range of pairs should be split between tasks.
+     *
+     * @param elements One side of the pairs
+     */
+    private boolean split(Element[] elements, int from, int to) {
+        if (threshold <= 0 || to - from < 2) {
+            return false;
+        }
+        if (to - from > threshold) {
+            return true;
+        }
+        long children = 0;
+        for (int i = from; i < to; i++) {
+            final NodeSet c = elements[i] == null ? null : elements[i].children;
+            children += c == null ? 0 : c.size();
+        }
+        return children > threshold;
+    }
+
+    private void fork(Element[] as, Element[] bs, int from, int to,
+                      Result r) {
+        final int mid = (from + to) >>> 1;
+        final Part left = new Part(as, bs, from, mid, r.part());
+        final Part right = new Part(as, bs, mid, to, r.part());
+        ForkJoinTask.invokeAll(left, right);
+        r.add(left.result);
+        r.add(right.result);
+    }
+}
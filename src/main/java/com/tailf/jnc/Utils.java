@@ -1,21 +1,10 @@
 package com.tailf.jnc;
 
-import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Text;
-
 final class Utils {
 
     private Utils() {
@@ -160,7 +149,8 @@ final class Utils {
      * single #x20, and initial and/or final #x20s are deleted.
      * <p>
      * This method is used by most other data types to collapse Strings from
-     * the XML parser.
+     * the XML parser. The string is scanned once, and returned as it is if
+     * there is nothing to collapse.
      *
      * @param value The string to collapse.
      * @return The collapsed string.
@@ -169,7 +159,62 @@ final class Utils {
         if (value == null) {
             return null;
         }
-        return value.trim().replaceAll(" +", " ");
+        final int start = trimStart(value);
+        final int end = trimEnd(value, start);
+        final int twice = value.indexOf("  ", start);
+        if (twice < 0 || twice >= end) {
+            return start == 0 && end == value.length() ? value
+                    : value.substring(start, end);
+        }
+        final StringBuilder sb = new StringBuilder(end - start);
+        return collapse(value, start, end, sb).toString();
+    }
+
+    /**
+     * Whitespace collapse, appending the collapsed string to a string
+     * builder.
+     *
+     * @param value The string to collapse, or null to append nothing.
+     * @param sb The string builder to append to.
+     * @return The string builder.
+     * @see #wsCollapse(String)
+     */
+    public static StringBuilder wsCollapse(String value, StringBuilder sb) {
+        if (value == null) {
+            return sb;
+        }
+        final int start = trimStart(value);
+        return collapse(value, start, trimEnd(value, start), sb);
+    }
+
+    /* As String.trim(), which deletes all characters up to #x20 */
+    private static int trimStart(String value) {
+        int start = 0;
+        while (start < value.length() && value.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(String value, int start) {
+        int end = value.length();
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private static StringBuilder collapse(String value, int start, int end,
+                                          StringBuilder sb) {
+        char prev = 0;
+        for (int i = start; i < end; i++) {
+            final char c = value.charAt(i);
+            if (c != ' ' || prev != ' ') {
+                sb.append(c);
+            }
+            prev = c;
+        }
+        return sb;
     }
 
     /**
@@ -177,10 +222,48 @@ final class Utils {
      *
      * @param value The String to replace whitespaces in.
      * @return a copy of value with all characters matching "[\t\n\r]" replaced
-     *         by " " (a blank).
+     *         by " " (a blank), or value itself if there are none.
      */
     public static String wsReplace(String value) {
-        return value == null ? null : value.replaceAll("[\t\n\r]", " ");
+        if (value == null) {
+            return null;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (isWs(value.charAt(i))) {
+                final char[] chars = value.toCharArray();
+                for (int j = i; j < chars.length; j++) {
+                    if (isWs(chars[j])) {
+                        chars[j] = ' ';
+                    }
+                }
+                return new String(chars);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Whitespace replace, appending the result to a string builder.
+     *
+     * @param value The String to replace whitespaces in, or null to append
+     *            nothing.
+     * @param sb The string builder to append to.
+     * @return The string builder.
+     * @see #wsReplace(String)
+     */
+    public static StringBuilder wsReplace(String value, StringBuilder sb) {
+        if (value == null) {
+            return sb;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            sb.append(isWs(c) ? ' ' : c);
+        }
+        return sb;
+    }
+
+    private static boolean isWs(char c) {
+        return c == '\t' || c == '\n' || c == '\r';
     }
 
     public static boolean matches(String value, String[] regexes)
@@ -199,23 +282,24 @@ final class Utils {
         return matches;
     }
 
-    // Thanks Dimitris Kolovos for the code below
+    /**
+     * Escapes text for XML character data, see {@link XMLEncoder}. Returns
+     * the text itself if there is nothing to escape.
+     */
     public static String escapeXml(String original) {
-        String escaped = null;
-        try {
-            Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-            Text text = document.createTextNode(original);
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            DOMSource source = new DOMSource(text);
-            StringWriter writer = new StringWriter();
-            StreamResult result = new StreamResult(writer);
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-            transformer.transform(source, result);
-            escaped = writer.toString();
-        } catch (Exception ignored) {
-            // intentionally ignore
-        }
-        return (escaped != null) ? escaped : original ;
+        return XMLEncoder.escape(original, false);
+    }
+
+    /**
+     * Appends text escaped for XML character data to a string builder.
+     *
+     * @param original The text to escape.
+     * @param sb The string builder to append to.
+     * @return The string builder.
+     * @see #escapeXml(String)
+     */
+    public static StringBuilder escapeXml(String original, StringBuilder sb) {
+        return XMLEncoder.escape(original, false, sb);
     }
 
 }
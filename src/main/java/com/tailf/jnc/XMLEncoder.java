@@ -0,0 +1,400 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Encodes element trees as UTF-8 XML straight into an output stream.
+ * <p>
+ * Text is encoded and escaped character by character into a buffer that is
+ * written to the stream when full, and the qualified names of elements are
+ * encoded once per namespace, name and prefix scope. Element trees are
+ * encoded this way when sent by a {@link NetconfSession}, when written by
+ * {@link Element#writeFile(String)} and by
+ * {@link Element#encodedXMLString(boolean)}.
+ * <p>
+ * The write methods do not throw: the first IOException of the stream is
+ * kept, further output is dropped, and the exception is thrown by
+ * {@link #flush()} or {@link #close()}. An encoder is not thread-safe.
+ *
+ * <pre>
+ * XMLEncoder enc = new XMLEncoder(Files.newOutputStream(path));
+ * enc.encode(config, true);
+ * enc.close();
+ * </pre>
+ */
+public final class XMLEncoder {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final byte[] AMP = {'&', 'a', 'm', 'p', ';'};
+    private static final byte[] LT = {'&', 'l', 't', ';'};
+    private static final byte[] GT = {'&', 'g', 't', ';'};
+    private static final byte[] QUOT = {'&', 'q', 'u', 'o', 't', ';'};
+
+    private final OutputStream out;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int count;
+    private IOException error;
+
+    /**
+     * Creates an encoder writing to a stream.
+     *
+     * @param out The stream to write the encoded XML to
+     */
+    public XMLEncoder(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Encodes an element tree without indentation, as
+     * {@link Element#encodedXMLString(boolean)} does.
+     *
+     * @param e The root of the tree
+     * @param newlineAtEnd If 'true' a newline is written after each element
+     */
+    public void encode(Element e, boolean newlineAtEnd) {
+        startTag(e);
+        if (e.hasChildren()) {
+            write('>');
+            for (final Element child : e.children) {
+                encode(child, newlineAtEnd);
+            }
+        } else if (e.value != null) {
+            write('>');
+            text(e.value.toString(), false);
+        } else {
+            write('/');
+            write('>');
+            if (newlineAtEnd) {
+                write('\n');
+            }
+            return;
+        }
+        endTag(e, newlineAtEnd);
+    }
+
+    /**
+     * Writes the start of the start tag of an element: its qualified name,
+     * prefix mappings and attributes, but not the closing '&gt;'.
+     */
+    void startTag(Element e) {
+        write('<');
+        write(e.prefixScope().qualifiedName(e.namespace, e.name));
+        if (e.prefixes != null) {
+            for (final Prefix p : e.prefixes) {
+                write(' ');
+                write(p.qName);
+                write('=');
+                write('"');
+                text(p.value, true);
+                write('"');
+            }
+        }
+        if (e.attrs != null) {
+            for (final Attribute a : e.attrs) {
+                write(' ');
+                attribute(a, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the end tag of an element.
+     */
+    void endTag(Element e, boolean newlineAtEnd) {
+        write('<');
+        write('/');
+        write(e.prefixScope().qualifiedName(e.namespace, e.name));
+        write('>');
+        if (newlineAtEnd) {
+            write('\n');
+        }
+    }
+
+    /**
+     * Writes an attribute as prefix:name="value", with the prefix of its
+     * namespace in the context of an element.
+     */
+    void attribute(Attribute a, Element contextnode) {
+        // NOTE: Namespace is allowed to be "" for attributes
+        if (a.ns != null && a.ns.length() > 0) {
+            final String prefix = contextnode.nsToPrefix(a.ns);
+            if (prefix == null) {
+                write("unknown:");
+            } else if (prefix.length() > 0) {
+                write(prefix);
+                write(':');
+            }
+        }
+        write(a.name);
+        write('=');
+        write('"');
+        if (a.value != null) {
+            text(a.value, true);
+        } else {
+            write("null");
+        }
+        write('"');
+    }
+
+    /**
+     * Writes text as it is, encoded as UTF-8.
+     */
+    public void write(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                write(c);
+            } else {
+                i = writeChar(s, i);
+            }
+        }
+    }
+
+    /**
+     * Writes text escaped as XML character data, or as an attribute value.
+     *
+     * @param s The text
+     * @param attr If 'true' quotes are escaped as well
+     */
+    public void text(String s, boolean attr) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+            case '&':
+                write(AMP);
+                break;
+            case '<':
+                write(LT);
+                break;
+            case '>':
+                write(GT);
+                break;
+            case '"':
+                if (attr) {
+                    write(QUOT);
+                } else {
+                    write(c);
+                }
+                break;
+            default:
+                if (isCharRef(c)) {
+                    write("&#");
+                    write(Integer.toString(c));
+                    write(';');
+                } else if (c < 0x80) {
+                    write(c);
+                } else {
+                    i = writeChar(s, i);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes the bytes written so far to the stream and flushes it.
+     *
+     * @throws IOException The first error of the stream
+     */
+    public void flush() throws IOException {
+        drain();
+        if (error == null) {
+            try {
+                out.flush();
+            } catch (final IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Writes the bytes written so far to the stream and closes it.
+     *
+     * @throws IOException The first error of the stream
+     */
+    public void close() throws IOException {
+        drain();
+        try {
+            out.close();
+        } catch (final IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Returns true for the characters that are written as character
+     * references in text: the control characters other than tab, newline,
+     * carriage return and NUL.
+     */
+    static boolean isCharRef(char c) {
+        return c < 0x20 && c != '\t' && c != '\n' && c != '\r' && c != 0
+            || c >= 0x7f && c <= 0x9f;
+    }
+
+    /**
+     * Escapes text the way {@link #text(String, boolean)} does. Returns the
+     * text itself if there is nothing to escape.
+     */
+    static String escape(String s, boolean attr) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '&' || c == '<' || c == '>' || c == '"' && attr
+                    || isCharRef(c)) {
+                final StringBuilder b = new StringBuilder(s.length() + 16);
+                return escape(s, i, attr, b.append(s, 0, i)).toString();
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Appends text escaped the way {@link #text(String, boolean)} does.
+     *
+     * @return The string builder
+     */
+    static StringBuilder escape(String s, boolean attr, StringBuilder b) {
+        return escape(s, 0, attr, b);
+    }
+
+    private static StringBuilder escape(String s, int from, boolean attr,
+                                        StringBuilder b) {
+        for (int i = from; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+            case '&':
+                b.append("&amp;");
+                break;
+            case '<':
+                b.append("&lt;");
+                break;
+            case '>':
+                b.append("&gt;");
+                break;
+            case '"':
+                b.append(attr ? "&quot;" : "\"");
+                break;
+            default:
+                if (isCharRef(c)) {
+                    b.append("&#").append((int) c).append(';');
+                } else {
+                    b.append(c);
+                }
+                break;
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Encodes a string as UTF-8, the way the encoder writes it.
+     */
+    static byte[] utf8(String s) {
+        final byte[] b = new byte[s.length() * 3];
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                b[n++] = (byte) c;
+            } else {
+                final int cp = codePoint(s, i);
+                if (cp > 0xffff) {
+                    i++;
+                }
+                n = utf8(cp, b, n);
+            }
+        }
+        return Arrays.copyOf(b, n);
+    }
+
+    private void write(char c) {
+        if (count == buf.length) {
+            drain();
+        }
+        buf[count++] = (byte) c;
+    }
+
+    private void write(byte[] b) {
+        if (count + b.length > buf.length) {
+            drain();
+            if (b.length > buf.length) {
+                if (error == null) {
+                    try {
+                        out.write(b);
+                    } catch (final IOException e) {
+                        error = e;
+                    }
+                }
+                return;
+            }
+        }
+        System.arraycopy(b, 0, buf, count, b.length);
+        count += b.length;
+    }
+
+    /**
+     * Writes the character at i, or the surrogate pair starting at i, and
+     * returns the index of its last char.
+     */
+    private int writeChar(String s, int i) {
+        if (count + 4 > buf.length) {
+            drain();
+        }
+        final int cp = codePoint(s, i);
+        count = utf8(cp, buf, count);
+        return cp > 0xffff ? i + 1 : i;
+    }
+
+    /**
+     * Returns the code point at i, or '?' for an unpaired surrogate, as
+     * String.getBytes() does.
+     */
+    private static int codePoint(String s, int i) {
+        final char c = s.charAt(i);
+        if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+            return Character.toCodePoint(c, s.charAt(i + 1));
+        }
+        return Character.isSurrogate(c) ? '?' : c;
+    }
+
+    private static int utf8(int cp, byte[] b, int n) {
+        if (cp < 0x80) {
+            b[n++] = (byte) cp;
+        } else if (cp < 0x800) {
+            b[n++] = (byte) (0xc0 | cp >> 6);
+            b[n++] = (byte) (0x80 | cp & 0x3f);
+        } else if (cp < 0x10000) {
+            b[n++] = (byte) (0xe0 | cp >> 12);
+            b[n++] = (byte) (0x80 | cp >> 6 & 0x3f);
+            b[n++] = (byte) (0x80 | cp & 0x3f);
+        } else {
+            b[n++] = (byte) (0xf0 | cp >> 18);
+            b[n++] = (byte) (0x80 | cp >> 12 & 0x3f);
+            b[n++] = (byte) (0x80 | cp >> 6 & 0x3f);
+            b[n++] = (byte) (0x80 | cp & 0x3f);
+        }
+        return n;
+    }
+
+    private void drain() {
+        if (count > 0 && error == null) {
+            try {
+                out.write(buf, 0, count);
+            } catch (final IOException e) {
+                error = e;
+            }
+        }
+        count = 0;
+    }
+}
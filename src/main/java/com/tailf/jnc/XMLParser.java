@@ -1,36 +1,67 @@
 package com.tailf.jnc;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
+
 import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 /**
  * A simple SAX parser, for parsing NETCONF messages, into a simple
  * {@link Element} tree.
- *
+ * <p>
+ * The SAX reader and the content handler of a parser are reused for every
+ * document it parses, so a parser should be kept rather than created per
+ * message. A parser must only be used by one thread at a time; code that
+ * has no parser of its own can use the one returned by
+ * {@link #getThreadParser()}.
+ * <p>
+ * Documents are read with SAX unless the StAX backend is selected with
+ * {@link #setStax(boolean)}, which builds the same tree. SAX is the
+ * faster of the two on long text values (such as large <code>binary</code>
+ * leafs), see {@link #setStax(boolean)}.
+ * <p>
+ * In lazy mode (see {@link #setLazy(boolean)}) the content of an element is
+ * only parsed when it is first needed.
  */
 public class XMLParser {
 
+    /**
+     * The factory is looked up once, not once per parser.
+     */
+    private static final SAXParserFactory factory = newFactory();
+
+    private static final ThreadLocal<XMLParser> threadParser =
+        new ThreadLocal<XMLParser>();
+
     /** the parser implementation */
     protected XMLReader parser;
 
+    /** true while a document is being parsed */
+    boolean parsing;
+
+    private ConfHandler handler;
+
+    /** the StAX backend, null if SAX is used */
+    private StaxReader stax;
+
+    private boolean lazy;
+
     /**
      * Constructor. Initializes the parser instance.
      */
     public XMLParser() throws JNCException {
         try {
-            final String javaVersion = System.getProperty("java.version");
-            if (javaVersion.startsWith("1.4")) {
-                parser = XMLReaderFactory
-                        .createXMLReader("org.apache.crimson.parser.XMLReaderImpl");
-            } else {
-                parser = XMLReaderFactory.createXMLReader();
+            synchronized (factory) {
+                parser = factory.newSAXParser().getXMLReader();
             }
         } catch (final Exception e) {
             throw (JNCException) new JNCException(JNCException.PARSER_ERROR,
@@ -39,6 +70,71 @@ public class XMLParser {
 
     }
 
+    private static SAXParserFactory newFactory() {
+        final SAXParserFactory f = SAXParserFactory.newInstance();
+        f.setNamespaceAware(true);
+        return f;
+    }
+
+    /**
+     * Returns a parser confined to the calling thread. The parser is created
+     * on first use and then kept for the thread; if it is already parsing
+     * (the call is made from within a parse), a new parser is returned.
+     */
+    public static XMLParser getThreadParser() throws JNCException {
+        XMLParser p = threadParser.get();
+        if (p == null) {
+            p = new XMLParser();
+            threadParser.set(p);
+        } else if (p.parsing) {
+            p = new XMLParser();
+        }
+        return p;
+    }
+
+    /**
+     * Selects the backend used by {@link #parse(InputSource)}: StAX if true,
+     * SAX (the default) if false. StAX is about as fast as SAX on replies
+     * made of many small elements, and slower on replies with long text
+     * values; see XMLParserBenchmark.
+     */
+    public void setStax(boolean stax) {
+        this.stax = stax ? new StaxReader() : null;
+    }
+
+    /**
+     * Returns true if the StAX backend is used.
+     */
+    public boolean isStax() {
+        return stax != null;
+    }
+
+    /**
+     * Selects lazy parsing of documents given as strings or byte arrays.
+     * <p>
+     * A lazily parsed tree is built one level at a time: the content of an
+     * element that has child elements is only parsed when it is first
+     * needed, for example by {@link Element#getChildren()},
+     * {@link Element#get(String)} or iteration. Until then only its location
+     * in the document is kept, so a caller that reads a small part of a large
+     * document pays little more than the cost of scanning it. The trees are
+     * otherwise the same as when parsed eagerly.
+     * <p>
+     * Errors in the content of an element are only detected when it is
+     * parsed, and are then thrown as an {@link IllegalStateException}.
+     * Elements being parsed must not be accessed by other threads.
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Returns true if documents are parsed lazily.
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
     /**
      * The handler with hooks for startElement etc. The SAX parser will build
      * up the parse tree, by calling these hooks.
@@ -50,18 +146,33 @@ public class XMLParser {
         public Element top;
         public PrefixMap prefixes;
 
+        /**
+         * Drops the tree of the last document.
+         */
+        void clear() {
+            current = null;
+            top = null;
+            prefixes = null;
+        }
+
+        @Override
+        public void startDocument() {
+            clear();
+        }
+
         @Override
         public void startElement(String uri, String localName, String qName,
                 Attributes attributes) throws SAXException {
-            final Element child = new Element(uri, localName);
+            final Element child = new Element(Symbols.intern(uri),
+                                              Symbols.intern(localName));
             child.prefixes = prefixes;
             prefixes = null;
 
             // add other attributes
             for (int i = 0; i < attributes.getLength(); i++) {
-                final String attrName = attributes.getLocalName(i);
+                final String attrName = Symbols.intern(attributes.getLocalName(i));
                 // String attrType= attributes.getType(i);
-                final String attrUri = attributes.getURI(i);
+                final String attrUri = Symbols.intern(attributes.getURI(i));
                 final String attrValue = attributes.getValue(i);
                 final Attribute attr = new Attribute(attrUri, attrName,
                         attrValue);
@@ -87,16 +198,15 @@ public class XMLParser {
                 // MIXED content not allowed
                 current.value = null;
             }
+            current.trimToSize();
             // step up
             current = current.getParent();
         }
 
         @Override
         public void characters(char[] ch, int start, int length) {
-            if (current.value == null) {
-                current.value = "";
-            }
-            current.value = current.value + new String(ch, start, length);
+            final String s = new String(ch, start, length);
+            current.value = current.value == null ? s : current.value + s;
         }
 
         @Override
@@ -105,7 +215,8 @@ public class XMLParser {
             if (prefixes == null) {
                 prefixes = new PrefixMap();
             }
-            prefixes.add(new Prefix(prefix, uri));
+            prefixes.add(new Prefix(Symbols.intern(prefix),
+                                    Symbols.intern(uri)));
             trace("added prefixmapping: %s", prefix);
         }
     }
@@ -114,14 +225,18 @@ public class XMLParser {
      * Read in an XML file and parse it and return an element tree.
      */
     public Element readFile(String filename) throws JNCException {
+        final ConfHandler h = handler();
+        parser.setContentHandler(h);
+        parsing = true;
         try {
-            final ConfHandler handler = new ConfHandler();
-            parser.setContentHandler(handler);
             parser.parse(filename);
-            return handler.top;
+            return h.top;
         } catch (final Exception e) {
             throw (JNCException) new JNCException(JNCException.PARSER_ERROR, "parse file: "
                     + filename).initCause(e);
+        } finally {
+            parsing = false;
+            h.clear();
         }
     }
 
@@ -131,14 +246,39 @@ public class XMLParser {
      * @param is Inputsource (byte stream) where the XML text is read from
      */
     public Element parse(InputSource is) throws JNCException {
+        final ConfHandler h = handler();
+        parsing = true;
         try {
-            final ConfHandler handler = new ConfHandler();
-            parser.setContentHandler(handler);
-            parser.parse(is);
-            return handler.top;
+            read(is, h);
+            return h.top;
         } catch (final Exception e) {
             throw (JNCException) new JNCException(JNCException.PARSER_ERROR,
                 "parse error").initCause(e);
+        } finally {
+            parsing = false;
+            h.clear();
+        }
+    }
+
+    private ConfHandler handler() {
+        if (handler == null) {
+            handler = new ConfHandler();
+        }
+        return handler;
+    }
+
+    /**
+     * Reads a document with the selected backend, calling the content
+     * handler for its elements.
+     */
+    void read(InputSource is, ContentHandler h)
+        throws IOException, SAXException, XMLStreamException {
+        final StaxReader s = stax;
+        if (s != null) {
+            s.read(is, h);
+        } else {
+            parser.setContentHandler(h);
+            parser.parse(is);
         }
     }
 
@@ -149,10 +289,46 @@ public class XMLParser {
      * @param str String containing the XML text to parse
      */
     public Element parse(String str) throws JNCException {
-        final ByteArrayInputStream istream = new ByteArrayInputStream(
-                str.getBytes(StandardCharsets.UTF_8));
-        final InputSource is = new InputSource(istream);
-        return parse(is);
+        return parse(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses a UTF-8 encoded XML document, returning a Element tree
+     * representing the XML structure. If the document is parsed lazily, the
+     * array is kept and must not be modified.
+     *
+     * @param data The XML text to parse
+     */
+    public Element parse(byte[] data) throws JNCException {
+        if (lazy) {
+            return LazySubtree.parse(this, data);
+        }
+        return parseEagerly(data);
+    }
+
+    Element parseEagerly(byte[] data) throws JNCException {
+        return parse(new InputSource(new ByteArrayInputStream(data)));
+    }
+
+    /**
+     * Parses the content of an element, given as a wrapped document (see
+     * {@link LazySubtree}), into the element.
+     */
+    void parseInto(Element e, InputSource is) throws JNCException {
+        final ConfHandler h = handler();
+        parsing = true;
+        try {
+            read(is, new LazySubtree.ContentFilter(h, () -> {
+                h.current = e;
+                h.top = e;
+            }));
+        } catch (final Exception x) {
+            throw (JNCException) new JNCException(JNCException.PARSER_ERROR,
+                "parse error").initCause(x);
+        } finally {
+            parsing = false;
+            h.clear();
+        }
     }
 
     /**
@@ -152,6 +152,15 @@ abstract class YangBaseType<T> implements Cloneable, YangType<T> {
         return value.hashCode();
     }
 
+    /**
+     * Folds what {@link #equals(Object)} compares besides the value, such
+     * as the fraction digits or the enum names, into a digest, see
+     * {@link Element#digest()}. Nothing by default.
+     */
+    long digestType(long h) {
+        return h;
+    }
+
     /**
      * Clones this object without cloning its value.
      * 
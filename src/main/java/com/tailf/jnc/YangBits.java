@@ -114,6 +114,18 @@ public class YangBits extends YangBaseInt<BigInteger> {
         return super.hashCode() + mask.hashCode() + mapHashCodes;
     }
 
+    @Override
+    long digestType(long h) {
+        h = Digest.string(h, mask == null ? null : mask.toString());
+        h = Digest.strings(h, smap);
+        if (imap != null) {
+            for (final int i : imap) {
+                h = Digest.mix(h, i);
+            }
+        }
+        return h;
+    }
+
     /*
      * (non-Javadoc)
      *
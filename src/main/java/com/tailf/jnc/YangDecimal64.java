@@ -179,6 +179,11 @@ public class YangDecimal64 extends YangBaseInt<BigDecimal> {
         return (fractionDigits == null) ? hash : hash << fractionDigits;
     }
 
+    @Override
+    long digestType(long h) {
+        return Digest.mix(h, fractionDigits == null ? -1 : fractionDigits);
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -1,10 +1,15 @@
 package com.tailf.jnc;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The YangElement is a configuration sub-tree like the
@@ -105,8 +110,17 @@ public abstract class YangElement extends Element {
             IllegalAccessException {
         final String className = pkg + "." + getPackage(parent)
                 + normalize(name);
-        final Class<?> rootClass = Class.forName(className);
-        return (Element) rootClass.newInstance();
+        final MethodHandle creator = Handles.creator(className);
+        if (creator == Handles.NONE) {
+            throw new ClassNotFoundException(className);
+        }
+        try {
+            return (Element) (Object) creator.invokeExact();
+        } catch (final RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw (InstantiationException) new InstantiationException(className).initCause(e);
+        }
     }
 
     /**
@@ -137,23 +151,23 @@ public abstract class YangElement extends Element {
                 return instantiate(null, name, pkg); // Root
             } else if (parent instanceof YangElement) {
                 // YangElement child, aware
-                try {
-                    return ((YangElement) parent).addChild(name);
-                } catch (final NoSuchMethodException e) {
-                    if (((YangElement) parent).isChild(name)) {
-                        // known existing leaf will be handled by endElement
-                        return null;
-                    }
-                    // It's an unknown element or child
-                    // FIXME - check capabilities
-                    if (!RevisionInfo.newerRevisionSupportEnabled) {
-                        throw (YangException) new YangException(
-                                YangException.ELEMENT_MISSING,
-                                parent.getElementPath(name) + COLON_UNEXPECTED_ELEMENT).initCause(e);
-                    }
-                    parser.unknownLevel = 1;
+                final Element child = ((YangElement) parent).addChildByName(name);
+                if (child != NO_SUCH_CHILD) {
+                    // null for a leaf, handled by endElement
+                    return child;
+                }
+                if (((YangElement) parent).isChild(name)) {
+                    // known existing leaf will be handled by endElement
                     return null;
                 }
+                // It's an unknown element or child
+                // FIXME - check capabilities
+                if (!RevisionInfo.newerRevisionSupportEnabled) {
+                    throw new YangException(YangException.ELEMENT_MISSING,
+                            parent.getElementPath(name) + COLON_UNEXPECTED_ELEMENT);
+                }
+                parser.unknownLevel = 1;
+                return null;
             } else { // YangElement is aware but parent is not
                      // This is the case where we stop parsing
                      // the NETCONF rpc data and start to create
@@ -166,7 +180,9 @@ public abstract class YangElement extends Element {
             e.printStackTrace();
             throw (YangException) new YangException(YangException.ELEMENT_MISSING,
                     (parent != null ? parent.getElementPath(name) : null) + COLON_UNEXPECTED_ELEMENT).initCause(e);
-        } catch (final InvocationTargetException e) {
+        } catch (final YangException e) {
+            throw e;
+        } catch (final JNCException e) {
             throw (YangException) new YangException(YangException.ELEMENT_MISSING,
                     parent.getElementPath(name) + COLON_UNEXPECTED_ELEMENT).initCause(e);
         }
@@ -185,48 +201,55 @@ public abstract class YangElement extends Element {
             throws YangException, JNCException {
 
         // Aware
-        final String methodName = "set" + normalize(name) + "Value";
-        final Class<?>[] types = new Class[] { String.class };
+        final boolean known;
         try {
-            Method setLeafValue = getClass().getMethod(methodName, types);
-            setLeafValue.invoke(this, new Object[] { value });
-        } catch (final NoSuchMethodException e) {
-            if (!RevisionInfo.newerRevisionSupportEnabled) {
-                // e.printStackTrace();
-                throw (YangException) new YangException(YangException.ELEMENT_MISSING,
-                        getElementPath(name) + COLON_UNEXPECTED_ELEMENT).initCause(e);
-            }
-            final NodeSet nodes = get(name);
-            if (nodes.isEmpty()) {
-                final Element leaf = new Element(ns, name);
-                leaf.setValue(value);
-                insertLast(leaf);
-            } else {
-                final Element leaf = nodes.first();
-                leaf.setValue(value);
-            }
-        } catch (final InvocationTargetException cm) {
+            known = setLeafValueByName(name, value);
+        } catch (final JNCException | RuntimeException e) {
             // case with added enumerations,
             if (!RevisionInfo.newerRevisionSupportEnabled) {
                 throw (YangException) new YangException(YangException.BAD_VALUE,
-                        getElementPath(name) + ": " + cm.getCause().toString()).initCause(cm);
+                        getElementPath(name) + ": " + e.toString()).initCause(e);
             }
-
-            final NodeSet nodes = get(name);
-            if (nodes.isEmpty()) {
-                final Element leaf = new Element(ns, name);
-                leaf.setValue(value);
-                insertLast(leaf);
-            } else {
-                final Element leaf = nodes.first();
-                leaf.setValue(value);
+            setInvalidLeafValue(ns, name, value);
+            return;
+        }
+        if (!known) {
+            if (!RevisionInfo.newerRevisionSupportEnabled) {
+                throw new YangException(YangException.ELEMENT_MISSING,
+                        getElementPath(name) + COLON_UNEXPECTED_ELEMENT);
             }
+            setUnknownLeafValue(ns, name, value);
+        }
+    }
+
+    /**
+     * Sets the value of a leaf of the data model that is not valid for its
+     * type, as a string. The leaf is a {@link Leaf} at its position in the
+     * schema, as if its add method had been called.
+     */
+    private void setInvalidLeafValue(String ns, String name, String value)
+            throws JNCException {
+        final Element leaf = get(name).first();
+        if (leaf == null) {
+            setLeafValue(ns, name, value, childrenNames());
+        } else {
+            leaf.setValue(value);
         }
+    }
 
-        catch (final Exception invErr) {
-            // type error
-            throw (YangException) new YangException(YangException.BAD_VALUE, getElementPath(name)
-                    + ": " + invErr.getCause().toString()).initCause(invErr);
+    /**
+     * Sets the value of a leaf that is not in the data model, as a string.
+     */
+    private void setUnknownLeafValue(String ns, String name, String value)
+            throws JNCException {
+        final NodeSet nodes = get(name);
+        if (nodes.isEmpty()) {
+            final Element leaf = new Element(ns, name);
+            leaf.setValue(value);
+            insertLast(leaf);
+        } else {
+            final Element leaf = nodes.first();
+            leaf.setValue(value);
         }
     }
 
@@ -514,26 +537,48 @@ public abstract class YangElement extends Element {
         for (; i < names.length; i++) {
             final NodeSet nsA = getChildren(names[i]);
             final NodeSet nsB = b.getChildren(names[i]);
-
-            int hits = 0;
-            for (int j = 0; j < nsA.size(); j++) {
-                final Element cA = nsA.get(j);
-                // Now does this elem exist in nsB
-                for (int k = 0; k < nsB.size(); k++) {
-                    final Element cB = nsB.get(k);
-                    if (cA.equals(cB)) {
-                        hits++;
-                        break;
-                    }
-                }
-            }
-            if (nsA.size() != nsB.size() || nsA.size() != hits) {
+            if (nsA.size() != nsB.size() || !containsAll(nsB, nsA)) {
                 return 1;
             }
         }
         return 0;
     }
 
+    /**
+     * Returns true if every element of a equals some element of b.
+     */
+    private static boolean containsAll(NodeSet b, NodeSet a) {
+        if (a.size() <= 1) {
+            return a.isEmpty() || b.contains(a.get(0));
+        }
+        final Map<Object, NodeSet> byValue = new HashMap<Object, NodeSet>();
+        for (final Element cB : b) {
+            final Object v = ChildMatcher.valueKey(cB.value);
+            NodeSet same = byValue.get(v);
+            if (same == null) {
+                same = new NodeSet(1);
+                byValue.put(v, same);
+            }
+            same.add(cB);
+        }
+        for (final Element cA : a) {
+            final NodeSet same = byValue.get(ChildMatcher.valueKey(cA.value));
+            if (same == null || !containsEqual(same, cA)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsEqual(NodeSet s, Element e) {
+        for (final Element x : s) {
+            if (e.equals(x)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Compares children values of this YangElement with those of another
      * Element. Returns:
@@ -587,59 +632,62 @@ public abstract class YangElement extends Element {
      */
     public static void getDiff(YangElement a, YangElement b, NodeSet uniqueA,
             NodeSet uniqueB, NodeSet changedA, NodeSet changedB) {
-        if (a.compare(b) >= 0) {
-            // parents are equal, go through the children.
-            final NodeSet bList = new NodeSet();
-            if (a.children == null || b.children == null) {
-                if (b.children != null) {
-                    uniqueB.addAll(b.children);
-                } else if (a.children != null) {
-                    uniqueA.addAll(a.children);
-                }
-                return;
-            }
-            bList.addAll(b.children);
-
-            // For each child in a, compare with children in b.
-            for (int i = 0; i < a.children.size(); i++) {
-                final Element aChild = a.children.getElement(i);
-                Element bChild = null;
-                int bRes = -1;
-                int j;
-                for (j = 0; j < bList.size(); j++) {
-                    bChild = bList.getElement(j);
-                    bRes = aChild.compare(bChild);
-                    if (bRes >= 0) {
-                        break;
-                    }
-                }
-                if (bRes >= 0) {
-                    // child at position j in bList compares equal, remove it.
-                    bList.remove(j);
-                    if (bRes == 1) { // different content
-                        changedA.add(aChild);
-                        changedB.add(bChild);
-                    } else if (aChild instanceof YangElement) {
-                        // bRes == 0 so they are equal, but their children
-                        // might not be, so we recurse
-                        YangElement.getDiff((YangElement) aChild,
-                                (YangElement) bChild, uniqueA, uniqueB,
-                                changedA, changedB);
-                    }
-                    // Skip if equal and not YangElement
-                } else { // not found
-                    uniqueA.add(aChild);
-                }
-            }
-            // Add any remaining nodes in bList to uniqueB
-            uniqueB.addAll(bList);
-        } else {
-            // a.compare(b) == -1: A and B are completely different
-            uniqueA.add(a);
-            uniqueB.add(b);
-        }
+        new TreeDiff(parallelDiffThreshold, subtreeDigests).getDiff(a, b,
+                uniqueA, uniqueB, changedA, changedB);
+    }
+
+    /**
+     * Sets from how many sibling pairs, or children of siblings, the diff
+     * of {@link #getDiff}, {@link #checkSync}, {@link #sync} and
+     * {@link #syncMerge} is split between the threads of the
+     * {@link java.util.concurrent.ForkJoinPool#commonPool() common pool}.
+     * The results are the same as when diffing on one thread. The trees
+     * must not be changed while they are diffed. Splitting only pays off
+     * with several processors; on one, it adds some overhead.
+     *
+     * @param threshold Number of pairs or children, or 0 (the default) to
+     *            diff on the calling thread
+     */
+    public static void setParallelDiffThreshold(int threshold) {
+        parallelDiffThreshold = Math.max(0, threshold);
     }
 
+    /**
+     * @return The threshold set with {@link #setParallelDiffThreshold}
+     */
+    public static int getParallelDiffThreshold() {
+        return parallelDiffThreshold;
+    }
+
+    private static volatile int parallelDiffThreshold;
+
+    /**
+     * Sets whether {@link #getDiff} and {@link #checkSync} skip subtrees
+     * with equal digests. A digest is a 64-bit hash of the
+     * name, namespace, value, attributes and children digests of a subtree.
+     * It is kept on the element and dropped when the subtree is changed
+     * through the methods of its elements, so diffing a tree again and again
+     * against trees that are mostly the same walks only the parts that
+     * differ. After changing an element in any other way, call
+     * {@link Element#invalidateDigest()} on it.
+     *
+     * @param enabled true to use subtree digests, false (the default) to
+     *            compare every node
+     */
+    public static void setSubtreeDigests(boolean enabled) {
+        subtreeDigests = enabled;
+    }
+
+    /**
+     * @return Whether subtree digests are used, see
+     *         {@link #setSubtreeDigests}
+     */
+    public static boolean getSubtreeDigests() {
+        return subtreeDigests;
+    }
+
+    private static volatile boolean subtreeDigests;
+
     /**
      * Checks if two configurations are equal, or if a sync is needed.
      * 
@@ -772,145 +820,38 @@ public abstract class YangElement extends Element {
     public static YangElement syncMerge(YangElement a, YangElement b) {
         final YangElement copy = (YangElement) b.clone();
         final NodeSet toDel = new NodeSet();
-        YangElement.csync2((YangElement) a.clone(), copy, toDel);
-        for (int i = 0; i < toDel.size(); i++) {
-            final Element e = toDel.get(i);
-            e.getParent().deleteChild(e);
-        }
+        new TreeDiff(parallelDiffThreshold, false).sync((YangElement) a.clone(), copy,
+                toDel);
+        deleteAll(toDel);
         return copy;
     }
 
     /**
-     * Which NETCONF do we need to produce in order to go from a to b?
-     * 
-     * @param a Subtree to sync
-     * @param b Copy of subtree to mimic
-     * @param toDel A list with leaves that should be removed from 'b'
-     * @return Number of diffs
+     * Deletes elements from their parents, with one pass over the children
+     * of each parent.
      */
-    private static int csync2(YangElement a, YangElement b, NodeSet toDel) {
-        int diffs = 0;
-        for (int i = 0; b.children != null && i < b.children.size(); i++) {
-            final Element bChild = b.children.get(i);
-            if (a.keyNames() != null && bChild instanceof Leaf && ((Leaf) bChild).isKey()) {
-                // inside list entries we ignore keys
-                continue;
-            }
-
-            Element aChild = null;
-            if (a.children != null) {
-                aChild = YangElement.findDeleteChild(bChild, a.children);
-            }
-            if (aChild == null) {
-                // It's a new child that needs to be merged
-                diffs++;
-                continue;
-            }
-
-            // It was found - and it was also deleted from 'a'
-            if (aChild instanceof YangElement) {
-                final int d = YangElement.csync2((YangElement) aChild,
-                        (YangElement) bChild, toDel);
-                diffs += d;
-                if (d == 0) {
-                    // both children are identical - remove from b as well
-                    toDel.add(bChild);
-                }
-            } else if (aChild instanceof Leaf) {
-                if (aChild.equals(bChild)) {
-                    // remove identical leaves from b - no need to send them
-                    toDel.add(bChild);
-                } else {
-                    diffs++;
-                }
+    private static void deleteAll(NodeSet elements) {
+        final Map<Element, Set<Element>> byParent = new IdentityHashMap<Element, Set<Element>>();
+        for (final Element e : elements) {
+            Set<Element> s = byParent.get(e.getParent());
+            if (s == null) {
+                s = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+                byParent.put(e.getParent(), s);
             }
+            s.add(e);
         }
-
-        // Mark remaining elements in 'a' for deletion and move them to 'b'
-        for (int i = 0; a.children != null && i < a.children.size(); i++) {
-            final Element x = a.children.get(i);
-            if (x instanceof Leaf) {
-                final Leaf leaf = (Leaf) x;
-                if (leaf.isKey()) {
-                    // ignore key leafs - they're handled elsewhere
-                    continue;
-                }
-                diffs++;
-                b.addChild(x);
-                x.markDelete();
-            }
-
-            // Remove all children except keys (if any)
-            else if (x instanceof YangElement) {
-                diffs++;
-                final YangElement c = (YangElement) x;
-                final YangElement n = (YangElement) c.cloneShallow();
-                b.addChild(n);
-                n.markDelete();
-            }
-        }
-        return diffs;
-    }
-
-    private static Element findDeleteChild(Element e, NodeSet s) {
-        if (s == null) {
-            return null;
-        }
-        if (e instanceof Leaf) {
-            return findDeleteChildLeaf((Leaf) e, s);
-        } else if (e instanceof YangElement) {
-            return deleteChild((YangElement) e, s);
-        } else {
-            // It's the case where we receive Elements
-            // instead of YangElement/Leaf because the device
-            // has a newer revision than us. This code can
-            // never be made to work perfect.
-            return findDeleteChildElement(e, s);
-        }
-    }
-
-    private static Element findDeleteChildElement(Element e, NodeSet s) {
-        for (int i = 0; i < s.size(); i++) {
-            final Element x = s.get(i);
-            if (x.compare(e) >= 0) {
-                s.remove(i);
-                return x;
-            }
-        }
-        return null;
-    }
-
-    private static Element deleteChild(YangElement e, NodeSet s) {
-        final String[] keys = e.keyNames();
-        for (int i = 0; i < s.size(); i++) {
-            final Element x = s.get(i);
-            if (x instanceof Leaf) {
+        for (final Map.Entry<Element, Set<Element>> entry : byParent.entrySet()) {
+            final Set<Element> s = entry.getValue();
+            if (s.size() == 1) {
+                entry.getKey().deleteChild(s.iterator().next());
                 continue;
             }
-            // Assuming YangElement if not Leaf
-            final YangElement c = (YangElement) x;
-            if (keys == null) {
-                if (e.equals(x)) {
-                    s.remove(i);
-                    return c;
-                }
-            } else if (e.keyCompare(c)) {
-                s.remove(i);
-                return c;
-            }
-        }
-        return null;
-    }
-
-    private static Element findDeleteChildLeaf(Leaf e, NodeSet s) {
-        for (int i = 0; i < s.size(); i++) {
-            final Element x = s.get(i);
-            if (x instanceof Leaf && x.compare(e) >= 0) {
-              s.remove(i);
-              return x;
+            entry.getKey().getChildren().removeIf(s::contains);
+            for (final Element e : s) {
+                e.parent = null;
+                e.invalidatePrefixScope();
             }
         }
-        return null;
     }
 
     /**
@@ -973,6 +914,7 @@ public abstract class YangElement extends Element {
      *         YangElement added.
      */
     protected YangElement cloneContent(YangElement copy) {
+        materialize();
         // copy children, except keys which are already copied
         if (children != null) {
             final String[] keyNames = keyNames();
@@ -1000,8 +942,7 @@ public abstract class YangElement extends Element {
      * @see #writeFile(String)
      */
     public static YangElement readFile(String filename) throws JNCException {
-        final YangXMLParser p = new YangXMLParser();
-        return p.readFile(filename);
+        return YangXMLParser.getThreadParser().readFile(filename);
     }
 
     // cache the Tagpath and the SchemaNode
@@ -1080,9 +1021,84 @@ public abstract class YangElement extends Element {
      * @throws NoSuchMethodException
      */
     public Element addChild(String childName) throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
-        final String methodName = "add" + normalize(childName);
-        final Method addChild = getClass().getMethod(methodName, new Class[] {});
-        return (Element) addChild.invoke(this, new Object[] {});
+        final MethodHandle adder = Handles.adder(getClass(), childName);
+        if (adder == Handles.NONE) {
+            throw new NoSuchMethodException("add" + normalize(childName));
+        }
+        return invokeAdder(adder);
+    }
+
+    private Element invokeAdder(MethodHandle adder)
+            throws InvocationTargetException {
+        try {
+            return (Element) (Object) adder.invokeExact((Object) this);
+        } catch (final Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * Returned by {@link #addChildByName} for names that are not the names
+     * of children.
+     */
+    protected static final Element NO_SUCH_CHILD = new Element("", "");
+
+    /**
+     * Adds the child with the specified name, for the parsers. Classes
+     * generated by the JNC pyang plugin override this with a switch on the
+     * names of their children. This implementation, for classes generated by
+     * earlier versions of the plugin, calls the add method of the child
+     * through a cached method handle.
+     *
+     * @param childName The name of the child to add
+     * @return The added child, null if it is a leaf or leaf-list, or
+     *         {@link #NO_SUCH_CHILD} if there is no child with that name.
+     * @throws JNCException If the child could not be added
+     */
+    protected Element addChildByName(String childName) throws JNCException {
+        try {
+            final MethodHandle adder = Handles.adder(getClass(), childName);
+            return adder == Handles.NONE ? NO_SUCH_CHILD : invokeAdder(adder);
+        } catch (final IllegalAccessException | InvocationTargetException e) {
+            throw (YangException) new YangException(YangException.ELEMENT_MISSING,
+                    getElementPath(childName) + COLON_UNEXPECTED_ELEMENT).initCause(e);
+        }
+    }
+
+    /**
+     * Sets the value of the leaf or leaf-list child with the specified name
+     * from a string, for the parsers. Classes generated by the JNC pyang
+     * plugin override this with a switch on the names of their leafs. This
+     * implementation, for classes generated by earlier versions of the
+     * plugin, calls the set method of the leaf through a cached method
+     * handle.
+     *
+     * @param leafName The name of the leaf
+     * @param value The value to set
+     * @return false if there is no leaf with that name
+     * @throws JNCException If the value is not valid for the leaf
+     */
+    protected boolean setLeafValueByName(String leafName, String value)
+            throws JNCException {
+        final MethodHandle setter;
+        try {
+            setter = Handles.setter(getClass(), leafName);
+        } catch (final IllegalAccessException e) {
+            throw (YangException) new YangException(YangException.BAD_VALUE,
+                    getElementPath(leafName) + ": " + e).initCause(e);
+        }
+        if (setter == Handles.NONE) {
+            return false;
+        }
+        try {
+            setter.invokeExact((Object) this, value);
+            return true;
+        } catch (final JNCException | RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw (YangException) new YangException(YangException.BAD_VALUE,
+                    getElementPath(leafName) + ": " + e).initCause(e);
+        }
     }
 
 }
@@ -100,6 +100,11 @@ public class YangEnumeration extends YangBaseString {
         return enums == null ? hash : hash + Arrays.hashCode(enums);
     }
 
+    @Override
+    long digestType(long h) {
+        return Digest.strings(h, enums);
+    }
+
     /*
      * (non-Javadoc)
      * @see com.tailf.jnc.YangBaseString#cloneShallow()
@@ -1,7 +1,7 @@
 package com.tailf.jnc;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Arrays;
 
 /**
@@ -100,15 +100,20 @@ public class YangUnion extends YangBaseType<YangType<?>> {
         String[] mtypes = memberTypes();
         for (String memberType : mtypes) {
             try {
-                Class<?> cl = Class.forName(memberType);
-                Constructor<?> c;
-                c = cl.getConstructor(new Class[] { String.class });
-                Object o = c.newInstance(new Object[] { s });
+                MethodHandle parser = Handles.parser(memberType);
+                if (parser == Handles.NONE) {
+                    continue;
+                }
+                Object o = parser.invokeExact(s);
                 if (o instanceof YangType<?>) {
                     return (YangType<?>) o;
                 }
-            } catch (InvocationTargetException|NoSuchMethodException|IllegalAccessException|InstantiationException|ClassNotFoundException e) {
+            } catch (final Exception e) {
                 continue;
+            } catch (final Error e) {
+                throw e;
+            } catch (final Throwable e) {
+                throw new UndeclaredThrowableException(e);
             }
             // Unable to instantiate a value of this memberType - try next
         }
@@ -163,6 +168,11 @@ public class YangUnion extends YangBaseType<YangType<?>> {
         return (memberTypes == null) ? hash : hash + Arrays.hashCode(memberTypes);
     }
 
+    @Override
+    long digestType(long h) {
+        return Digest.strings(h, memberTypes);
+    }
+
     /*
      * (non-Javadoc)
      * @see com.tailf.jnc.YangBaseType#cloneShallow()
@@ -12,6 +12,11 @@ import org.xml.sax.InputSource;
  */
 public class YangXMLParser extends XMLParser {
 
+    private static final ThreadLocal<YangXMLParser> threadParser =
+        new ThreadLocal<YangXMLParser>();
+
+    private ElementHandler handler;
+
     /**
      * Constructor. Initializes the parser instance.
      */
@@ -19,20 +24,40 @@ public class YangXMLParser extends XMLParser {
         super();
     }
 
+    /**
+     * Returns a data model aware parser confined to the calling thread.
+     *
+     * @see XMLParser#getThreadParser()
+     */
+    public static YangXMLParser getThreadParser() throws JNCException {
+        YangXMLParser p = threadParser.get();
+        if (p == null) {
+            p = new YangXMLParser();
+            threadParser.set(p);
+        } else if (p.parsing) {
+            p = new YangXMLParser();
+        }
+        return p;
+    }
+
     /**
      * Read in an XML file, parse it using an ElementHandler as content
      * handler, and return the parsed YangElement tree.
      */
     @Override
     public YangElement readFile(String filename) throws JNCException {
+        final ElementHandler h = handler();
+        parser.setContentHandler(h);
+        parsing = true;
         try {
-            final ElementHandler handler = new ElementHandler();
-            parser.setContentHandler(handler);
             parser.parse(filename);
-            return (YangElement) handler.top;
+            return (YangElement) h.top;
         } catch (final Exception e) {
             throw (JNCException) new JNCException(JNCException.PARSER_ERROR, "parse file: "
                     + filename + " error").initCause(e);
+        } finally {
+            parsing = false;
+            h.clear();
         }
     }
 
@@ -44,16 +69,41 @@ public class YangXMLParser extends XMLParser {
      */
     @Override
     public Element parse(InputSource is) throws JNCException {
+        final ElementHandler h = handler();
+        parsing = true;
         try {
-            final ElementHandler handler = new ElementHandler();
-            parser.setContentHandler(handler);
-            parser.parse(is);
-            return handler.top;
+            read(is, h);
+            return h.top;
         } catch (final Exception e) {
             e.printStackTrace();
             throw (JNCException) new JNCException(JNCException.PARSER_ERROR,
                 "parse error").initCause(e);
+        } finally {
+            parsing = false;
+            h.clear();
+        }
+    }
+
+    @Override
+    void parseInto(Element e, InputSource is) throws JNCException {
+        final ElementHandler h = handler();
+        parsing = true;
+        try {
+            read(is, new LazySubtree.ContentFilter(h, () -> h.startAt(e)));
+        } catch (final Exception x) {
+            throw (JNCException) new JNCException(JNCException.PARSER_ERROR,
+                "parse error").initCause(x);
+        } finally {
+            parsing = false;
+            h.clear();
+        }
+    }
+
+    private ElementHandler handler() {
+        if (handler == null) {
+            handler = new ElementHandler();
         }
+        return handler;
     }
 
 }
@@ -0,0 +1,73 @@
+package com.tailf.jnc.framing;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Common parts of the framers: the input is read in blocks into a
+ * read buffer that is owned by the framer, so that the stream never
+ * needs to be rewound and every input byte is passed to the
+ * <code>DataReader</code> exactly once.
+ */
+abstract class BaseFramer implements Framer {
+    static final int BUFSIZ = 8 * 1024;
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    DataReader rdr;
+    InputStream in;
+    OutputStream out;
+    BaseReader<byte[]> inFacade;
+    byte[] buf = new byte[BUFSIZ];
+    int bufPos;
+    int bufEnd;
+    final FrameBuffer frame = new FrameBuffer();
+    int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    BaseFramer(DataReader rdr, InputStream in, OutputStream out) {
+        this.rdr = rdr;
+        this.in = in;
+        this.out = out;
+        inFacade = new ByteReader(in);
+    }
+
+    /**
+     * Make sure there is some unread data in the read buffer.
+     */
+    void fill() throws IOException {
+        if (bufPos == bufEnd) {
+            int read = rdr.readData(inFacade, buf);
+            if (read < 0) {
+                throw new IOException("Unexpected end of input");
+            }
+            bufPos = 0;
+            bufEnd = read;
+        }
+    }
+
+    @Override
+    public String parseFrame() throws IOException {
+        parseFrameBytes();
+        return frame.decode();
+    }
+
+    @Override
+    public long getBufferAllocations() {
+        return frame.allocations();
+    }
+
+    @Override
+    public void sendFrame(String frame) throws IOException {
+        try (OutputStream frameOut = openFrameOutput()) {
+            frameOut.write(frame.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+}
@@ -0,0 +1,16 @@
+package com.tailf.jnc.framing;
+
+import java.io.IOException;
+
+class BasicDataReader implements DataReader {
+    @Override
+    public <DataBufType> int readData(BaseReader<DataBufType> rdr, DataBufType buf)
+        throws IOException {
+        return rdr.read(buf);
+    }
+    @Override
+    public <DataBufType> int readData(BaseReader<DataBufType> rdr, DataBufType buf, int offset, int length)
+        throws IOException {
+        return rdr.read(buf, offset, length);
+    }
+}
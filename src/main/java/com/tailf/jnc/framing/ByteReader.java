@@ -0,0 +1,38 @@
+package com.tailf.jnc.framing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+class ByteReader implements BaseReader<byte[]> {
+    InputStream in;
+
+    ByteReader(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read(byte[] buf) throws IOException {
+        return in.read(buf);
+    }
+
+    @Override
+    public int read(byte[] buf, int offset, int length) throws IOException {
+        return in.read(buf, offset, length);
+    }
+
+    @Override
+    public int bufSize(byte[] buf) {
+        return buf.length;
+    }
+
+    @Override
+    public ByteBuffer encode(byte[] buf, int offset, int length) {
+        return ByteBuffer.wrap(buf, offset, length);
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return in.available() > 0;
+    }
+}
@@ -0,0 +1,40 @@
+package com.tailf.jnc.framing;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+class CharReader implements BaseReader<char[]> {
+    Reader in;
+
+    CharReader(Reader in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read(char[] buf) throws IOException {
+        return in.read(buf);
+    }
+
+    @Override
+    public int read(char[] buf, int offset, int length) throws IOException {
+        return in.read(buf, offset, length);
+    }
+
+    @Override
+    public int bufSize(char[] buf) {
+        return buf.length;
+    }
+
+    @Override
+    public ByteBuffer encode(char[] buf, int offset, int length) {
+        return StandardCharsets.UTF_8.encode(CharBuffer.wrap(buf, offset, length));
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return in.ready();
+    }
+}
@@ -12,16 +12,3 @@ public interface DataReader {
     <DataBufType> int readData(BaseReader<DataBufType> rdr, DataBufType buf, int offset, int length)
         throws IOException;
 }
-
-class BasicDataReader implements DataReader {
-    @Override
-    public <DataBufType> int readData(BaseReader<DataBufType> rdr, DataBufType buf)
-        throws IOException {
-        return rdr.read(buf);
-    }
-    @Override
-    public <DataBufType> int readData(BaseReader<DataBufType> rdr, DataBufType buf, int offset, int length)
-        throws IOException {
-        return rdr.read(buf, offset, length);
-    }
-}
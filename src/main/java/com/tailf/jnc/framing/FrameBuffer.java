@@ -0,0 +1,106 @@
+package com.tailf.jnc.framing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer holding the content of one frame.
+ *
+ * A framer keeps one instance for the whole session and clears it
+ * before each frame, so in steady state no memory is allocated per
+ * frame; the backing array only grows when a frame larger than any
+ * previous one is received.
+ */
+class FrameBuffer {
+    static final int INITIAL_SIZE = 8 * 1024;
+
+    private byte[] data;
+    private int length;
+    private long allocations;
+
+    FrameBuffer() {
+        this(INITIAL_SIZE);
+    }
+
+    FrameBuffer(int initialSize) {
+        data = new byte[initialSize];
+        allocations++;
+    }
+
+    void clear() {
+        length = 0;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Set the content length; used when data were written directly
+     * into the backing array, or to drop trailing bytes.
+     */
+    void setLength(int newLength) {
+        length = newLength;
+    }
+
+    /**
+     * The backing array; it is replaced whenever the buffer grows.
+     */
+    byte[] array() {
+        return data;
+    }
+
+    /**
+     * Number of times the backing array was allocated.
+     */
+    long allocations() {
+        return allocations;
+    }
+
+    /**
+     * Make sure that at least <code>required</code> more bytes fit
+     * into the buffer without growing.
+     */
+    void ensureFree(int required) {
+        if (data.length - length < required) {
+            int size = Math.max(data.length * 2, length + required);
+            data = Arrays.copyOf(data, size);
+            allocations++;
+        }
+    }
+
+    void append(byte[] src, int offset, int len) {
+        ensureFree(len);
+        System.arraycopy(src, offset, data, length, len);
+        length += len;
+    }
+
+    /**
+     * Append everything that can be read from the stream.
+     */
+    void readAll(InputStream in) throws IOException {
+        while (true) {
+            ensureFree(1);
+            int read = in.read(data, length, data.length - length);
+            if (read == -1) {
+                return;
+            }
+            length += read;
+        }
+    }
+
+    /**
+     * View of the current content; valid only until the buffer is
+     * cleared or appended to.
+     */
+    ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(data, 0, length).slice();
+    }
+
+    String decode() {
+        return new String(data, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,199 @@
+package com.tailf.jnc.framing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frame parser for non-blocking input.
+ *
+ * Where a <code>Framer</code> pulls data from a stream, a decoder is
+ * pushed the data in whatever pieces they arrive from the network;
+ * its state is kept between calls, so the input may be split anywhere,
+ * also within an end marker or a chunk header.  Every complete frame
+ * is passed to a handler as raw (UTF-8 encoded) bytes.  Frames are
+ * collected in a buffer that is reused for the whole session.
+ */
+public class FrameDecoder {
+
+    /**
+     * Receives the decoded frames.
+     */
+    public interface FrameHandler {
+        /**
+         * Called for every complete frame.  The buffer is owned by the
+         * decoder and is valid only until the method returns.
+         */
+        void frame(ByteBuffer frame) throws IOException;
+    }
+
+    /* NETCONF 1.1 decoder states */
+    private static final int CHUNK_LF = 0;
+    private static final int CHUNK_HASH = 1;
+    private static final int CHUNK_SIZE_START = 2;
+    private static final int CHUNK_SIZE = 3;
+    private static final int CHUNK_DATA = 4;
+    private static final int END_LF = 5;
+
+    private Framing framing;
+    private final FrameBuffer frame = new FrameBuffer();
+    private byte[] scratch;
+
+    /* NETCONF 1.0: number of end marker bytes matched */
+    private int matched;
+
+    /* NETCONF 1.1 */
+    private int state = CHUNK_LF;
+    private long chunkSize;
+    private int digits;
+
+    public FrameDecoder(Framing framing) {
+        this.framing = framing;
+    }
+
+    /**
+     * Switch the framing; to be used between frames, typically after
+     * the hello messages have been exchanged.
+     */
+    public void setFraming(Framing framing) {
+        this.framing = framing;
+        matched = 0;
+        state = CHUNK_LF;
+    }
+
+    /**
+     * Number of times the decoder allocated or grew its frame buffer.
+     */
+    public long getBufferAllocations() {
+        return frame.allocations();
+    }
+
+    /**
+     * Decode all remaining data of the buffer, passing the frames
+     * completed by them to the handler.
+     */
+    public void decode(ByteBuffer in, FrameHandler handler) throws IOException {
+        if (in.hasArray()) {
+            int start = in.arrayOffset() + in.position();
+            decode(in.array(), start, start + in.remaining(), handler);
+            in.position(in.limit());
+            return;
+        }
+        if (scratch == null) {
+            scratch = new byte[FrameBuffer.INITIAL_SIZE];
+        }
+        while (in.hasRemaining()) {
+            int len = Math.min(in.remaining(), scratch.length);
+            in.get(scratch, 0, len);
+            decode(scratch, 0, len, handler);
+        }
+    }
+
+    private void decode(byte[] buf, int pos, int end, FrameHandler handler)
+        throws IOException {
+        if (framing == Framing.CHUNKED) {
+            decodeChunked(buf, pos, end, handler);
+        } else {
+            decodeEndMarked(buf, pos, end, handler);
+        }
+    }
+
+    private void decodeEndMarked(byte[] buf, int pos, int end,
+                                 FrameHandler handler) throws IOException {
+        int start = pos;
+        while (pos < end) {
+            matched = NC1_0_Framer.step(matched, buf[pos++]);
+            if (matched == NC1_0_Framer.ENDMARKER.length) {
+                frame.append(buf, start, pos - start);
+                frame.setLength(frame.length() - matched);
+                matched = 0;
+                deliver(handler);
+                start = pos;
+                if (framing != Framing.END_OF_MESSAGE) {
+                    // the handler switched the framing
+                    decodeChunked(buf, pos, end, handler);
+                    return;
+                }
+            }
+        }
+        frame.append(buf, start, pos - start);
+    }
+
+    private void decodeChunked(byte[] buf, int pos, int end,
+                               FrameHandler handler) throws IOException {
+        while (pos < end) {
+            if (state == CHUNK_DATA) {
+                int len = (int) Math.min(chunkSize, end - pos);
+                frame.append(buf, pos, len);
+                pos += len;
+                chunkSize -= len;
+                if (chunkSize == 0) {
+                    state = CHUNK_LF;
+                }
+                continue;
+            }
+            int c = buf[pos++] & 0xff;
+            switch (state) {
+            case CHUNK_LF:
+                expect(NC1_1_Framer.LF, c);
+                state = CHUNK_HASH;
+                break;
+            case CHUNK_HASH:
+                expect(NC1_1_Framer.HASH, c);
+                state = CHUNK_SIZE_START;
+                break;
+            case CHUNK_SIZE_START:
+                if (c == NC1_1_Framer.HASH) {
+                    state = END_LF;
+                    break;
+                }
+                // chunk-size = %x31-39 *DIGIT, no leading zeros
+                if (c < '1' || c > '9') {
+                    throw new IOException(String.format("Expected new chunk size, received %#x",
+                                                        c));
+                }
+                chunkSize = c - '0';
+                digits = 1;
+                state = CHUNK_SIZE;
+                break;
+            case CHUNK_SIZE:
+                if (c == NC1_1_Framer.LF) {
+                    if (chunkSize > Integer.MAX_VALUE) {
+                        throw new IOException(String.format("Invalid chunk size: %d",
+                                                            chunkSize));
+                    }
+                    state = CHUNK_DATA;
+                    break;
+                }
+                if (c < '0' || c > '9'
+                        || ++digits > NC1_1_Framer.MAX_SIZE_DIGITS) {
+                    throw new IOException(String.format("Expected new chunk size, received %#x",
+                                                        c));
+                }
+                chunkSize = chunkSize * 10 + c - '0';
+                break;
+            case END_LF:
+                expect(NC1_1_Framer.LF, c);
+                state = CHUNK_LF;
+                deliver(handler);
+                break;
+            default:
+                throw new IllegalStateException("Invalid decoder state " + state);
+            }
+        }
+    }
+
+    private static void expect(int expected, int got) throws IOException {
+        if (got != expected) {
+            throw new IOException(String.format("Invalid chunk header: expected %#x, got %#x",
+                                                expected, got));
+        }
+    }
+
+    private void deliver(FrameHandler handler) throws IOException {
+        try {
+            handler.frame(frame.asByteBuffer());
+        } finally {
+            frame.clear();
+        }
+    }
+}
@@ -32,4 +32,12 @@ public enum Framing {
             return null;
         }
     }
+
+    /**
+     * Create a framer for the output of a session whose input is
+     * decoded with a {@link FrameDecoder}.
+     */
+    public Framer newOutputFramer(OutputStream out) {
+        return newSessionFramer(new BasicDataReader(), null, out);
+    }
 }
@@ -0,0 +1,190 @@
+package com.tailf.jnc.framing;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * NETCONF 1.0 end-of-message framing.
+ *
+ * The input is read as raw bytes; the end marker is found by a
+ * streaming matcher whose state survives across reads, so the stream
+ * is never rewound and every input byte is looked at exactly once.
+ * Bytes following the end marker are kept in the read buffer for the
+ * next frame.
+ */
+@SuppressWarnings("PMD.ClassNamingConventions")
+class NC1_0_Framer extends BaseFramer {
+    static final byte[] ENDMARKER = "]]>]]>".getBytes(StandardCharsets.UTF_8);
+    /**
+     * Prefix function of the end marker: for each matched length, the
+     * length of the longest proper prefix that is also a suffix.
+     */
+    static final int[] FALLBACK = prefixFunction(ENDMARKER);
+
+    public NC1_0_Framer(DataReader rdr, InputStream in, OutputStream out) {
+        super(rdr, in, out);
+    }
+
+    private static int[] prefixFunction(byte[] pattern) {
+        int[] pi = new int[pattern.length];
+        int k = 0;
+        for (int i = 1; i < pattern.length; i++) {
+            while (k > 0 && pattern[k] != pattern[i]) {
+                k = pi[k - 1];
+            }
+            if (pattern[k] == pattern[i]) {
+                k++;
+            }
+            pi[i] = k;
+        }
+        return pi;
+    }
+
+    @Override
+    public OutputStream openFrameOutput() {
+        return new FrameOutput();
+    }
+
+    /**
+     * Frame content is written through, the end marker is added when
+     * the stream is closed.
+     */
+    private class FrameOutput extends OutputStream {
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                out.write(ENDMARKER);
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Advance the end marker matcher by one byte.
+     *
+     * @return the new number of matched marker bytes
+     */
+    static int step(int matched, byte b) {
+        while (matched > 0 && ENDMARKER[matched] != b) {
+            matched = FALLBACK[matched - 1];
+        }
+        return ENDMARKER[matched] == b ? matched + 1 : matched;
+    }
+
+    @Override
+    public ByteBuffer parseFrameBytes() throws IOException {
+        frame.clear();
+        try (InputStream frameIn = openFrame()) {
+            frame.readAll(frameIn);
+        }
+        return frame.asByteBuffer();
+    }
+
+    @Override
+    public InputStream openFrame() {
+        return new FrameStream();
+    }
+
+    /**
+     * Frame content up to the end marker.  Bytes that may start the
+     * end marker are held back until the marker either matches or
+     * fails to match; in the latter case they are released as frame
+     * content.
+     */
+    private class FrameStream extends InputStream {
+        private int matched;
+        private final byte[] released = new byte[ENDMARKER.length + 1];
+        private int releasedPos;
+        private int releasedLen;
+        private boolean done;
+        private final byte[] one = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = 0;
+            while (n < len) {
+                if (releasedPos < releasedLen) {
+                    int count = Math.min(len - n, releasedLen - releasedPos);
+                    System.arraycopy(released, releasedPos, b, off + n, count);
+                    releasedPos += count;
+                    n += count;
+                    continue;
+                }
+                if (done || (n > 0 && bufPos == bufEnd)) {
+                    // do not block when there is something to return
+                    break;
+                }
+                fill();
+                if (matched == 0) {
+                    // fast path: copy everything up to a possible marker start
+                    int end = Math.min(bufEnd, bufPos + len - n);
+                    int run = bufPos;
+                    while (run < end && buf[run] != ENDMARKER[0]) {
+                        run++;
+                    }
+                    System.arraycopy(buf, bufPos, b, off + n, run - bufPos);
+                    n += run - bufPos;
+                    bufPos = run;
+                    if (run == end) {
+                        continue;
+                    }
+                }
+                byte c = buf[bufPos++];
+                int next = step(matched, c);
+                if (next == ENDMARKER.length) {
+                    done = true;
+                    matched = 0;
+                    break;
+                }
+                // held back bytes plus c, minus what is still held back
+                releasedPos = 0;
+                releasedLen = matched + 1 - next;
+                for (int i = 0; i < releasedLen; i++) {
+                    released[i] = i < matched ? ENDMARKER[i] : c;
+                }
+                matched = next;
+            }
+            return n == 0 && done ? -1 : n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // skip the rest of the frame
+            releasedPos = releasedLen;
+            while (!done) {
+                fill();
+                matched = step(matched, buf[bufPos++]);
+                done = matched == ENDMARKER.length;
+            }
+        }
+    }
+}
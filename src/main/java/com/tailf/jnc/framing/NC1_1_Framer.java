@@ -0,0 +1,254 @@
+package com.tailf.jnc.framing;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * NETCONF 1.1 chunked framing.
+ *
+ * Chunk headers are parsed straight from the read buffer and chunk
+ * payloads are copied (or read directly) into the frame buffer, which
+ * is reused for all frames of the session; nothing is allocated per
+ * chunk.  The frame is decoded to characters at most once, as a
+ * whole, so multi-byte characters split across chunks are handled
+ * correctly.
+ */
+@SuppressWarnings("PMD.ClassNamingConventions")
+class NC1_1_Framer extends BaseFramer {
+    /**
+     * Maximum chunk size allowed by RFC 6242 has ten digits.
+     */
+    static final int MAX_SIZE_DIGITS = 10;
+
+    static final int LF = '\n';
+    static final int HASH = '#';
+
+    private static final byte[] END_OF_CHUNKS = "\n##\n".getBytes(StandardCharsets.UTF_8);
+
+    public NC1_1_Framer(DataReader rdr, InputStream in, OutputStream out) {
+        super(rdr, in, out);
+    }
+
+    /**
+     * Buffer for outgoing chunk data, reused across frames.
+     */
+    private byte[] chunk;
+
+    @Override
+    public OutputStream openFrameOutput() {
+        if (chunk == null || chunk.length != chunkSize) {
+            chunk = new byte[chunkSize];
+        }
+        return new ChunkedFrameOutput();
+    }
+
+    private void writeChunk(byte[] data, int off, int len) throws IOException {
+        out.write(String.format("\n#%d\n", len).getBytes(StandardCharsets.UTF_8));
+        out.write(data, off, len);
+    }
+
+    /**
+     * Collects written data and sends them as a chunk whenever the
+     * chunk size is reached; closing the stream sends the last chunk
+     * and the end of chunks marker.
+     */
+    private class ChunkedFrameOutput extends OutputStream {
+        private int count;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == chunk.length) {
+                flushChunk();
+            }
+            chunk[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == 0 && len >= chunk.length) {
+                    // no need to copy a full chunk
+                    writeChunk(b, off, chunk.length);
+                    off += chunk.length;
+                    len -= chunk.length;
+                    continue;
+                }
+                int n = Math.min(len, chunk.length - count);
+                System.arraycopy(b, off, chunk, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == chunk.length) {
+                    flushChunk();
+                }
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk(chunk, 0, count);
+                count = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushChunk();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                flushChunk();
+                out.write(END_OF_CHUNKS);
+                out.flush();
+            }
+        }
+    }
+
+    private int nextByte() throws IOException {
+        fill();
+        return buf[bufPos++] & 0xff;
+    }
+
+    private void expect(int expected, int got) throws IOException {
+        if (got != expected) {
+            throw new IOException(String.format("Invalid chunk header: expected %#x, got %#x",
+                                                expected, got));
+        }
+    }
+
+    /**
+     * Read the chunk header or frame terminator.  Assumes that the
+     * stream is positioned at the initial LF HASH sequence.  When
+     * completed, the stream points at the first byte after the final
+     * LF.
+     *
+     * @return size of the chunk, or -1 if the end of frame was found
+     */
+    private int readChunkSize() throws IOException {
+        expect(LF, nextByte());
+        expect(HASH, nextByte());
+        int c = nextByte();
+        if (c == HASH) {
+            // end of frame found
+            expect(LF, nextByte());
+            return -1;
+        }
+        long chunkSize = 0;
+        int digits = 0;
+        while (c != LF) {
+            // chunk-size = %x31-39 *DIGIT, no leading zeros
+            if (c < (digits == 0 ? '1' : '0') || c > '9' || ++digits > MAX_SIZE_DIGITS) {
+                throw new IOException(String.format("Expected new chunk size, received %#x",
+                                                    c));
+            }
+            chunkSize = chunkSize * 10 + c - '0';
+            c = nextByte();
+        }
+        if (digits == 0 || chunkSize > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Invalid chunk size: %d", chunkSize));
+        }
+        return (int) chunkSize;
+    }
+
+    /**
+     * Read up to <code>len</code> bytes of chunk payload, from the read
+     * buffer if there is anything left in it, otherwise directly into
+     * <code>b</code>.
+     */
+    private int readPayload(byte[] b, int off, int len) throws IOException {
+        if (bufPos < bufEnd) {
+            int count = Math.min(len, bufEnd - bufPos);
+            System.arraycopy(buf, bufPos, b, off, count);
+            bufPos += count;
+            return count;
+        }
+        int read = rdr.readData(inFacade, b, off, len);
+        if (read < 0) {
+            throw new IOException("Unexpected end of input");
+        }
+        return read;
+    }
+
+    @Override
+    public ByteBuffer parseFrameBytes() throws IOException {
+        frame.clear();
+        int chunkSize;
+        while ((chunkSize = readChunkSize()) != -1) {
+            frame.ensureFree(chunkSize);
+            int end = frame.length() + chunkSize;
+            while (frame.length() < end) {
+                int read = readPayload(frame.array(), frame.length(), end - frame.length());
+                frame.setLength(frame.length() + read);
+            }
+        }
+        return frame.asByteBuffer();
+    }
+
+    @Override
+    public InputStream openFrame() {
+        return new ChunkedFrameStream();
+    }
+
+    /**
+     * Concatenated chunk payloads of one frame.
+     */
+    private class ChunkedFrameStream extends InputStream {
+        private int chunkLeft;
+        private boolean done;
+        private final byte[] one = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        /**
+         * Make sure there is payload left in the current chunk.
+         *
+         * @return false if the end of frame was found
+         */
+        private boolean nextChunk() throws IOException {
+            while (chunkLeft == 0 && !done) {
+                int chunkSize = readChunkSize();
+                if (chunkSize == -1) {
+                    done = true;
+                } else {
+                    chunkLeft = chunkSize;
+                }
+            }
+            return !done;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int read = readPayload(b, off, Math.min(len, chunkLeft));
+            chunkLeft -= read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // skip the rest of the frame
+            while (nextChunk()) {
+                fill();
+                int count = Math.min(chunkLeft, bufEnd - bufPos);
+                bufPos += count;
+                chunkLeft -= count;
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChildIndexTest {
+
+    private static final String ns = "http://test.com/ns/childindex";
+    private static final int N = ChildIndex.THRESHOLD * 4;
+
+    /**
+     * A list entry keyed by its leaf "name".
+     */
+    static class Entry extends YangElement {
+
+        private static final long serialVersionUID = 1L;
+
+        Entry(String key) {
+            super(ns, "entry");
+            final Leaf name = new Leaf(ns, "name");
+            name.value = key;
+            addChild(name);
+        }
+
+        @Override
+        public String[] childrenNames() {
+            return new String[] {"name", "mtu"};
+        }
+
+        @Override
+        public String[] keyNames() {
+            return new String[] {"name"};
+        }
+
+        @Override
+        public Entry clone() {
+            return (Entry) cloneContent(new Entry(key()));
+        }
+
+        @Override
+        public Entry cloneShallow() {
+            return (Entry) cloneShallowContent(new Entry(key()));
+        }
+
+        private String key() {
+            return (String) getChild("name").value;
+        }
+    }
+
+    private DummyElement list;
+
+    @Before
+    public void setUp() {
+        list = new DummyElement(ns, "list");
+        for (int i = 0; i < N; i++) {
+            list.addChild(new Entry("e" + i));
+            if (i % 8 == 0) {
+                list.addChild(new Element(ns, "other" + i));
+            }
+        }
+    }
+
+    @Test
+    public void findsChildrenByName() {
+        assertEquals("other8", list.getChild("other8").name);
+        assertEquals(N, list.getChildren("entry").size());
+        int n = 0;
+        for (final ElementChildrenIterator it = list.iterator("entry"); it.hasNext(); it.next()) {
+            n++;
+        }
+        assertEquals(N, n);
+        assertNull(list.getChild("missing"));
+        assertEquals(0, list.getChildren("missing").size());
+        assertEquals(false, list.iterator("missing").hasNext());
+    }
+
+    @Test
+    public void findsEntriesByKey() {
+        final Element e = list.getChild(new Entry("e77"));
+        assertEquals("e77", e.getChild("name").value);
+        assertNull(list.getChild(new Entry("e" + N)));
+        // a plain element is found by name
+        assertSame(list.getChild("other16"),
+                   list.getChild(new Element(ns, "other16")));
+    }
+
+    @Test
+    public void indexFollowsChanges() throws Exception {
+        assertEquals("e0", list.getChild("entry").getValueOfChild("name"));
+        final Element first = list.getChild(new Entry("e0"));
+        list.deleteChild(first);
+        assertEquals("e1", list.getChild("entry").getValueOfChild("name"));
+        assertNull(list.getChild(new Entry("e0")));
+
+        list.addChild(new Entry("e0"));
+        assertEquals("e0", list.getChild(new Entry("e0")).getValueOfChild("name"));
+        assertEquals(N, list.getChildren("entry").size());
+
+        list.insertChild(new Element(ns, "first"), 0);
+        assertSame(list.getChildren().get(0), list.getChild("first"));
+
+        // changes made to the list itself are noticed too
+        list.getChildren().remove(list.getChild("first"));
+        assertNull(list.getChild("first"));
+        final NodeSet children = list.getChildren();
+        children.set(children.indexOf(list.getChild(new Entry("e1"))),
+                     new Element(ns, "replaced"));
+        assertEquals("replaced", list.getChild("replaced").name);
+        assertNull(list.getChild(new Entry("e1")));
+    }
+
+    @Test
+    public void indexFollowsRenamedKeys() {
+        final Element e = list.getChild(new Entry("e5"));
+        e.getChild("name").setValue("renamed");
+        assertSame(e, list.getChild(new Entry("renamed")));
+        assertNull(list.getChild(new Entry("e5")));
+        e.getChild("name").deleteValue();
+        assertNull(list.getChild(new Entry("renamed")));
+
+        // changed without the methods of Element
+        final Element name = e.getChild("name");
+        name.value = "e5";
+        name.invalidateKeyIndex();
+        assertSame(e, list.getChild(new Entry("e5")));
+    }
+}
@@ -3,6 +3,8 @@ package com.tailf.jnc;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -33,6 +35,30 @@ public class ExtendedElementTest {
         assertEquals("parent element has 2 children", 2, parentElement.getChildren().size());
     }
 
+    @Test
+    public void testAddChildByNameThroughReflection() throws Exception {
+        assertTrue(parentElement.addChildByName(childName) instanceof TestChild);
+        assertSame(YangElement.NO_SUCH_CHILD, parentElement.addChildByName("other"));
+        assertEquals(1, parentElement.getChildren().size());
+    }
+
+    @Test
+    public void testGeneratedChildDispatch() throws Exception {
+        final TestChild child = new TestChild();
+        assertNull("leafs are added by setLeafValue", child.addChildByName("id"));
+        assertSame(YangElement.NO_SUCH_CHILD, child.addChildByName("other"));
+        assertFalse(child.hasChildren());
+
+        child.setLeafValue(ns, "id", "42");
+        assertEquals("42", child.getValue("id").toString());
+        assertTrue(child.getChild("id") instanceof Leaf);
+
+        // unknown leafs are kept as plain elements with newer revisions
+        child.setLeafValue(ns, "other", "x");
+        assertEquals("x", child.getValue("other"));
+        assertFalse(child.getChild("other") instanceof Leaf);
+    }
+
     public class TestContainer extends YangElement {
 
         private static final long serialVersionUID = 1L;
@@ -93,6 +119,40 @@ public class ExtendedElementTest {
             return (TestChild)cloneShallowContent(new TestChild());
         }
 
+        public void setIdValue(String idValue) throws JNCException {
+            setLeafValue(ns, "id", new YangString(idValue), childrenNames());
+        }
+
+        public void setValueValue(String valueValue) throws JNCException {
+            setLeafValue(ns, "value", new YangString(valueValue), childrenNames());
+        }
+
+        @Override
+        protected Element addChildByName(String childName) throws JNCException {
+            switch (childName) {
+            case "id":
+            case "value":
+                return null;
+            default:
+                return NO_SUCH_CHILD;
+            }
+        }
+
+        @Override
+        protected boolean setLeafValueByName(String leafName, String value)
+                throws JNCException {
+            switch (leafName) {
+            case "id":
+                setIdValue(value);
+                return true;
+            case "value":
+                setValueValue(value);
+                return true;
+            default:
+                return false;
+            }
+        }
+
     }
 
 
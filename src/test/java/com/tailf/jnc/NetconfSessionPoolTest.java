@@ -0,0 +1,170 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class NetconfSessionPoolTest {
+
+    private static final String NC = "urn:ietf:params:xml:ns:netconf:base:1.0";
+
+    /**
+     * Transport answering every rpc with empty data, until it is broken.
+     */
+    static class EchoTransport extends NetconfSessionTest.ScriptedTransport {
+        int messageId;
+        boolean broken;
+        boolean closed;
+
+        @Override
+        public String readOne() throws IOException {
+            if (broken) {
+                throw new IOException("Session closed");
+            }
+            return super.readOne();
+        }
+
+        @Override
+        public void flush() {
+            super.flush();
+            replies.add("<rpc-reply xmlns=\"" + NC + "\" message-id=\""
+                        + ++messageId + "\"><data/></rpc-reply>");
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private final List<EchoTransport> opened = new ArrayList<>();
+    private NetconfSessionPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new NetconfSessionPool(new Device("dev", "127.0.0.1", 830),
+                                      "joe") {
+            @Override
+            protected NetconfSession openSession() throws JNCException {
+                final EchoTransport transport = new EchoTransport();
+                final NetconfSession session = new NetconfSession();
+                session.setTransport(transport);
+                opened.add(transport);
+                return session;
+            }
+        };
+        pool.setKeepAliveInterval(0);
+    }
+
+    @Test
+    public void prewarmedSessionsAreReused() throws Exception {
+        pool.setMinIdle(2).start();
+        assertEquals(2, opened.size());
+        assertEquals(2, pool.getIdleCount());
+
+        final NetconfSession first = pool.borrow();
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, pool.getBorrowedCount());
+        pool.release(first);
+        // the most recently released session is handed out first
+        assertSame(first, pool.borrow());
+        final NetconfSession second = pool.borrow();
+        assertNotSame(first, second);
+        assertEquals(2, opened.size());
+        // then new sessions are opened
+        pool.borrow();
+        assertEquals(3, opened.size());
+        assertEquals(3, pool.getBorrowedCount());
+    }
+
+    @Test
+    public void exhaustedPoolTimesOut() throws Exception {
+        pool.setMaxSessions(1);
+        final NetconfSession session = pool.borrow();
+        try {
+            pool.borrow(20);
+            fail("pool should be exhausted");
+        } catch (JNCException e) {
+            assertEquals(JNCException.TIMEOUT_ERROR, e.errorCode);
+        }
+        pool.release(session);
+        assertSame(session, pool.borrow(20));
+    }
+
+    @Test(timeout = 10000)
+    public void releaseWakesWaitingBorrower() throws Exception {
+        pool.setMaxSessions(1);
+        final NetconfSession session = pool.borrow();
+        final NetconfSession[] got = new NetconfSession[1];
+        final Thread waiter = new Thread(() -> {
+            try {
+                got[0] = pool.borrow();
+            } catch (IOException | JNCException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        waiter.start();
+        Thread.sleep(20);
+        pool.release(session);
+        waiter.join();
+        assertSame(session, got[0]);
+    }
+
+    @Test
+    public void keepAliveReplacesBrokenSessions() throws Exception {
+        pool.setMinIdle(2).start();
+        opened.get(0).broken = true;
+        pool.keepAlive();
+        assertTrue(opened.get(0).closed);
+        assertEquals(3, opened.size());
+        assertEquals(2, pool.getIdleCount());
+        // the keep-alive sent a get on each session
+        assertTrue(opened.get(1).sent.toString().contains("get>"));
+    }
+
+    @Test
+    public void keepAliveEvictsIdleSessions() throws Exception {
+        pool.setMinIdle(1).setMaxIdleTime(0);
+        final NetconfSession first = pool.borrow();
+        final NetconfSession second = pool.borrow();
+        pool.release(first);
+        pool.release(second);
+        Thread.sleep(5);
+        pool.keepAlive();
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, opened.stream().filter(t -> t.closed).count());
+    }
+
+    @Test
+    public void invalidatedSessionIsClosed() throws Exception {
+        final NetconfSession session = pool.borrow();
+        pool.invalidate(session);
+        assertTrue(opened.get(0).closed);
+        assertEquals(0, pool.getBorrowedCount());
+        assertNotSame(session, pool.borrow());
+    }
+
+    @Test
+    public void closedPoolClosesReleasedSessions() throws Exception {
+        pool.setMinIdle(1).start();
+        final NetconfSession session = pool.borrow();
+        pool.close();
+        pool.release(session);
+        assertTrue(opened.get(0).closed);
+        try {
+            pool.borrow();
+            fail("pool is closed");
+        } catch (JNCException e) {
+            assertEquals(JNCException.SESSION_ERROR, e.errorCode);
+        }
+    }
+}
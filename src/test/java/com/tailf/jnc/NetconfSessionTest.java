@@ -0,0 +1,362 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tailf.jnc.framing.Framing;
+
+public class NetconfSessionTest {
+
+    private static final String NC = "urn:ietf:params:xml:ns:netconf:base:1.0";
+    private static final String CLOSED = new String("closed");
+
+    /**
+     * Transport replaying scripted replies.
+     */
+    static class ScriptedTransport implements Transport {
+        final BlockingDeque<String> replies = new LinkedBlockingDeque<>();
+        /* replies queued when the next request is flushed */
+        final Queue<String> repliesOnFlush = new ConcurrentLinkedQueue<>();
+        final StringBuilder sent = new StringBuilder();
+        int flushes;
+        boolean blocking;
+
+        @Override
+        public boolean ready() {
+            return !replies.isEmpty();
+        }
+
+        @Override
+        public String readOne() throws IOException {
+            String reply;
+            try {
+                reply = blocking ? replies.take() : replies.poll();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (reply == null || reply == CLOSED) {
+                throw new IOException("Session closed");
+            }
+            return reply;
+        }
+
+        @Override
+        public void print(long i) {
+            sent.append(i);
+        }
+
+        @Override
+        public void print(String s) {
+            sent.append(s);
+        }
+
+        @Override
+        public void println(long i) {
+            sent.append(i).append('\n');
+        }
+
+        @Override
+        public void println(String s) {
+            sent.append(s).append('\n');
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+            final String reply = repliesOnFlush.poll();
+            if (reply != null) {
+                replies.add(reply);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void setFraming(Framing f) {
+        }
+
+        @Override
+        public String getDeviceConnectionInfo() {
+            return "scripted";
+        }
+
+        @Override
+        public Collection<IOSubscriber> getIOSubscribers() {
+            return Collections.emptyList();
+        }
+    }
+
+    private ScriptedTransport transport;
+    private NetconfSession session;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new ScriptedTransport();
+        session = new NetconfSession();
+        session.setTransport(transport);
+    }
+
+    private static String dataReply(int mid, String leaf) {
+        return "<rpc-reply xmlns=\"" + NC + "\" message-id=\"" + mid + "\">"
+            + "<data><" + leaf + " xmlns=\"urn:test\">" + mid + "</" + leaf
+            + "></data></rpc-reply>";
+    }
+
+    private static String okReply(int mid) {
+        return "<rpc-reply xmlns=\"" + NC + "\" message-id=\"" + mid + "\">"
+            + "<ok/></rpc-reply>";
+    }
+
+    @Test
+    public void pipelinedRepliesOutOfOrder() throws Exception {
+        final RpcFuture<NodeSet> first = session.getConfigAsync(NetconfSession.RUNNING);
+        final RpcFuture<NodeSet> second = session.getConfigAsync(NetconfSession.RUNNING);
+        final RpcFuture<Void> third = session.editConfigAsync(
+                NetconfSession.RUNNING, new NodeSet());
+        assertEquals(3, session.getPendingReplyCount());
+        assertEquals("1", first.getMessageId());
+        assertEquals("3", third.getMessageId());
+        // all requests are sent before any reply is read
+        assertEquals(3, transport.flushes);
+
+        transport.replies.add(dataReply(2, "b"));
+        transport.replies.add(okReply(3));
+        transport.replies.add(dataReply(1, "a"));
+
+        assertNull(third.await());
+        assertTrue(second.isDone());
+        assertFalse(first.isDone());
+        assertEquals("b", second.await().get(0).name);
+        assertEquals("a", first.join().get(0).name);
+        assertEquals(0, session.getPendingReplyCount());
+    }
+
+    @Test
+    public void blockingCallAfterPipelined() throws Exception {
+        final RpcFuture<NodeSet> pending = session.getConfigAsync(NetconfSession.RUNNING);
+        transport.replies.add(dataReply(1, "a"));
+        transport.replies.add(okReply(2));
+        session.lock(NetconfSession.RUNNING);
+        assertTrue(pending.isDone());
+        assertEquals("a", pending.await().get(0).name);
+    }
+
+    @Test
+    public void staxParsing() throws Exception {
+        session.setStaxParsing(true);
+        transport.replies.add(dataReply(1, "a"));
+        final NodeSet data = session.getConfig(NetconfSession.RUNNING);
+        assertEquals("a", data.get(0).name);
+        assertEquals("1", data.get(0).value);
+    }
+
+    @Test
+    public void rpcErrorCompletesExceptionally() throws Exception {
+        final RpcFuture<NodeSet> failing = session.getConfigAsync(NetconfSession.RUNNING);
+        final RpcFuture<NodeSet> ok = session.getConfigAsync(NetconfSession.RUNNING);
+        transport.replies.add("<rpc-reply xmlns=\"" + NC + "\" message-id=\"1\">"
+                + "<rpc-error><error-tag>operation-failed</error-tag></rpc-error>"
+                + "</rpc-reply>");
+        transport.replies.add(dataReply(2, "b"));
+        assertEquals("b", ok.await().get(0).name);
+        assertTrue(failing.isCompletedExceptionally());
+        JNCException e = assertThrows(JNCException.class, failing::await);
+        assertEquals(JNCException.RPC_REPLY_ERROR, e.errorCode);
+    }
+
+    @Test
+    public void unknownMessageId() throws Exception {
+        final RpcFuture<NodeSet> pending = session.getConfigAsync(NetconfSession.RUNNING);
+        transport.replies.add(okReply(42));
+        JNCException e = assertThrows(JNCException.class, pending::await);
+        assertEquals(JNCException.MESSAGE_ID_MISMATCH, e.errorCode);
+    }
+
+    @Test
+    public void sessionFailureFailsAllPending() throws Exception {
+        final RpcFuture<NodeSet> first = session.getConfigAsync(NetconfSession.RUNNING);
+        final RpcFuture<NodeSet> second = session.getConfigAsync(NetconfSession.RUNNING);
+        assertThrows(IOException.class, first::await);
+        assertTrue(second.isCompletedExceptionally());
+        assertThrows(IOException.class, second::await);
+        assertEquals(0, session.getPendingReplyCount());
+    }
+
+    private static String notification(String event) {
+        return "<notification xmlns=\"urn:ietf:params:xml:ns:netconf:notification:1.0\">"
+            + "<eventTime>2024-01-01T00:00:00Z</eventTime><" + event
+            + " xmlns=\"urn:test\"/></notification>";
+    }
+
+    @Test
+    public void blockingCallsAreAsyncJoins() throws Exception {
+        transport.replies.add(dataReply(1, "a"));
+        transport.replies.add(okReply(2));
+        assertEquals("a", session.getConfig().get(0).name);
+        session.lock(NetconfSession.RUNNING);
+        assertEquals(0, session.getPendingReplyCount());
+    }
+
+    @Test
+    public void notificationsWhilePipelining() throws Exception {
+        final RpcFuture<NodeSet> pending = session.getConfigAsync(NetconfSession.RUNNING);
+        transport.replies.add(notification("first"));
+        transport.replies.add(dataReply(1, "a"));
+        transport.replies.add(notification("second"));
+        assertEquals("a", pending.await().get(0).name);
+        assertNotNull(session.receiveNotification().getFirst("self::notification/first"));
+        assertNotNull(session.receiveNotification().getFirst("self::notification/second"));
+    }
+
+    @Test
+    public void replyReaderCompletesFutures() throws Exception {
+        transport.blocking = true;
+        session.startReplyReader();
+        assertTrue(session.isReplyReaderRunning());
+        assertThrows(JNCException.class, session::startReplyReader);
+
+        final RpcFuture<NodeSet> first = session.getConfigAsync(NetconfSession.RUNNING);
+        final RpcFuture<Void> second = session.lockAsync(NetconfSession.RUNNING);
+        transport.replies.add(okReply(2));
+        transport.replies.add(notification("event"));
+        transport.replies.add(dataReply(1, "a"));
+        assertNull(second.get(5, TimeUnit.SECONDS));
+        assertEquals("a", first.get(5, TimeUnit.SECONDS).get(0).name);
+        assertNotNull(session.receiveNotification().getFirst("self::notification/event"));
+
+        // blocking calls wait for the reader too; the reply must not reach
+        // the reader before the request is sent
+        transport.repliesOnFlush.add(okReply(3));
+        session.unlock(NetconfSession.RUNNING);
+
+        final RpcFuture<NodeSet> lost = session.getAsync();
+        transport.replies.add(CLOSED);
+        final ExecutionException e = assertThrows(ExecutionException.class,
+                () -> lost.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IOException);
+        assertThrows(IOException.class, session::receiveNotification);
+        assertFalse(session.isReplyReaderRunning());
+    }
+
+    @Test
+    public void concurrentRequestsGetOwnIds() throws Exception {
+        final int threads = 8;
+        final int requests = 50;
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<List<String>>> ids = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                ids.add(pool.submit(() -> {
+                    final List<String> mine = new ArrayList<>();
+                    for (int j = 0; j < requests; j++) {
+                        mine.add(session.lockAsync(NetconfSession.RUNNING)
+                                 .getMessageId());
+                    }
+                    return mine;
+                }));
+            }
+            final Set<String> all = new HashSet<>();
+            for (final Future<List<String>> f : ids) {
+                all.addAll(f.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(threads * requests, all.size());
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(threads * requests, session.getPendingReplyCount());
+        // each request went out whole, with the id it was registered with
+        final String[] sent = transport.sent.toString().split("</nc:rpc>");
+        assertEquals(threads * requests, sent.length);
+        final Set<Integer> sentIds = new HashSet<>();
+        for (final String rpc : sent) {
+            assertEquals(rpc, rpc.indexOf("<nc:rpc "), rpc.lastIndexOf("<nc:rpc "));
+            sentIds.add(NetconfSession.requestMessageId(rpc.trim()));
+        }
+        assertEquals(threads * requests, sentIds.size());
+    }
+
+    @Test
+    public void dependentStagesReadReplies() throws Exception {
+        final RpcFuture<NodeSet> first = session.getConfigAsync(NetconfSession.RUNNING);
+        final RpcFuture<Void> second = session.lockAsync(NetconfSession.RUNNING);
+        transport.replies.add(okReply(2));
+        transport.replies.add(dataReply(1, "a"));
+        final CompletableFuture<String> name = first
+            .thenApply(data -> data.get(0).name)
+            .thenApply(String::toUpperCase);
+        assertEquals("A", name.get(5, TimeUnit.SECONDS));
+        assertNull(RpcFuture.allOf(first, second).join());
+
+        final RpcFuture<Void> third = session.lockAsync(NetconfSession.RUNNING);
+        transport.replies.add(okReply(3));
+        assertEquals("done", third.thenApply(v -> "done").join());
+    }
+
+    @Test(timeout = 10000)
+    public void timedGetWaitsNoLongerThanTimeout() throws Exception {
+        transport.blocking = true;
+        final RpcFuture<NodeSet> reply = session.getConfigAsync(NetconfSession.RUNNING);
+        final CompletableFuture<String> name = reply.thenApply(data -> data.get(0).name);
+        assertThrows(TimeoutException.class,
+                () -> reply.get(50, TimeUnit.MILLISECONDS));
+        assertThrows(TimeoutException.class,
+                () -> name.get(50, TimeUnit.MILLISECONDS));
+        // the reply is read once it arrives
+        transport.replies.add(dataReply(1, "a"));
+        assertEquals("a", name.get(5, TimeUnit.SECONDS));
+        assertTrue(reply.isDone());
+    }
+
+    @Test
+    public void completionExecutorRunsCallbacks() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        session.setCompletionExecutor(tasks::add);
+        final RpcFuture<Void> reply = session.lockAsync(NetconfSession.RUNNING);
+        transport.replies.add(okReply(1));
+        session.awaitReply(reply);
+        assertFalse(reply.isDone());
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertNull(reply.await());
+    }
+
+    @Test
+    public void sendRequestReturnsItsMessageId() throws Exception {
+        assertEquals(7, session.sendRequest("<rpc xmlns=\"" + NC
+                + "\" message-id=\"7\"><get/></rpc>"));
+        assertEquals(8, session.sendRequest("<nc:rpc message-id='8'"
+                + " xmlns:nc=\"" + NC + "\"><nc:get/></nc:rpc>"));
+        assertEquals(-1, session.sendRequest("<rpc><get/></rpc>"));
+        final Element rpc = new Element(NC, "rpc");
+        rpc.setAttr("message-id", "9");
+        assertEquals(9, session.sendRequest(rpc));
+    }
+}
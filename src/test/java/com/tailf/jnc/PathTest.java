@@ -0,0 +1,237 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PathTest {
+
+    private static final String ns = "http://test.com/ns/path";
+
+    @After
+    public void tearDown() {
+        Path.setCacheSize(1024);
+    }
+
+    private static Element hosts(int n) throws JNCException {
+        final Element hosts = new Element(ns, "hosts");
+        for (int i = 0; i < n; i++) {
+            final Element host = hosts.createChild("host");
+            host.createChild("name", "h" + i);
+            host.createChild("ip", "10.0.0." + i);
+        }
+        return hosts;
+    }
+
+    @Test
+    public void testCompileReturnsCachedPath() throws JNCException {
+        final String s = "host[name='h1']/ip";
+        final Path p = Path.compile(s);
+        final long hits = Path.getCacheHits();
+        assertSame(p, Path.compile(s));
+        assertEquals(hits + 1, Path.getCacheHits());
+        assertEquals(s, p.getPathStr());
+        assertEquals("10.0.0.1", hosts(3).getValue(s));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsDropped() throws JNCException {
+        final PathCache cache = new PathCache(2);
+        final Path a = cache.put(new Path("a"));
+        final Path b = cache.put(new Path("b"));
+        assertSame(a, cache.get("a"));
+        cache.put(new Path("c"));
+        assertEquals(2, cache.size());
+        assertSame(a, cache.get("a"));
+        assertEquals(null, cache.get("b"));
+        assertSame(b, cache.put(b));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        cache.setCapacity(1);
+        assertEquals(1, cache.size());
+        assertSame(b, cache.get("b"));
+    }
+
+    @Test
+    public void testCacheSizeZero() throws JNCException {
+        Path.setCacheSize(0);
+        final String s = "host[name='h0']";
+        assertNotSame(Path.compile(s), Path.compile(s));
+        assertEquals(1, hosts(2).get(s).size());
+    }
+
+    private static DummyElement entries(int n) {
+        final DummyElement list = new DummyElement(ns, "list");
+        for (int i = 0; i < n; i++) {
+            final Element e = new ChildIndexTest.Entry("e" + (i % (n / 2)));
+            e.createChild("mtu", Integer.toString(i));
+            list.addChild(e);
+        }
+        return list;
+    }
+
+    private static NodeSet scan(Element list, String key) {
+        final NodeSet r = new NodeSet();
+        for (final Element e : list.getChildren()) {
+            if (key.equals(e.getValueOfChild("name"))) {
+                r.add(e);
+            }
+        }
+        return r;
+    }
+
+    @Test
+    public void testKeyPredicateUsesIndex() throws JNCException {
+        final DummyElement list = entries(ChildIndex.THRESHOLD * 4);
+        final Map<String, String> key = new HashMap<String, String>();
+        key.put("name", "e3");
+        assertEquals(scan(list, "e3"), list.getEntries("entry", key));
+        assertEquals(scan(list, "e3"), list.get("entry[name='e3']"));
+        assertEquals(0, list.get("entry[name='none']").size());
+        assertEquals("3", list.getValue("entry[name='e3']/mtu"));
+        assertSame(scan(list, "e3").first(), list.getFirst("entry[name='e3']"));
+        assertEquals(1, list.get("entry[name='e3', mtu='3']").size());
+
+        key.put("mtu", "3");
+        assertNull(list.getEntries("entry", key));
+        key.clear();
+        key.put("mtu", "3");
+        assertNull(list.getEntries("entry", key));
+    }
+
+    @Test
+    public void testKeyIndexFollowsChanges() throws JNCException {
+        final DummyElement list = entries(ChildIndex.THRESHOLD * 2);
+        assertEquals(2, list.get("entry[name='e5']").size());
+        list.deleteChild(list.getFirst("entry[name='e5']"));
+        assertEquals(scan(list, "e5"), list.get("entry[name='e5']"));
+        list.addChild(new ChildIndexTest.Entry("new"));
+        assertEquals(1, list.get("entry[name='new']").size());
+        list.createChild("entry").createChild("name", "new");
+        assertEquals(2, list.get("entry[name='new']").size());
+        assertEquals(0, list.get("other[name='new']").size());
+    }
+
+    @Test
+    public void testKeyIndexFollowsRenamedKeys() throws JNCException {
+        final DummyElement list = entries(ChildIndex.THRESHOLD * 2);
+        final Element entry = list.getFirst("entry[name='e7']");
+        entry.getChild("name").setValue("renamed");
+        assertEquals(1, list.get("entry[name='renamed']").size());
+        assertSame(entry, list.getFirst("entry[name='renamed']"));
+        assertEquals(scan(list, "e7"), list.get("entry[name='e7']"));
+        entry.deleteChild(entry.getChild("name"));
+        assertEquals(0, list.get("entry[name='renamed']").size());
+    }
+
+    @Test
+    public void testEvalFirstMatchesEval() throws JNCException {
+        final Element hosts = hosts(40);
+        hosts.getChildren().getElement(3).createChild("ip", "second");
+        final String[] paths = {
+            "host", "host/ip", "host[name='h3']/ip", "host[ip='10.0.0.9']",
+            "host[name='h39']/name", "host/self::host", "nohost/ip",
+            "child::host[name='h1']/name",
+        };
+        for (final String s : paths) {
+            final Path p = Path.compile(s);
+            assertSame(s, p.eval(hosts).first(), p.evalFirst(hosts));
+        }
+        assertSame(hosts, Path.compile("").evalFirst(hosts));
+    }
+
+    @Test
+    public void testPrefixScopeFollowsChanges() throws JNCException {
+        final String other = "http://test.com/ns/other";
+        final Element top = new Element(ns, "top");
+        top.setPrefix(new Prefix("t", ns));
+        final Element mid = top.createChild("mid");
+        final Element leaf = mid.createChild("leaf", "x");
+        assertEquals(ns, leaf.lookupContextPrefix("t"));
+        assertEquals("t", leaf.nsToPrefix(ns));
+        assertEquals(Element.NETCONF_NAMESPACE, leaf.lookupContextPrefix("nc"));
+        assertSame(leaf, top.getFirst("t:mid/t:leaf"));
+
+        mid.setPrefix(new Prefix("t", other));
+        assertEquals(other, leaf.lookupContextPrefix("t"));
+        assertEquals("t", leaf.nsToPrefix(ns));
+        assertNull(top.getFirst("t:mid/t:leaf"));
+        assertEquals(other, leaf.getContextPrefixMap().prefixToNs("t"));
+        assertEquals(Element.defaultPrefixes.size() + 1,
+                     leaf.getContextPrefixMap().size());
+
+        mid.removePrefix("t");
+        assertEquals(ns, leaf.lookupContextPrefix("t"));
+        top.setPrefix(new Prefix("o", other));
+        assertEquals(other, leaf.lookupContextPrefix("o"));
+
+        final Element elsewhere = new Element(other, "elsewhere");
+        top.deleteChild(mid);
+        assertNull(leaf.lookupContextPrefix("t"));
+        elsewhere.setPrefix(new Prefix("t", other));
+        elsewhere.addChild(mid);
+        assertEquals(other, leaf.lookupContextPrefix("t"));
+        assertEquals("t", leaf.nsToPrefix(other));
+        assertNull(leaf.nsToPrefix(ns));
+    }
+
+    @Test
+    public void testPrefixScopeFollowsDefaults() throws JNCException {
+        final Element top = new Element(ns, "top");
+        final Element leaf = top.createChild("leaf", "x");
+        assertNull(leaf.lookupContextPrefix("d"));
+        try {
+            Element.defaultPrefixes.set(new Prefix("d", ns));
+            assertEquals(ns, leaf.lookupContextPrefix("d"));
+            assertEquals("d", leaf.nsToPrefix(ns));
+            assertSame(leaf, top.getFirst("d:leaf"));
+            Element.defaultPrefixes.set(new Prefix("d", "http://test.com/ns/other"));
+            assertNull(leaf.nsToPrefix(ns));
+            assertNull(top.getFirst("d:leaf"));
+        } finally {
+            Element.defaultPrefixes.remove("d");
+        }
+        assertNull(leaf.lookupContextPrefix("d"));
+        assertNull(leaf.nsToPrefix(ns));
+    }
+
+    @Test
+    public void testSharedPathFromManyThreads() throws Exception {
+        final Element hosts = hosts(50);
+        final Path path = Path.compile("host[name='h7']/ip");
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 16; i++) {
+                results.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws JNCException {
+                        int n = 0;
+                        for (int j = 0; j < 200; j++) {
+                            n += path.eval(hosts).size();
+                        }
+                        return n;
+                    }
+                }));
+            }
+            for (final Future<Integer> r : results) {
+                assertEquals(200, r.get().intValue());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
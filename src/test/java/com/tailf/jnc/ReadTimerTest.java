@@ -0,0 +1,38 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ReadTimerTest {
+
+    @Test(timeout = 10000)
+    public void expiredDeadlineRuns() throws Exception {
+        final CountDownLatch expired = new CountDownLatch(1);
+        ReadTimer.schedule(10, expired::countDown);
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelledDeadlinesAreRemoved() {
+        final int before = ReadTimer.pending();
+        final List<ScheduledFuture<?>> deadlines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            deadlines.add(ReadTimer.schedule(60000, () -> {
+                throw new AssertionError("deadline should be cancelled");
+            }));
+        }
+        assertEquals(before + 1000, ReadTimer.pending());
+        for (final ScheduledFuture<?> deadline : deadlines) {
+            deadline.cancel(false);
+        }
+        assertEquals(before, ReadTimer.pending());
+    }
+}
@@ -0,0 +1,226 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TCPSessionTest {
+
+    private static final String NC = "urn:ietf:params:xml:ns:netconf:base:1.0";
+    private static final String ENDMARK = "]]>]]>";
+    private static final Pattern MESSAGE_ID = Pattern.compile("message-id=\"(\\d+)\"");
+
+    private ServerSocket server;
+    private Thread serverThread;
+    private final List<String> received = new ArrayList<>();
+
+    /**
+     * A NETCONF 1.0 server stand-in answering every rpc with ok, and
+     * closing the connection after close-session.
+     */
+    private void serve() {
+        try (Socket socket = server.accept()) {
+            final OutputStream out = socket.getOutputStream();
+            send(out, "<hello xmlns=\"" + NC + "\"><capabilities><capability>"
+                 + NC.replace("xml:ns:netconf", "netconf") + "</capability>"
+                 + "</capabilities><session-id>7</session-id></hello>");
+            final InputStream in = socket.getInputStream();
+            final ByteArrayOutputStream message = new ByteArrayOutputStream();
+            int c;
+            while ((c = in.read()) != -1) {
+                message.write(c);
+                final String s = message.toString("UTF-8");
+                if (!s.endsWith(ENDMARK)) {
+                    continue;
+                }
+                message.reset();
+                synchronized (received) {
+                    received.add(s);
+                }
+                final Matcher m = MESSAGE_ID.matcher(s);
+                if (!m.find()) {
+                    continue; // hello
+                }
+                send(out, "<rpc-reply xmlns=\"" + NC + "\" message-id=\""
+                     + m.group(1) + "\"><ok/></rpc-reply>");
+                if (s.contains("close-session")) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // test is over
+        }
+    }
+
+    private static void send(OutputStream out, String message) throws IOException {
+        out.write((message + ENDMARK).getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0);
+        serverThread = new Thread(this::serve);
+        serverThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        serverThread.join(5000);
+    }
+
+    private TCPSession connect() throws IOException {
+        return new TCPSession("127.0.0.1", server.getLocalPort(), 5000);
+    }
+
+    @Test(timeout = 10000)
+    public void blockingSession() throws Exception {
+        final TCPSession tcp = connect();
+        final NetconfSession session = new NetconfSession(tcp);
+        assertEquals(7, session.sessionId);
+        session.lock(NetconfSession.RUNNING);
+        session.unlock(NetconfSession.RUNNING);
+        synchronized (received) {
+            assertEquals(3, received.size());
+            assertTrue(received.get(1).contains("lock>"));
+        }
+        session.closeSession();
+        tcp.close();
+    }
+
+    @Test(timeout = 10000)
+    public void replyListener() throws Exception {
+        final TCPSession tcp = connect();
+        final NetconfSession session = new NetconfSession(tcp);
+        session.startReplyReader();
+        assertTrue(session.isReplyReaderRunning());
+
+        final List<RpcFuture<Void>> replies = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            replies.add(session.lockAsync(NetconfSession.RUNNING));
+        }
+        for (final RpcFuture<Void> reply : replies) {
+            assertNull(reply.get(5, TimeUnit.SECONDS));
+        }
+        // blocking calls wait for the listener
+        session.unlock(NetconfSession.RUNNING);
+
+        session.closeSession();
+        // the server closes the connection
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (session.isReplyReaderRunning()
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(session.isReplyReaderRunning());
+        tcp.close();
+    }
+
+    @Test(timeout = 10000)
+    public void readTimeout() throws Exception {
+        final TCPSession tcp = connect();
+        new NetconfSession(tcp);
+        tcp.setReadTimeout(50);
+        try {
+            tcp.readOne();
+        } catch (IOException e) {
+            assertFalse(tcp.getChannel().isOpen());
+            return;
+        }
+        throw new AssertionError("read should time out");
+    }
+
+    @Test(timeout = 10000)
+    public void readTimeoutIsPerInput() throws Exception {
+        try (ServerSocket slow = new ServerSocket(0)) {
+            final Thread t = new Thread(() -> {
+                try (Socket socket = slow.accept()) {
+                    final OutputStream out = socket.getOutputStream();
+                    // a reply arriving in pieces for longer than the timeout
+                    for (int i = 0; i < 8; i++) {
+                        out.write("<data/>".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        Thread.sleep(40);
+                    }
+                    send(out, "");
+                    socket.getInputStream().read();
+                } catch (IOException | InterruptedException e) {
+                    // test is over
+                }
+            });
+            t.start();
+            final TCPSession tcp =
+                    new TCPSession("127.0.0.1", slow.getLocalPort(), 150);
+            assertTrue(tcp.readOne().startsWith("<data/><data/>"));
+            assertTrue(tcp.getChannel().isOpen());
+            tcp.close();
+            t.join(5000);
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void writesDoNotWaitForThePeer() throws Exception {
+        final StringBuilder data = new StringBuilder();
+        while (data.length() < 8 * 1024 * 1024) {
+            data.append("<data>0123456789abcdef</data>");
+        }
+        final String message = data.toString();
+        try (ServerSocket peer = new ServerSocket(0)) {
+            final SelectorLoop loop = SelectorLoop.next();
+            final TCPSession tcp = new TCPSession(
+                    SocketChannel.open(new InetSocketAddress("127.0.0.1",
+                                                             peer.getLocalPort())),
+                    loop, 0);
+            try (Socket socket = peer.accept()) {
+                // sent from the loop thread, while the peer reads nothing
+                final CountDownLatch sent = new CountDownLatch(1);
+                final List<IOException> errors = new ArrayList<>();
+                loop.execute(() -> {
+                    try {
+                        tcp.print(message);
+                        tcp.flush();
+                    } catch (IOException e) {
+                        errors.add(e);
+                    }
+                    sent.countDown();
+                });
+                assertTrue(sent.await(5, TimeUnit.SECONDS));
+                assertTrue(errors.isEmpty());
+
+                final InputStream in = socket.getInputStream();
+                final byte[] buf = new byte[64 * 1024];
+                long total = 0;
+                final long expected = message.length() + ENDMARK.length();
+                int n;
+                while (total < expected && (n = in.read(buf)) != -1) {
+                    total += n;
+                }
+                assertEquals(expected, total);
+            } finally {
+                tcp.close();
+            }
+        }
+    }
+}
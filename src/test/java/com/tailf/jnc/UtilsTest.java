@@ -0,0 +1,54 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class UtilsTest {
+
+    private static final String[] values = {
+        "", " ", "   ", "a", " a ", "a b", "a  b", "  a   b  c  ", "\t a \n",
+        "a\t\tb", "a \t b", "x\r\ny", "\u0001 a  b \u0001", "a   b",
+        "R&D <lab>", "plain",
+    };
+
+    @Test
+    public void testWsCollapseMatchesRegex() {
+        for (final String s : values) {
+            final String expected = s.trim().replaceAll(" +", " ");
+            assertEquals(s, expected, Utils.wsCollapse(s));
+            final StringBuilder sb = new StringBuilder(">");
+            assertEquals(s, ">" + expected, Utils.wsCollapse(s, sb).toString());
+        }
+        assertNull(Utils.wsCollapse(null));
+    }
+
+    @Test
+    public void testWsReplaceMatchesRegex() {
+        for (final String s : values) {
+            final String expected = s.replaceAll("[\t\n\r]", " ");
+            assertEquals(s, expected, Utils.wsReplace(s));
+            final StringBuilder sb = new StringBuilder(">");
+            assertEquals(s, ">" + expected, Utils.wsReplace(s, sb).toString());
+        }
+        assertNull(Utils.wsReplace(null));
+    }
+
+    @Test
+    public void testUnchangedValuesAreReturned() {
+        final String s = "no change";
+        assertSame(s, Utils.wsCollapse(s));
+        assertSame(s, Utils.wsReplace(s));
+        assertSame(s, Utils.escapeXml(s));
+    }
+
+    @Test
+    public void testEscapeXmlAppend() {
+        final StringBuilder sb = new StringBuilder("<a>");
+        Utils.escapeXml("R&D \"<lab>\"", sb).append("</a>");
+        assertEquals("<a>R&amp;D \"&lt;lab&gt;\"</a>", sb.toString());
+        assertEquals("R&amp;D", Utils.escapeXml("R&D"));
+    }
+}
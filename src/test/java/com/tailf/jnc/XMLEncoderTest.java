@@ -0,0 +1,132 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class XMLEncoderTest {
+
+    private static final String ns = "http://test.com/ns/enc";
+
+    /**
+     * Transport encoding element trees into a byte stream.
+     */
+    static class EncodingTransport extends NetconfSessionTest.ScriptedTransport {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final XMLEncoder enc = new XMLEncoder(bytes);
+
+        @Override
+        public void print(String s) {
+            enc.write(s);
+        }
+
+        @Override
+        public void println(String s) {
+            enc.write(s);
+            enc.write("\n");
+        }
+
+        @Override
+        public XMLEncoder encoder() {
+            return enc;
+        }
+
+        String sent() throws IOException {
+            enc.flush();
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Element tree() throws JNCException {
+        final Element top = new Element(ns, "top");
+        top.setPrefix(new Prefix("e", ns));
+        top.setAttr("note", "a \"quoted\" <value> & more");
+        final Element host = top.createChild("host");
+        host.createChild("name", "håst & <co>");
+        host.createChild("descr", "tab\there € 😀");
+        host.createChild("empty");
+        final Element other = new Element("http://test.com/ns/other", "other");
+        other.setPrefix(new Prefix("", "http://test.com/ns/other"));
+        top.addChild(other);
+        return top;
+    }
+
+    @Test
+    public void testEncodedXMLString() throws JNCException {
+        assertEquals("<e:top xmlns:e=\"" + ns + "\""
+                + " e:note=\"a &quot;quoted&quot; &lt;value&gt; &amp; more\">"
+                + "<e:host><e:name>håst &amp; &lt;co&gt;</e:name>\n"
+                + "<e:descr>tab\there € 😀</e:descr>\n"
+                + "<e:empty/>\n</e:host>\n"
+                + "<other xmlns=\"http://test.com/ns/other\"/>\n</e:top>\n",
+                tree().encodedXMLString(true));
+        final Element top = new Element(ns, "top");
+        top.setPrefix(new Prefix("e", ns));
+        top.createChild("leaf", "1");
+        assertEquals("<e:top xmlns:e=\"" + ns + "\"><e:leaf>1</e:leaf></e:top>",
+                     top.encodedXMLString(false));
+    }
+
+    @Test
+    public void testEncoderMatchesText() throws JNCException, IOException {
+        final Element top = tree();
+        final NetconfSessionTest.ScriptedTransport text =
+                new NetconfSessionTest.ScriptedTransport();
+        top.encode(text, true, null);
+        final EncodingTransport bytes = new EncodingTransport();
+        top.encode(bytes, true, null);
+        assertEquals(text.sent.toString(), bytes.sent());
+    }
+
+    @Test
+    public void testEscape() {
+        assertEquals("a&amp;b&lt;c&gt;\"d\r\n&#31;&#127; ",
+                     XMLEncoder.escape("a&b<c>\"d\r\n\u001f\u007f ", false));
+        assertEquals("&quot;x&quot;", XMLEncoder.escape("\"x\"", true));
+        final String plain = "nothing to escape";
+        assertEquals(plain, XMLEncoder.escape(plain, false));
+        assertEquals("x &amp; y", Utils.escapeXml("x & y"));
+    }
+
+    @Test
+    public void testUtf8() {
+        final String s = "aå€😀";
+        assertArrayEquals(s.getBytes(StandardCharsets.UTF_8), XMLEncoder.utf8(s));
+        assertArrayEquals("?x".getBytes(StandardCharsets.UTF_8),
+                          XMLEncoder.utf8("\ud83dx"));
+    }
+
+    @Test
+    public void testLongTextAcrossBuffer() throws IOException {
+        final StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            s.append("å<");
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final XMLEncoder enc = new XMLEncoder(out);
+        enc.text(s.toString(), false);
+        enc.flush();
+        assertEquals(XMLEncoder.escape(s.toString(), false),
+                     new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWriteFileRoundTrip() throws JNCException, IOException {
+        final File file = File.createTempFile("jnc", ".xml");
+        try {
+            final Element top = tree();
+            top.writeFile(file.getPath());
+            final Element read = Element.readFile(file.getPath());
+            assertEquals(top.encodedXMLString(false),
+                         read.encodedXMLString(false));
+        } finally {
+            file.delete();
+        }
+    }
+}
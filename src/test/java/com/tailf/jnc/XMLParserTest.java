@@ -0,0 +1,302 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.xml.sax.InputSource;
+
+import org.junit.Test;
+
+public class XMLParserTest {
+
+    @Test
+    public void parserIsReusable() throws Exception {
+        final XMLParser parser = new XMLParser();
+        final Element first = parser.parse("<a xmlns=\"urn:a\"><b>1</b></a>");
+        final Element second = parser.parse("<c xmlns=\"urn:c\"><d>2</d></c>");
+        assertEquals("a", first.name);
+        assertEquals("1", first.getChild("b").value);
+        assertEquals("c", second.name);
+        assertEquals("urn:c", second.namespace);
+        assertNull(second.getParent());
+        assertEquals(1, first.getChildren().size());
+    }
+
+    @Test
+    public void textInPiecesIsJoined() throws Exception {
+        final String xml = "<a xmlns=\"urn:a\" x=\"1\">\n  <b>x &amp; y</b>\n"
+            + "  <c><![CDATA[<]]>z</c>\n</a>";
+        for (final XMLParser parser
+                 : new XMLParser[] {new XMLParser(), new YangXMLParser()}) {
+            final Element a = parser.parse(xml);
+            assertNull(a.value);
+            assertEquals("x & y", a.getChild("b").value);
+            assertEquals("<z", a.getChild("c").value);
+            assertEquals("1", a.getAttrValue("x"));
+            a.addChild(new Element("urn:a", "d"));
+            assertEquals(3, a.getChildren().size());
+        }
+    }
+
+    @Test
+    public void namesAreInterned() throws Exception {
+        final String ns = new String("urn:interned");
+        final String xml = "<a xmlns=\"" + ns + "\"><b x=\"1\"/><b/></a>";
+        for (final XMLParser parser
+                 : new XMLParser[] {new XMLParser(), new YangXMLParser()}) {
+            final Element a = parser.parse(xml);
+            assertSame("urn:interned", a.namespace);
+            assertSame("b", a.getChildren().get(0).name);
+            assertSame(a.getChildren().get(0).name, a.getChildren().get(1).name);
+            assertSame("x", a.getChild("b").getAttrs()[0].name);
+            assertSame(Symbols.intern(ns), a.namespace);
+        }
+    }
+
+    @Test
+    public void failedParseDoesNotLeak() throws Exception {
+        final XMLParser parser = new XMLParser();
+        try {
+            parser.parse("<a xmlns=\"urn:a\"><b xmlns:p=\"urn:p\">");
+            fail("document is incomplete");
+        } catch (JNCException e) {
+            assertEquals(JNCException.PARSER_ERROR, e.errorCode);
+        }
+        final Element e = parser.parse("<c xmlns=\"urn:c\"/>");
+        assertEquals("c", e.name);
+        assertNull(e.getParent());
+        assertEquals(1, e.prefixes.size());
+    }
+
+    @Test
+    public void yangParserIsReusable() throws Exception {
+        final YangXMLParser parser = new YangXMLParser();
+        final Element first = parser.parse("<a xmlns=\"urn:unknown\"><b>1</b></a>");
+        final Element second = parser.parse("<c xmlns=\"urn:unknown\"/>");
+        assertEquals("1", first.getChild("b").value);
+        assertEquals("c", second.name);
+        assertNull(second.getParent());
+    }
+
+    @Test
+    public void threadParserIsConfined() throws Exception {
+        final XMLParser parser = XMLParser.getThreadParser();
+        assertSame(parser, XMLParser.getThreadParser());
+        final XMLParser[] other = new XMLParser[1];
+        final Thread t = new Thread(() -> {
+            try {
+                other[0] = XMLParser.getThreadParser();
+            } catch (JNCException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        t.join();
+        assertNotSame(parser, other[0]);
+        assertSame(YangXMLParser.getThreadParser(),
+                   YangXMLParser.getThreadParser());
+    }
+
+    @Test
+    public void busyThreadParserIsNotShared() throws Exception {
+        final XMLParser parser = XMLParser.getThreadParser();
+        parser.parsing = true;
+        try {
+            assertNotSame(parser, XMLParser.getThreadParser());
+        } finally {
+            parser.parsing = false;
+        }
+    }
+
+    private static final String REPLY =
+        "<rpc-reply xmlns=\"urn:ietf:params:xml:ns:netconf:base:1.0\""
+        + " message-id=\"4\">\n  <data>\n"
+        + "    <hosts xmlns=\"urn:hosts\" xmlns:x=\"urn:x\">\n"
+        + "      <host x:tag=\"a &amp; b\">\n"
+        + "        <name>joe</name>\n"
+        + "        <pad> </pad>\n"
+        + "        <note><![CDATA[<raw>]]> &lt;text&gt;</note>\n"
+        + "      </host>\n"
+        + "    </hosts>\n  </data>\n</rpc-reply>";
+
+    @Test
+    public void staxBuildsSameTree() throws Exception {
+        final XMLParser sax = new XMLParser();
+        final XMLParser stax = new XMLParser();
+        stax.setStax(true);
+        assertTrue(stax.isStax());
+        final Element expected = sax.parse(REPLY);
+        final Element e = stax.parse(REPLY);
+        assertEquals(expected.toXMLString(), e.toXMLString());
+        final Element host = e.getChild("data").getChild("hosts").getChild("host");
+        assertEquals("a & b", host.getAttrValue("tag"));
+        assertEquals("urn:x", host.getAttr("tag").ns);
+        assertEquals(" ", host.getChild("pad").value);
+        assertEquals("<raw> <text>", host.getChild("note").value);
+        assertEquals(2, e.getChild("data").getChild("hosts").prefixes.size());
+    }
+
+    @Test
+    public void staxCoalescesLongValues() throws Exception {
+        final StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+        // many small reads make the reader deliver the text in pieces
+        final byte[] doc = ("<blob xmlns=\"urn:b\">" + value + "</blob>")
+            .getBytes(StandardCharsets.UTF_8);
+        final List<InputStream> pieces = new ArrayList<>();
+        for (int i = 0; i < doc.length; i += 100) {
+            pieces.add(new ByteArrayInputStream(doc, i,
+                                                Math.min(100, doc.length - i)));
+        }
+        final XMLParser parser = new XMLParser();
+        parser.setStax(true);
+        final Element e = parser.parse(new InputSource(
+                new SequenceInputStream(Collections.enumeration(pieces))));
+        assertEquals(value.toString(), e.value);
+    }
+
+    @Test
+    public void staxYangParser() throws Exception {
+        final YangXMLParser parser = new YangXMLParser();
+        parser.setStax(true);
+        final Element e = parser.parse(REPLY);
+        assertEquals("joe", e.getChild("data").getChild("hosts")
+                     .getChild("host").getChild("name").value);
+        assertEquals(new YangXMLParser().parse(REPLY).toXMLString(),
+                     e.toXMLString());
+    }
+
+    @Test
+    public void staxParseError() throws Exception {
+        final XMLParser parser = new XMLParser();
+        parser.setStax(true);
+        try {
+            parser.parse("<a xmlns=\"urn:a\"><b>");
+            fail("document is incomplete");
+        } catch (JNCException e) {
+            assertEquals(JNCException.PARSER_ERROR, e.errorCode);
+        }
+        assertEquals("c", parser.parse("<c xmlns=\"urn:c\"/>").name);
+    }
+
+    private static final String CONFIG =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<rpc-reply xmlns=\"urn:ietf:params:xml:ns:netconf:base:1.0\""
+        + " xmlns:x=\"urn:x\" message-id=\"4\">\n  <data>\n"
+        + "    <!-- <hosts> -->\n"
+        + "    <hosts xmlns=\"urn:hosts\">\n"
+        + "      <host x:tag=\"a > b\">\n"
+        + "        <name>joe</name>\n"
+        + "        <config><x:mtu>1500</x:mtu><alias/><note><![CDATA[</config>]]></note></config>\n"
+        + "      </host>\n"
+        + "      <host>\n"
+        + "        <name>ann</name>\n"
+        + "        <config><mtu>9000</mtu></config>\n"
+        + "      </host>\n"
+        + "      <empty/>\n"
+        + "    </hosts>\n  </data>\n</rpc-reply>\n";
+
+    private static XMLParser lazyParser() throws JNCException {
+        final XMLParser parser = new XMLParser();
+        parser.setLazy(true);
+        assertTrue(parser.isLazy());
+        return parser;
+    }
+
+    @Test
+    public void lazyTreeEqualsEagerTree() throws Exception {
+        final String expected = new XMLParser().parse(CONFIG).toXMLString();
+        assertEquals(expected, lazyParser().parse(CONFIG).toXMLString());
+        final YangXMLParser yang = new YangXMLParser();
+        yang.setLazy(true);
+        assertEquals(expected, yang.parse(CONFIG).toXMLString());
+        final XMLParser stax = lazyParser();
+        stax.setStax(true);
+        assertEquals(new XMLParser().parse(CONFIG).toXMLString(),
+                     stax.parse(CONFIG).toXMLString());
+    }
+
+    @Test
+    public void lazyTreeIsParsedOnAccess() throws Exception {
+        final Element reply = lazyParser().parse(CONFIG);
+        final Element data = reply.getChild("data");
+        assertNotNull(data.lazy);
+        final Element hosts = data.getChild("hosts");
+        assertNull(data.lazy);
+        assertNotNull(hosts.lazy);
+
+        final NodeSet joe = reply.get("data/hosts/host[name='joe']");
+        assertEquals(1, joe.size());
+        final Element host = joe.get(0);
+        assertEquals("a > b", host.getAttrValue("tag"));
+        // the content of the other host's config is still unparsed
+        final Element ann = hosts.getChildren("host").get(1);
+        assertEquals("ann", ann.getValueOfChild("name"));
+        assertNotNull(ann.getChild("config").lazy);
+
+        final Element config = host.getChild("config");
+        assertNotNull(config.lazy);
+        final Element mtu = config.getChild("mtu");
+        assertEquals("1500", mtu.value);
+        assertEquals("urn:x", mtu.namespace);
+        assertEquals("</config>", config.getChild("note").value);
+        assertEquals("urn:hosts", config.getChild("alias").namespace);
+        assertNull(config.value);
+    }
+
+    @Test
+    public void lazyTreeIsModifiable() throws Exception {
+        final Element reply = lazyParser().parse(CONFIG);
+        final Element hosts = reply.getChild("data").getChild("hosts");
+        hosts.addChild(new Element("urn:hosts", "host"));
+        assertEquals(4, hosts.getChildren().size());
+        assertEquals("joe", hosts.getChild("host").getValueOfChild("name"));
+        final Element copy = reply.clone();
+        assertEquals(reply.toXMLString(), copy.toXMLString());
+    }
+
+    @Test
+    public void lazyContentErrorOnAccess() throws Exception {
+        final Element e = lazyParser().parse(
+                "<a xmlns=\"urn:a\"><b><c>&undefined;</c></b></a>");
+        final Element b = e.getChild("b");
+        try {
+            b.getChildren();
+            fail("content is not well formed");
+        } catch (IllegalStateException x) {
+            assertEquals(JNCException.PARSER_ERROR,
+                         ((JNCException) x.getCause()).errorCode);
+        }
+    }
+
+    @Test
+    public void lazySiblingsWithSameLocalName() throws Exception {
+        final String xml = "<c xmlns:x=\"urn:x\" xmlns:y=\"urn:y\">"
+            + "<x:a/><y:a><y:b>2</y:b></y:a></c>";
+        final Element c = lazyParser().parse(xml);
+        final NodeSet a = c.getChildren("a");
+        assertEquals("urn:x", a.get(0).namespace);
+        assertNull(a.get(0).lazy);
+        assertFalse(a.get(0).hasChildren());
+        assertEquals("urn:y", a.get(1).namespace);
+        assertNotNull(a.get(1).lazy);
+        assertEquals("2", a.get(1).getValueOfChild("b"));
+        assertEquals(new XMLParser().parse(xml).toXMLString(), c.toXMLString());
+    }
+}
@@ -134,6 +134,182 @@ public class YangElementTest {
         assertTrue(nodeSetsAreEmpty());
     }
 
+    /**
+     * An entry whose mtu leaf takes integers only, as generated setters
+     * check values.
+     */
+    static class TypedEntry extends ChildIndexTest.Entry {
+
+        private static final long serialVersionUID = 1L;
+
+        TypedEntry(String key) {
+            super(key);
+        }
+
+        @Override
+        protected boolean setLeafValueByName(String leafName, String value)
+                throws JNCException {
+            if (!"mtu".equals(leafName)) {
+                return false;
+            }
+            setLeafValue(ns, "mtu", new YangUInt16(value), childrenNames());
+            return true;
+        }
+    }
+
+    @Test
+    public void testInvalidLeafValueKeepsLeaf() throws JNCException {
+        final TypedEntry e = new TypedEntry("eth0");
+        e.setLeafValue(ns, "mtu", "jumbo");
+        final Element mtu = e.getChild("mtu");
+        assertTrue(mtu instanceof Leaf);
+        assertEquals("jumbo", mtu.value);
+        assertEquals(1, e.getChildren().indexOf(mtu));
+        e.setLeafValue(ns, "mtu", "1500");
+        assertEquals(new YangUInt16(1500), e.getChild("mtu").value);
+        e.setLeafValue(ns, "unknown", "x");
+        assertFalse(e.getChild("unknown") instanceof Leaf);
+    }
+
+    private static DummyElement entries(int n) {
+        final DummyElement list = new DummyElement(ns, "list");
+        for (int i = 0; i < n; i++) {
+            final ChildIndexTest.Entry e = new ChildIndexTest.Entry("e" + i);
+            final Leaf mtu = new Leaf(ns, "mtu");
+            mtu.value = "1500";
+            e.addChild(mtu);
+            list.addChild(e);
+        }
+        return list;
+    }
+
+    @Test
+    public void testDiffAndSyncOfLargeLists() throws JNCException {
+        final DummyElement a = entries(1000);
+        final DummyElement b = entries(1000);
+        YangElement.getDiff(a, b, uniqueA, uniqueB, changedA, changedB);
+        assertTrue("Equal lists yield no diff", nodeSetsAreEmpty());
+
+        b.deleteChild(b.getChild(new ChildIndexTest.Entry("e10")));
+        b.getChild(new ChildIndexTest.Entry("e20")).setValue("mtu", "9000");
+        b.addChild(new ChildIndexTest.Entry("e1000"));
+        YangElement.getDiff(a, b, uniqueA, uniqueB, changedA, changedB);
+        assertEquals(1, uniqueA.size());
+        assertEquals("e10", uniqueA.first().getValue("name"));
+        assertEquals(1, uniqueB.size());
+        assertEquals("e1000", uniqueB.first().getValue("name"));
+        assertEquals(1, changedA.size());
+        assertEquals("1500", changedA.first().getValue("mtu"));
+        assertEquals("9000", changedB.first().getValue("mtu"));
+        assertFalse(YangElement.checkSync(a, b));
+
+        final NodeSet sync = YangElement.syncMerge(a, b).getChildren();
+        assertEquals(3, sync.size());
+        assertEquals("e20", sync.get(0).getValue("name"));
+        assertEquals("9000", sync.get(0).getValue("mtu"));
+        assertEquals("e1000", sync.get(1).getValue("name"));
+        assertEquals("e10", sync.get(2).getValue("name"));
+        assertEquals(Element.DELETE, sync.get(2).getAttrValue(Element.OPERATION));
+    }
+
+    @Test
+    public void testParallelDiffAndSyncMatchSequential() throws JNCException {
+        final DummyElement a = entries(1000);
+        final DummyElement b = entries(1000);
+        for (int i = 0; i < 1000; i += 50) {
+            b.deleteChild(b.getChild(new ChildIndexTest.Entry("e" + i)));
+            b.getChild(new ChildIndexTest.Entry("e" + (i + 7))).setValue("mtu", "9000");
+            b.addChild(new ChildIndexTest.Entry("n" + i));
+        }
+        YangElement.getDiff(a, b, uniqueA, uniqueB, changedA, changedB);
+        final String seq = uniqueA.toXMLString() + uniqueB.toXMLString()
+            + changedA.toXMLString() + changedB.toXMLString();
+        final String seqSync = YangElement.syncMerge(a, b).toXMLString();
+
+        YangElement.setParallelDiffThreshold(8);
+        try {
+            final NodeSet[] sets = { new NodeSet(), new NodeSet(),
+                                     new NodeSet(), new NodeSet() };
+            YangElement.getDiff(a, b, sets[0], sets[1], sets[2], sets[3]);
+            assertEquals(20, sets[0].size());
+            assertEquals(seq, sets[0].toXMLString() + sets[1].toXMLString()
+                         + sets[2].toXMLString() + sets[3].toXMLString());
+            assertEquals(seqSync, YangElement.syncMerge(a, b).toXMLString());
+            assertFalse(YangElement.checkSync(a, b));
+            assertTrue(YangElement.checkSync(a, entries(1000)));
+        } finally {
+            YangElement.setParallelDiffThreshold(0);
+        }
+    }
+
+    @Test
+    public void testDigestsFollowChanges() throws JNCException {
+        final DummyElement a = entries(100);
+        final DummyElement b = entries(100);
+        assertEquals(a.digest(), b.digest());
+
+        final Element mtu = b.getChild(new ChildIndexTest.Entry("e42")).getChild("mtu");
+        mtu.setValue("9000");
+        assertTrue(a.digest() != b.digest());
+        mtu.setValue("1500");
+        assertEquals(a.digest(), b.digest());
+        b.getChild(new ChildIndexTest.Entry("e7")).markDelete();
+        assertTrue(a.digest() != b.digest());
+        b.getChild(new ChildIndexTest.Entry("e7")).removeMark();
+        assertEquals(a.digest(), b.digest());
+        b.addChild(new ChildIndexTest.Entry("e100"));
+        assertTrue(a.digest() != b.digest());
+    }
+
+    private static long leafDigest(Object value) {
+        final Leaf leaf = new Leaf("urn:digest", "leaf");
+        leaf.setValue(value);
+        return leaf.digest();
+    }
+
+    @Test
+    public void testDigestsIncludeTypes() throws JNCException {
+        assertEquals(leafDigest(new YangDecimal64("1.5", 2)),
+                     leafDigest(new YangDecimal64("1.50", 2)));
+        assertTrue(leafDigest(new YangDecimal64("1.5", 1))
+                   != leafDigest(new YangDecimal64("1.5", 2)));
+        final String[] colors = {"red", "green"};
+        assertEquals(leafDigest(new YangEnumeration("red", colors)),
+                     leafDigest(new YangEnumeration("red", colors.clone())));
+        assertTrue(leafDigest(new YangEnumeration("red", colors))
+                   != leafDigest(new YangEnumeration("red",
+                                                     new String[] {"red"})));
+        final String int8 = "com.tailf.jnc.YangInt8";
+        final String int16 = "com.tailf.jnc.YangInt16";
+        assertTrue(leafDigest(new YangUnion("1", new String[] {int8}))
+                   != leafDigest(new YangUnion("1", new String[] {int8, int16})));
+    }
+
+    @Test
+    public void testDiffWithSubtreeDigests() throws JNCException {
+        final DummyElement a = entries(1000);
+        final DummyElement b = entries(1000);
+        YangElement.setSubtreeDigests(true);
+        try {
+            assertTrue(YangElement.checkSync(a, b));
+            b.getChild(new ChildIndexTest.Entry("e20")).setValue("mtu", "9000");
+            YangElement.getDiff(a, b, uniqueA, uniqueB, changedA, changedB);
+            assertEquals(1, changedA.size());
+            assertEquals("9000", changedB.first().getValue("mtu"));
+            assertTrue(uniqueA.isEmpty() && uniqueB.isEmpty());
+
+            // changed without the methods of Element
+            final Element mtu = b.getChild(new ChildIndexTest.Entry("e30")).getChild("mtu");
+            b.getChild(new ChildIndexTest.Entry("e20")).setValue("mtu", "1500");
+            assertTrue(YangElement.checkSync(a, b));
+            mtu.value = "9000";
+            mtu.invalidateDigest();
+            assertFalse(YangElement.checkSync(a, b));
+        } finally {
+            YangElement.setSubtreeDigests(false);
+        }
+    }
+
     @Test
     public void shouldProduceValidXmlRegardlessOfLeafNamespace() throws JNCException {
 
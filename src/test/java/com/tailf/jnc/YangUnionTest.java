@@ -0,0 +1,24 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class YangUnionTest {
+
+    private static final String[] memberTypes = new String[] {
+        "com.tailf.jnc.YangInt8",
+        "com.tailf.jnc.NoSuchType",
+        "com.tailf.jnc.YangString",
+    };
+
+    @Test
+    public void testFirstValidMemberType() throws YangException {
+        assertTrue(new YangUnion("5", memberTypes).getValue() instanceof YangInt8);
+        assertTrue(new YangUnion("300", memberTypes).getValue() instanceof YangString);
+        assertTrue(new YangUnion("abc", memberTypes).getValue() instanceof YangString);
+        assertTrue(new YangUnion("-7", memberTypes).getValue() instanceof YangInt8);
+        assertEquals("-7", new YangUnion("-7", memberTypes).toString());
+    }
+}
@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -73,6 +74,37 @@ public class FramingTest {
                      CHUNKED_INTL_FRAME, out.toString());
     }
 
+    @Test
+    public void chunkedFrameOutput() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Framer framer =
+            Framing.CHUNKED.newSessionFramer(null, nullInputStream(), out);
+        framer.setChunkSize(4);
+        try (OutputStream frame = framer.openFrameOutput()) {
+            frame.write("ab".getBytes(StandardCharsets.UTF_8));
+            frame.write("cdefghij".getBytes(StandardCharsets.UTF_8));
+            frame.write('k');
+        }
+        assertEquals("frame should be sent in chunks of given size",
+                     "\n#4\nabcd\n#4\nefgh\n#3\nijk\n##\n", out.toString());
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertEquals("chunks should be accepted", "abcdefghijk",
+                     Framing.CHUNKED.newSessionFramer(in, nullOutputStream()).parseFrame());
+    }
+
+    @Test
+    public void separatedFrameOutput() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Framer framer =
+            Framing.END_OF_MESSAGE.newSessionFramer(null, nullInputStream(), out);
+        try (OutputStream frame = framer.openFrameOutput()) {
+            frame.write(INTL_FRAME.getBytes(StandardCharsets.UTF_8));
+        }
+        framer.sendFrame(FRAME);
+        assertEquals("frames should have separators",
+                     INTL_FRAME + ENDMARK + FRAME + ENDMARK, out.toString());
+    }
+
     @Test
     public void baseAccept() throws IOException {
         InputStream in = new ByteArrayInputStream((FRAME + ENDMARK).getBytes(StandardCharsets.UTF_8));
@@ -80,6 +112,25 @@ public class FramingTest {
         assertEquals("should accept the 1.0 frame", FRAME, framer.parseFrame());
     }
 
+    @Test
+    public void baseAcceptBytes() throws IOException {
+        InputStream in = new ByteArrayInputStream((INTL_FRAME + ENDMARK).getBytes(StandardCharsets.UTF_8));
+        Framer framer = Framing.END_OF_MESSAGE.newSessionFramer(in, nullOutputStream());
+        ByteBuffer frame = framer.parseFrameBytes();
+        assertEquals("should accept the 1.0 frame as bytes",
+                     INTL_FRAME, StandardCharsets.UTF_8.decode(frame).toString());
+    }
+
+    @Test
+    public void baseAcceptOverlappingMarker() throws IOException {
+        String frame = "a]]]>]]]]>]";
+        InputStream in = new ByteArrayInputStream((frame + ENDMARK + FRAME + ENDMARK)
+                                                  .getBytes(StandardCharsets.UTF_8));
+        Framer framer = Framing.END_OF_MESSAGE.newSessionFramer(in, nullOutputStream());
+        assertEquals("should find the marker after a partial match", frame, framer.parseFrame());
+        assertEquals("should accept the following frame", FRAME, framer.parseFrame());
+    }
+
     @Test
     public void chunkedAccept() throws IOException {
         InputStream in = new ByteArrayInputStream(CHUNKED_FRAME.getBytes(StandardCharsets.UTF_8));
@@ -102,6 +153,84 @@ public class FramingTest {
         assertEquals("should accept the chunked frame", LONGER_FRAME, framer.parseFrame());
     }
 
+    @Test
+    public void chunkedSplitMultibyte() throws IOException {
+        byte[] data = INTL_FRAME.getBytes(StandardCharsets.UTF_8);
+        // split inside the first (three-byte) character
+        String chunked = String.format("\n#1\n%s\n#%d\n%s\n##\n",
+                                       new String(data, 0, 1, StandardCharsets.ISO_8859_1),
+                                       data.length - 1,
+                                       new String(data, 1, data.length - 1,
+                                                  StandardCharsets.ISO_8859_1));
+        InputStream in = new ByteArrayInputStream(chunked.getBytes(StandardCharsets.ISO_8859_1));
+        Framer framer = Framing.CHUNKED.newSessionFramer(in, nullOutputStream());
+        assertEquals("should decode characters split across chunks",
+                     INTL_FRAME, framer.parseFrame());
+    }
+
+    @Test
+    public void chunkedNoAllocationPerChunk() throws IOException {
+        StringBuilder chunked = new StringBuilder();
+        StringBuilder frame = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            chunked.append(String.format("\n#%d\n%s", FRAME.length(), FRAME));
+            frame.append(FRAME);
+        }
+        chunked.append("\n##\n");
+        byte[] data = chunked.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] frames = new byte[data.length * 3];
+        for (int i = 0; i < 3; i++) {
+            System.arraycopy(data, 0, frames, i * data.length, data.length);
+        }
+        Framer framer = Framing.CHUNKED.newSessionFramer(new ByteArrayInputStream(frames),
+                                                         nullOutputStream());
+        assertEquals(frame.toString(), framer.parseFrame());
+        long allocations = framer.getBufferAllocations();
+        assertEquals(frame.toString(), framer.parseFrame());
+        assertEquals(frame.length(), framer.parseFrameBytes().remaining());
+        assertEquals("should reuse the frame buffer",
+                     allocations, framer.getBufferAllocations());
+    }
+
+    private String readStream(InputStream in, int bufSize) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] buf = new byte[bufSize];
+        int read;
+        while ((read = in.read(buf, 0, bufSize)) != -1) {
+            data.write(buf, 0, read);
+        }
+        return new String(data.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void baseFrameStream() throws IOException {
+        String frame = "a]]]>]]]]>]";
+        String data = frame + ENDMARK + INTL_FRAME + ENDMARK + FRAME + ENDMARK;
+        for (int bufSize = 1; bufSize < 8; bufSize++) {
+            InputStream in = new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+            Framer framer = Framing.END_OF_MESSAGE.newSessionFramer(in, nullOutputStream());
+            assertEquals("should stream the 1.0 frame", frame,
+                         readStream(framer.openFrame(), bufSize));
+            framer.openFrame().close();
+            assertEquals("should skip the closed frame", FRAME,
+                         readStream(framer.openFrame(), bufSize));
+        }
+    }
+
+    @Test
+    public void chunkedFrameStream() throws IOException {
+        String data = CHUNKED_LONGER_FRAME + CHUNKED_INTL_FRAME + CHUNKED_FRAME;
+        for (int bufSize = 1; bufSize < 8; bufSize++) {
+            InputStream in = new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+            Framer framer = Framing.CHUNKED.newSessionFramer(in, nullOutputStream());
+            assertEquals("should stream the 1.1 frame", LONGER_FRAME,
+                         readStream(framer.openFrame(), bufSize));
+            framer.openFrame().close();
+            assertEquals("should skip the closed frame", FRAME,
+                         readStream(framer.openFrame(), bufSize));
+        }
+    }
+
     /**
      * Extension of the {@link DataReader} class that makes sure that
      * the data come in two parts separated at the given boundary.
@@ -202,4 +331,103 @@ public class FramingTest {
             }
         }
     }
+
+    /**
+     * Decode the data split in two at every possible position, and
+     * return the decoded frames joined by '|'.
+     */
+    private String decodeSplit(Framing framing, byte[] data, int split)
+        throws IOException {
+        StringBuilder frames = new StringBuilder();
+        FrameDecoder decoder = new FrameDecoder(framing);
+        FrameDecoder.FrameHandler handler = frame ->
+            frames.append(StandardCharsets.UTF_8.decode(frame)).append('|');
+        decoder.decode(ByteBuffer.wrap(data, 0, split), handler);
+        decoder.decode(ByteBuffer.wrap(data, split, data.length - split).slice(),
+                       handler);
+        return frames.toString();
+    }
+
+    @Test
+    public void decodeSeparatedFrames() throws IOException {
+        byte[] data = (INTL_FRAME + ENDMARK + "]]" + LONGER_FRAME + ENDMARK)
+            .getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i <= data.length; i++) {
+            assertEquals("should decode both frames from parts",
+                         INTL_FRAME + "|]]" + LONGER_FRAME + "|",
+                         decodeSplit(Framing.END_OF_MESSAGE, data, i));
+        }
+    }
+
+    @Test
+    public void decodeChunkedFrames() throws IOException {
+        byte[] data = (CHUNKED_INTL_FRAME + CHUNKED_LONGER_FRAME)
+            .getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i <= data.length; i++) {
+            assertEquals("should decode both frames from parts",
+                         INTL_FRAME + "|" + LONGER_FRAME + "|",
+                         decodeSplit(Framing.CHUNKED, data, i));
+        }
+    }
+
+    @Test
+    public void decodeDirectBuffer() throws IOException {
+        byte[] data = CHUNKED_LONGER_FRAME.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        StringBuilder frames = new StringBuilder();
+        new FrameDecoder(Framing.CHUNKED).decode(direct, frame ->
+            frames.append(StandardCharsets.UTF_8.decode(frame)));
+        assertEquals(LONGER_FRAME, frames.toString());
+    }
+
+    @Test
+    public void decodeFramingSwitch() throws IOException {
+        // the hello is end-marked, the framing changes right after it
+        byte[] data = (FRAME + ENDMARK + CHUNKED_LONGER_FRAME)
+            .getBytes(StandardCharsets.UTF_8);
+        StringBuilder frames = new StringBuilder();
+        FrameDecoder decoder = new FrameDecoder(Framing.END_OF_MESSAGE);
+        decoder.decode(ByteBuffer.wrap(data), frame -> {
+            frames.append(StandardCharsets.UTF_8.decode(frame)).append('|');
+            decoder.setFraming(Framing.CHUNKED);
+        });
+        assertEquals(FRAME + "|" + LONGER_FRAME + "|", frames.toString());
+    }
+
+    @Test
+    public void decodeNoAllocationPerFrame() throws IOException {
+        byte[] data = CHUNKED_LONGER_FRAME.getBytes(StandardCharsets.UTF_8);
+        FrameDecoder decoder = new FrameDecoder(Framing.CHUNKED);
+        for (int i = 0; i < 100; i++) {
+            decoder.decode(ByteBuffer.wrap(data), frame -> { });
+        }
+        assertEquals(1, decoder.getBufferAllocations());
+    }
+
+    @Test(expected = IOException.class)
+    public void decodeBadChunkHeader() throws IOException {
+        new FrameDecoder(Framing.CHUNKED)
+            .decode(ByteBuffer.wrap("\n#0\n".getBytes(StandardCharsets.UTF_8)),
+                    frame -> { });
+    }
+
+    @Test(expected = IOException.class)
+    public void decodeLeadingZeroChunkSize() throws IOException {
+        new FrameDecoder(Framing.CHUNKED)
+            .decode(ByteBuffer.wrap("\n#07\na frame\n##\n".getBytes(StandardCharsets.UTF_8)),
+                    frame -> { });
+    }
+
+    @Test(expected = IOException.class)
+    public void zeroChunkSize() throws IOException {
+        InputStream in = new ByteArrayInputStream("\n#0\n\n##\n".getBytes(StandardCharsets.UTF_8));
+        Framing.CHUNKED.newSessionFramer(in, nullOutputStream()).parseFrame();
+    }
+
+    @Test(expected = IOException.class)
+    public void leadingZeroChunkSize() throws IOException {
+        InputStream in = new ByteArrayInputStream("\n#07\na frame\n##\n".getBytes(StandardCharsets.UTF_8));
+        Framing.CHUNKED.newSessionFramer(in, nullOutputStream()).parseFrame();
+    }
 }